@@ -0,0 +1,46 @@
+package com.example.agent.bench;
+
+import com.example.agent.model.ir.CompactIR;
+import com.example.agent.model.ir.IR;
+import com.example.agent.translate.IRToJava;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(3)
+@State(Scope.Benchmark)
+public class GeneratorBenchmark {
+
+    @Param({"100", "10000", "1000000"})
+    public int nodes;
+
+    private final IRToJava generator = new IRToJava();
+    private IR ir;
+    private CompactIR compact;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ir = Synthetic.ir(nodes);
+        compact = Synthetic.compact(nodes);
+    }
+
+    @Benchmark
+    public String generate() {
+        return generator.generate(ir, "Bench");
+    }
+
+    /**
+     * Same nodes, fields appended straight from their source spans. Slower than {@link #generate}
+     * at every size: {@link #ir} got its fields as strings and its call arguments split in setup,
+     * while here arguments are split and fields scanned through views of the source inside the
+     * measurement. The compact form pays off in parsing ({@code ParserBenchmark.parseCompact}).
+     */
+    @Benchmark
+    public String generateCompact() {
+        return generator.generate(compact, "Bench");
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.agent.bench;
+
+import com.example.agent.rag.SimpleIndexer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 3, jvmArgsAppend = "-Xmx3g")
+@State(Scope.Benchmark)
+public class IndexerBenchmark {
+
+    // 1M documents need a few hundred MB of heap held in memory; hence -Xmx3g
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int corpus;
+
+    /** In memory, or flushed to mapped segments in a temp directory. */
+    @Param({"memory", "persistent"})
+    public String storage;
+
+    private Path dir;
+    private SimpleIndexer indexer;
+    private String[] queries;
+    private String[] extra;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Random rnd = new Random(7);
+        if (storage.equals("persistent")) {
+            dir = Files.createTempDirectory("bench-index");
+            indexer = SimpleIndexer.open(dir);
+        } else {
+            indexer = new SimpleIndexer();
+        }
+        for (int i = 0; i < corpus; i++) indexer.addDocument(Synthetic.document(rnd));
+        indexer.flush();
+        queries = new String[64];
+        for (int i = 0; i < queries.length; i++) queries[i] = Synthetic.document(rnd);
+        extra = new String[1024];
+        for (int i = 0; i < extra.length; i++) extra[i] = Synthetic.document(rnd);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        indexer.close();
+        Synthetic.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public List<String> topKSimilar() {
+        return indexer.topKSimilar(queries[next++ & (queries.length - 1)], 5);
+    }
+
+    /** Tokenising and buffering one document; the index grows by a few thousand documents per trial. */
+    @Benchmark
+    public int addDocument() {
+        return indexer.addDocument(extra[next++ & (extra.length - 1)]);
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.agent.bench;
+
+import com.example.agent.knowledge.RuleStore;
+import com.example.agent.model.ir.CompactIR;
+import com.example.agent.model.ir.IR;
+import com.example.agent.translate.DynamicDialectParser;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(3)
+public class ParserBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Rules {
+        @Param({"10", "1000", "10000"})
+        public int rules;
+
+        Path dir;
+        RuleStore store;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            dir = Files.createTempDirectory("bench-rules");
+            store = new RuleStore(dir);
+            store.addOrUpdateRules(Synthetic.rules(rules));
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            store.close();
+            Synthetic.deleteRecursively(dir);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Input {
+        @Param({"1000", "100000", "1000000"})
+        public int lines;
+
+        DynamicDialectParser parser;
+        String source;
+
+        @Setup(Level.Trial)
+        public void setUp(Rules r) {
+            parser = new DynamicDialectParser(r.store);
+            source = Synthetic.source(lines, r.rules);
+        }
+    }
+
+    /** Compiling every rule regex and building the dispatch index. */
+    @Benchmark
+    public DynamicDialectParser construct(Rules r) {
+        return new DynamicDialectParser(r.store);
+    }
+
+    @Benchmark
+    public IR parse(Input in) {
+        return in.parser.parse(in.source);
+    }
+
+    /** Same input into the columnar IR: fields are kept as spans of {@code source}. */
+    @Benchmark
+    public CompactIR parseCompact(Input in) {
+        return in.parser.parseCompact(in.source);
+    }
+}
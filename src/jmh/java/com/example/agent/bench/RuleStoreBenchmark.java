@@ -0,0 +1,67 @@
+package com.example.agent.bench;
+
+import com.example.agent.knowledge.Rule;
+import com.example.agent.knowledge.RuleStore;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(3)
+public class RuleStoreBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Store {
+        @Param({"100", "10000"})
+        public int rules;
+
+        Path dir;
+        RuleStore store;
+        List<Rule> pool;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            dir = Files.createTempDirectory("bench-store");
+            pool = Synthetic.rules(rules);
+            store = new RuleStore(dir);
+            store.addOrUpdateRules(pool);
+            store.compact(); // a reopened store then reads a snapshot, as after a normal run
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            store.close();
+            Synthetic.deleteRecursively(dir);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Batch {
+        /** Upserts journalled per save() call. */
+        @Param({"1", "100"})
+        public int batch;
+        int next;
+    }
+
+    /** Journal append plus one fsync for {@code batch} upserts. */
+    @Benchmark
+    public void save(Store s, Batch b) throws IOException {
+        for (int i = 0; i < b.batch; i++) s.store.addOrUpdateRule(s.pool.get(b.next++ % s.pool.size()));
+        s.store.save();
+    }
+
+    /** Opening the store from its snapshot files. */
+    @Benchmark
+    public int load(Store s) throws IOException {
+        try (RuleStore reopened = new RuleStore(s.dir)) {
+            return reopened.allRules().size();
+        }
+    }
+}
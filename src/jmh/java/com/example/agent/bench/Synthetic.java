@@ -0,0 +1,131 @@
+package com.example.agent.bench;
+
+import com.example.agent.knowledge.Rule;
+import com.example.agent.model.ir.CompactIR;
+import com.example.agent.model.ir.IR;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/** Deterministic rule sets, dialect sources and IR for the benchmarks. */
+final class Synthetic {
+    private Synthetic() {}
+
+    /**
+     * {@code n} rules: the core shapes (assign, decl, call, if, end if) plus keyword rules
+     * {@code KW<i> (...)}, the shape a learned rule base mostly consists of.
+     */
+    static List<Rule> rules(int n) {
+        List<Rule> rules = new ArrayList<>(n);
+        rules.add(new Rule("decl", "Decl", "^\\s*DECLARE\\s+(\\w+)\\s*:\\s*(\\w+)\\s*;\\s*$", new String[]{"name", "type"}, null, null));
+        rules.add(new Rule("if", "If", "^\\s*IF\\s+(.+)\\s+THEN\\s*$", new String[]{"cond"}, null, null));
+        rules.add(new Rule("assign", "Assign", "^\\s*(\\w+)\\s*:=\\s*(.+);\\s*$", new String[]{"name", "expr"}, null, null));
+        Rule endIf = new Rule("endif", "If", "^\\s*END\\s+IF\\s*;?\\s*$", new String[0], null, null);
+        endIf.block = "close";
+        rules.add(endIf);
+        for (int i = rules.size(); i < n - 1; i++) {
+            rules.add(new Rule("kw" + i, "Call", "^\\s*KW" + i + "\\s*\\((.*)\\)\\s*;\\s*$", new String[]{"callee"}, null, null));
+        }
+        rules.add(new Rule("call", "Call", "^\\s*(\\w+)\\((.*)\\);\\s*$", new String[]{"callee", "args"}, new String[]{"args"}, null));
+        return rules.subList(0, Math.min(n, rules.size()));
+    }
+
+    /**
+     * {@code lines} lines hitting every rule shape, keyword calls up to {@code keywords}, and some
+     * unknown lines. IF blocks are closed again, at most a few levels deep.
+     */
+    static String source(int lines, int keywords) {
+        Random rnd = new Random(42);
+        StringBuilder sb = new StringBuilder(lines * 24);
+        int open = 0;
+        for (int i = 0; i < lines; i++) {
+            if (open > 0 && (open > 3 || rnd.nextInt(4) == 0)) {
+                sb.append("END IF;\n");
+                open--;
+                continue;
+            }
+            switch (rnd.nextInt(6)) {
+                case 0 -> sb.append("DECLARE v").append(i).append(": INT;");
+                case 1 -> sb.append("v").append(rnd.nextInt(100)).append(" := v").append(rnd.nextInt(100)).append(" + ").append(i).append(';');
+                case 2 -> sb.append("print(v").append(rnd.nextInt(100)).append(", ").append(i).append(");");
+                case 3 -> sb.append("KW").append(3 + rnd.nextInt(Math.max(1, keywords))).append(" (a, b);");
+                case 4 -> {
+                    sb.append("IF v").append(rnd.nextInt(100)).append(" > 0 THEN");
+                    open++;
+                }
+                default -> sb.append("GOTO label").append(i);
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    /** Compilable as generated: declarations, assignments, prints of earlier assignments, unknown lines. */
+    static IR ir(int nodes) {
+        IR ir = new IR();
+        for (int i = 0; i < nodes; i++) {
+            switch (i % 4) {
+                case 0 -> ir.nodes.add(new IR.Decl("v" + i, "int"));
+                case 1 -> ir.nodes.add(new IR.Assign("w" + i, i + " * 2"));
+                case 2 -> ir.nodes.add(new IR.Call("System.out.println", List.of("w" + (i - 1))));
+                default -> ir.nodes.add(new IR.UnknownNode("GOTO label" + i));
+            }
+        }
+        return ir;
+    }
+
+    /** Same nodes as {@link #ir}, in compact form with every field a span of one backing string. */
+    static CompactIR compact(int nodes) {
+        StringBuilder text = new StringBuilder(nodes * 16);
+        List<int[]> spans = new ArrayList<>(nodes);
+        for (int i = 0; i < nodes; i++) {
+            int start = text.length();
+            switch (i % 4) {
+                case 0 -> text.append('v').append(i).append(" int");
+                case 1 -> text.append('w').append(i).append(' ').append(i).append(" * 2");
+                case 2 -> text.append("System.out.println w").append(i - 1);
+                default -> text.append("GOTO label").append(i);
+            }
+            int split = i % 4 == 3 ? text.length() : text.indexOf(" ", start);
+            spans.add(new int[]{start, split, text.length()});
+            text.append('\n');
+        }
+        CompactIR.Builder b = new CompactIR.Builder(text.toString());
+        for (int i = 0; i < nodes; i++) {
+            int[] s = spans.get(i);
+            byte op = switch (i % 4) {
+                case 0 -> CompactIR.DECL;
+                case 1 -> CompactIR.ASSIGN;
+                case 2 -> CompactIR.CALL;
+                default -> CompactIR.UNKNOWN;
+            };
+            if (op == CompactIR.UNKNOWN) b.appendTop(b.add(op, s[0], s[2] - s[0], CompactIR.NONE, 0));
+            else b.appendTop(b.add(op, s[0], s[1] - s[0], s[1] + 1, s[2] - s[1] - 1));
+        }
+        return b.build();
+    }
+
+    /** Code-like snippets with a shared vocabulary, so postings lists have realistic overlap. */
+    static String document(Random rnd) {
+        StringBuilder sb = new StringBuilder();
+        int stmts = 5 + rnd.nextInt(20);
+        for (int i = 0; i < stmts; i++) {
+            sb.append("v").append(rnd.nextInt(500)).append(" := f").append(rnd.nextInt(200))
+              .append("(x").append(rnd.nextInt(50)).append(");\n");
+        }
+        return sb.toString();
+    }
+
+    static void deleteRecursively(Path dir) throws IOException {
+        if (dir == null || !Files.exists(dir)) return;
+        try (Stream<Path> walk = Files.walk(dir)) {
+            for (Path p : walk.sorted(Comparator.reverseOrder()).toList()) Files.deleteIfExists(p);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.example.agent.bench;
+
+import com.example.agent.translate.IRToJava;
+import com.example.agent.translate.JavaVerifier;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(3)
+@State(Scope.Benchmark)
+public class VerifierBenchmark {
+
+    @Param({"10", "1000"})
+    public int statements;
+
+    @Param({"IN_PROCESS", "EXTERNAL_JAVAC"})
+    public JavaVerifier.Mode mode;
+
+    private JavaVerifier verifier;
+    private String java;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        verifier = new JavaVerifier(mode);
+        java = new IRToJava().generate(Synthetic.ir(statements), "Bench");
+    }
+
+    @Benchmark
+    public boolean compile() {
+        return verifier.compile("Bench", java).ok;
+    }
+}
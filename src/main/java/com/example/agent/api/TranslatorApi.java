@@ -1,11 +1,30 @@
 package com.example.agent.api;
 
+import com.example.agent.translate.BulkStats;
+
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.List;
 
 public interface TranslatorApi {
     void learn(Path repoRoot, List<String> includeExts) throws IOException;
+
+    /** Same as {@link #learn(Path, List)} with up to {@code concurrency} LLM calls in flight. */
+    void learn(Path repoRoot, List<String> includeExts, int concurrency) throws IOException;
     String translate(String dialectSource) throws IOException;
+
+    /**
+     * Streaming rule-based translation of a file of any size: lines are parsed and written
+     * to {@code javaFile} as they are read. No LLM hints, verification or repair are done,
+     * since those need the whole program in memory.
+     */
+    void translateFile(Path dialectFile, Path javaFile) throws IOException;
+
+    /**
+     * Translates every file under {@code srcRoot} with one of {@code includeExts} into
+     * {@code outRoot}, keeping the directory layout. Files finished by an earlier run are skipped.
+     * At most {@code llmConcurrency} repair calls run at once (0 disables LLM repair).
+     */
+    BulkStats translateTree(Path srcRoot, Path outRoot, List<String> includeExts, int llmConcurrency) throws IOException;
     String fix(String dialectSource, String currentJava, String feedback) throws IOException;
 }
@@ -1,54 +1,204 @@
 package com.example.agent.api;
 
+import com.example.agent.bootstrap.LearnStats;
+import com.example.agent.bootstrap.Improver;
 import com.example.agent.bootstrap.Learner;
+import com.example.agent.bootstrap.RefinementQueue;
 import com.example.agent.config.Config;
 import com.example.agent.knowledge.RuleStore;
+import com.example.agent.metrics.MetricsRegistry;
+import com.example.agent.metrics.SimpleMetricsRegistry;
+import com.example.agent.providers.CachingChatClient;
+import com.example.agent.providers.ChatClient;
 import com.example.agent.providers.GigaChatOpenAIClient;
+import com.example.agent.providers.ScheduledChatClient;
+import com.example.agent.model.ir.IR;
 import com.example.agent.rag.SimpleIndexer;
+import com.example.agent.translate.BulkStats;
+import com.example.agent.translate.BulkTranslator;
+import com.example.agent.translate.DynamicDialectParser;
+import com.example.agent.translate.IRToJava;
+import com.example.agent.translate.IncrementalTranslator;
+import com.example.agent.translate.JavaVerifier;
 import com.example.agent.translate.TranslatorAgent;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.List;
 import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
-public class TranslatorEngine implements TranslatorApi {
+/**
+ * Entry point for embedding. All methods may be called concurrently: the engine shares one
+ * {@link TranslatorAgent} whose parser works on immutable compiled-rule snapshots, recompiled
+ * only when the rule store's version changes.
+ */
+public class TranslatorEngine implements TranslatorApi, Closeable {
 
-    private final GigaChatOpenAIClient llm;
+    private final ScheduledChatClient scheduler;
+    private final CachingChatClient cache;
+    private final ChatClient llm;
     private final RuleStore rules;
     private final SimpleIndexer indexer;
+    private final DynamicDialectParser parser;
+    private final IncrementalTranslator incremental;
+    private final JavaVerifier verifier = new JavaVerifier();
+    private final RefinementQueue refinement;
+    private final TranslatorAgent agent;
+    private final MetricsRegistry metrics;
 
     public TranslatorEngine(String apiBase, String apiKey, String model, Path runtimeDir) throws IOException {
-        this.llm = new GigaChatOpenAIClient(Objects.requireNonNull(apiBase), Objects.requireNonNull(apiKey), Objects.requireNonNull(model));
-        this.rules = new RuleStore(Objects.requireNonNull(runtimeDir));
-        this.indexer = new SimpleIndexer();
+        this(new Config(apiBase, apiKey, model), runtimeDir);
+    }
+
+    public TranslatorEngine(Config cfg, Path runtimeDir) throws IOException {
+        this(cfg, runtimeDir, new SimpleMetricsRegistry());
+    }
+
+    /** Stage timings and LLM counters of every component go to {@code metrics}. */
+    public TranslatorEngine(Config cfg, Path runtimeDir, MetricsRegistry metrics) throws IOException {
+        Objects.requireNonNull(runtimeDir);
+        this.metrics = Objects.requireNonNull(metrics);
+        var http = new GigaChatOpenAIClient(Objects.requireNonNull(cfg.apiBase), Objects.requireNonNull(cfg.apiKey), Objects.requireNonNull(cfg.model),
+                Math.max(1, cfg.maxConcurrency));
+        http.setMetrics(metrics);
+        // cache hits never reach the scheduler, so they cost no rate-limit tokens
+        this.scheduler = new ScheduledChatClient(http, cfg.ratePerSecond, cfg.maxConcurrency, cfg.maxRetries);
+        this.cache = new CachingChatClient(scheduler, cfg.model, runtimeDir.resolve("llm-cache"),
+                CachingChatClient.Mode.parse(cfg.cacheMode), cfg.cacheMaxBytes, cfg.cacheMaxAge);
+        this.llm = cache;
+        this.rules = new RuleStore(runtimeDir);
+        this.indexer = SimpleIndexer.open(runtimeDir.resolve("index"));
+        this.parser = new DynamicDialectParser(rules);
+        this.incremental = new IncrementalTranslator(parser, new IRToJava(), verifier, runtimeDir.resolve("incremental"));
+        var improver = new Improver(llm, rules);
+        improver.setMetrics(metrics);
+        this.refinement = new RefinementQueue(improver, rules);
+        this.agent = new TranslatorAgent(llm, indexer, rules, parser, refinement);
+        agent.setMetrics(metrics);
     }
 
     public static TranslatorEngine fromEnv(Path runtimeDir) throws IOException {
-        var cfg = Config.fromEnv();
-        return new TranslatorEngine(cfg.apiBase, cfg.apiKey, cfg.model, runtimeDir);
+        return new TranslatorEngine(Config.fromEnv(), runtimeDir);
     }
 
     @Override
     public void learn(Path repoRoot, List<String> includeExts) throws IOException {
+        learn(repoRoot, includeExts, 1);
+    }
+
+    @Override
+    public void learn(Path repoRoot, List<String> includeExts, int concurrency) throws IOException {
+        learn(repoRoot, includeExts, concurrency, null);
+    }
+
+    /** Learn run that reports {@link LearnStats} to {@code progress} every few seconds (may be null). */
+    public LearnStats learn(Path repoRoot, List<String> includeExts, int concurrency, Consumer<LearnStats> progress) throws IOException {
         var learner = new Learner(llm, rules, indexer);
-        learner.learnFromRepo(repoRoot, includeExts);
+        learner.setMetrics(metrics);
+        if (progress != null) learner.setProgressListener(progress, Duration.ofSeconds(5));
+        LearnStats stats = learner.learnFromRepo(repoRoot, includeExts, concurrency);
+        indexer.flush();
         rules.save();
+        return stats;
     }
 
     @Override
     public String translate(String dialectSource) throws IOException {
-        var agent = new TranslatorAgent(llm, indexer, rules);
         String out = agent.translate(dialectSource);
         rules.save();
         return out;
     }
 
+    @Override
+    public void translateFile(Path dialectFile, Path javaFile) throws IOException {
+        String fileName = javaFile.getFileName().toString();
+        String className = fileName.endsWith(".java") ? fileName.substring(0, fileName.length() - 5) : fileName;
+        try (var t = metrics.time("translate.file");
+             var in = Files.newBufferedReader(dialectFile, StandardCharsets.UTF_8);
+             var out = Files.newBufferedWriter(javaFile, StandardCharsets.UTF_8);
+             Stream<IR.Node> nodes = parser.parse(in)) {
+            new IRToJava().generate(nodes.iterator(), className, out);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Like {@link #translateFile} but reuses the previous run over the same source: only lines it
+     * has not seen with the current rules are parsed, generated and syntax-checked.
+     */
+    public IncrementalTranslator.Result translateFileIncremental(Path dialectFile, Path javaFile) throws IOException {
+        try (var t = metrics.time("translate.incremental")) {
+            return incremental.translate(dialectFile, javaFile);
+        }
+    }
+
+    @Override
+    public BulkStats translateTree(Path srcRoot, Path outRoot, List<String> includeExts, int llmConcurrency) throws IOException {
+        return translateTree(srcRoot, outRoot, includeExts, llmConcurrency, null);
+    }
+
+    /** Bulk run that reports {@link BulkStats} to {@code progress} every few seconds (may be null). */
+    public BulkStats translateTree(Path srcRoot, Path outRoot, List<String> includeExts, int llmConcurrency,
+                                   Consumer<BulkStats> progress) throws IOException {
+        var bulk = new BulkTranslator(agent, Runtime.getRuntime().availableProcessors(), llmConcurrency);
+        if (progress != null) bulk.setProgressListener(progress, Duration.ofSeconds(5));
+        return bulk.run(srcRoot, outRoot, includeExts);
+    }
+
     @Override
     public String fix(String dialectSource, String currentJava, String feedback) throws IOException {
-        var agent = new TranslatorAgent(llm, indexer, rules);
         String out = agent.applyUserFix(dialectSource, currentJava, feedback);
         rules.save();
         return out;
     }
+
+    /**
+     * Retires rules that matched nothing in the last {@code windowLines} parsed lines (dead, shadowed
+     * or quarantined) and compacts the store. Returns the retired rules as "id: reason".
+     */
+    public List<String> pruneRules(long windowLines) throws IOException {
+        List<String> retired = rules.prune(windowLines);
+        rules.compact();
+        return retired;
+    }
+
+    /** LLM response cache hit/miss counters. */
+    public CachingChatClient llmCache() {
+        return cache;
+    }
+
+    /** Request, retry and coalescing counters of the admission-control layer. */
+    public ScheduledChatClient llmScheduler() {
+        return scheduler;
+    }
+
+    /** Per-stage timings and counters; {@code metrics().snapshot().format()} gives a printable table. */
+    public MetricsRegistry metrics() {
+        return metrics;
+    }
+
+    /** Background rule refinement fed by translate/fix; {@code flush} waits for it. */
+    public RefinementQueue refinements() {
+        return refinement;
+    }
+
+    /** Finishes queued refinements, then flushes the rule store journal and the retrieval index. */
+    @Override
+    public void close() throws IOException {
+        refinement.close();
+        verifier.close();
+        try {
+            indexer.close();
+        } finally {
+            rules.close();
+        }
+    }
 }
@@ -2,9 +2,11 @@ package com.example.agent.bootstrap;
 
 import com.example.agent.knowledge.Rule;
 import com.example.agent.knowledge.RuleStore;
-import com.example.agent.providers.GigaChatOpenAIClient;
+import com.example.agent.metrics.MetricsRegistry;
+import com.example.agent.providers.ChatClient;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -14,46 +16,95 @@ import java.util.Map;
  */
 public class Improver {
 
-    private final GigaChatOpenAIClient llm;
+    private final ChatClient llm;
     private final RuleStore store;
+    private volatile MetricsRegistry metrics = MetricsRegistry.noop();
 
-    public Improver(GigaChatOpenAIClient llm, RuleStore store) {
+    public Improver(ChatClient llm, RuleStore store) {
         this.llm = llm;
         this.store = store;
     }
 
+    public void setMetrics(MetricsRegistry metrics) {
+        this.metrics = metrics;
+    }
+
     public void refineRules(String dialectSnippet, String javaResult, String diagnosticsOrFeedback) throws IOException {
-        String prompt = "На основе пары (диалект -> Java) предложи улучшения правил распознавания в формате JSONL. " +
-                "Строгие поля: id, irType, regex, fields:[...], listFields:[...] (опц.), javaTemplate (опц.). " +
-                "Используй IR-ноды: Assign(name,expr), Call(callee,args), Decl(name,type), If(cond), Loop(header). " +
-                "Не дублируй существующие правила, обобщи, стабилизируй regex.\n\n" +
-                "Диалект:\n" + dialectSnippet + "\n\nJava:\n" + javaResult + "\n\nЗамечания/диагностика:\n" + diagnosticsOrFeedback +
-                "\n\nВерни только JSONL.";
-        String jsonl = llm.chat(List.of(
-                Map.of("role","system","content","Возвращай только JSONL, по одному объекту в строке."),
-                Map.of("role","user","content", prompt)
-        ), 0.2);
+        refineBatch(List.of(new Sample(dialectSnippet, javaResult, diagnosticsOrFeedback)));
+    }
+
+    /** One (dialect, Java, diagnostics-or-feedback) observation to learn from. */
+    public static final class Sample {
+        public final String dialect;
+        public final String java;
+        public final String feedback;
+        public Sample(String dialect, String java, String feedback) {
+            this.dialect = dialect; this.java = java; this.feedback = feedback;
+        }
+    }
+
+    /**
+     * Asks for rule improvements covering all {@code samples} in one LLM call and applies the
+     * returned rules as a single store update. Returns the number of rules applied.
+     */
+    public int refineBatch(List<Sample> samples) throws IOException {
+        if (samples.isEmpty()) return 0;
+        StringBuilder prompt = new StringBuilder();
+        prompt.append(samples.size() == 1
+                ? "На основе пары (диалект -> Java) предложи улучшения правил распознавания в формате JSONL. "
+                : "На основе нескольких пар (диалект -> Java) предложи улучшения правил распознавания в формате JSONL, общие для всех пар. ");
+        prompt.append("Строгие поля: id, irType, regex, fields:[...], listFields:[...] (опц.), javaTemplate (опц.). ")
+              .append("Используй IR-ноды: Assign(name,expr), Call(callee,args), Decl(name,type), If(cond), Loop(header). ")
+              .append("Блоки: If/Loop открывают тело; для ELSE добавь правило с block:\"middle\" (irType If; с группой условия — ELSIF), ")
+              .append("для END — block:\"close\" (irType If/Loop или без irType), для строки, продолжающейся на следующей, — block:\"continue\". ")
+              .append("Не дублируй существующие правила, обобщи, стабилизируй regex.\n\n");
+        for (int i = 0; i < samples.size(); i++) {
+            Sample smp = samples.get(i);
+            if (samples.size() > 1) prompt.append("=== Пара ").append(i + 1).append(" ===\n");
+            prompt.append("Диалект:\n").append(smp.dialect).append("\n\nJava:\n").append(smp.java)
+                  .append("\n\nЗамечания/диагностика:\n").append(smp.feedback).append("\n\n");
+        }
+        prompt.append("Верни только JSONL.");
+        String jsonl;
+        try (var t = metrics.time("llm.refine")) {
+            jsonl = llm.chat(List.of(
+                    Map.of("role","system","content","Возвращай только JSONL, по одному объекту в строке."),
+                    Map.of("role","user","content", prompt.toString())
+            ), 0.2);
+        }
+        List<Rule> parsed = new ArrayList<>();
         for (String line : jsonl.split("\r?\n")) {
-            line = line.trim();
-            if (line.isEmpty()) continue;
-            try {
-                String id = extract(line, "\"id\"\\s*:\\s*\"(.*?)\"");
-                String irType = extract(line, "\"irType\"\\s*:\\s*\"(.*?)\"");
-                String regex = extract(line, "\"regex\"\\s*:\\s*\"(.*?)\"");
-                String fields = extract(line, "\"fields\"\\s*:\\s*\\[(.*?)\\]");
-                String listFields = extract(line, "\"listFields\"\\s*:\\s*\\[(.*?)\\]");
-                String tpl = extract(line, "\"javaTemplate\"\\s*:\\s*\"(.*?)\"");
-                if (id == null || irType == null || regex == null || fields == null) continue;
-                var fs = new java.util.ArrayList<String>();
-                var m1 = java.util.regex.Pattern.compile("\"(.*?)\"").matcher(fields);
-                while (m1.find()) fs.add(m1.group(1));
-                var lfs = new java.util.ArrayList<String>();
-                if (listFields != null) {
-                    var m2 = java.util.regex.Pattern.compile("\"(.*?)\"").matcher(listFields);
-                    while (m2.find()) lfs.add(m2.group(1));
-                }
-                store.addOrUpdateRule(new Rule(id, irType, regex, fs.toArray(new String[0]), lfs.toArray(new String[0]), tpl));
-            } catch (Exception ignored) {}
+            Rule r = parseRule(line.trim());
+            if (r != null) parsed.add(r);
+        }
+        store.addOrUpdateRules(parsed);
+        return parsed.size();
+    }
+
+    private Rule parseRule(String line) {
+        if (line.isEmpty()) return null;
+        try {
+            String id = extract(line, "\"id\"\\s*:\\s*\"(.*?)\"");
+            String irType = extract(line, "\"irType\"\\s*:\\s*\"(.*?)\"");
+            String regex = extract(line, "\"regex\"\\s*:\\s*\"(.*?)\"");
+            String fields = extract(line, "\"fields\"\\s*:\\s*\\[(.*?)\\]");
+            String listFields = extract(line, "\"listFields\"\\s*:\\s*\\[(.*?)\\]");
+            String tpl = extract(line, "\"javaTemplate\"\\s*:\\s*\"(.*?)\"");
+            String block = extract(line, "\"block\"\\s*:\\s*\"(.*?)\"");
+            if (id == null || irType == null || regex == null || fields == null) return null;
+            var fs = new java.util.ArrayList<String>();
+            var m1 = java.util.regex.Pattern.compile("\"(.*?)\"").matcher(fields);
+            while (m1.find()) fs.add(m1.group(1));
+            var lfs = new java.util.ArrayList<String>();
+            if (listFields != null) {
+                var m2 = java.util.regex.Pattern.compile("\"(.*?)\"").matcher(listFields);
+                while (m2.find()) lfs.add(m2.group(1));
+            }
+            Rule r = new Rule(id, irType, regex, fs.toArray(new String[0]), lfs.toArray(new String[0]), tpl);
+            r.block = block;
+            return r;
+        } catch (Exception ignored) {
+            return null;
         }
     }
 
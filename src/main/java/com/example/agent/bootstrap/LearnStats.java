@@ -0,0 +1,53 @@
+package com.example.agent.bootstrap;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Live counters of a learn run; safe to read while the run is in progress. */
+public class LearnStats {
+
+    private static final int MAX_FAILURES_KEPT = 100;
+
+    private final long startNanos = System.nanoTime();
+    final AtomicLong discovered = new AtomicLong();
+    final AtomicLong skipped = new AtomicLong();
+    final AtomicLong learned = new AtomicLong();
+    final AtomicLong failed = new AtomicLong();
+    final AtomicLong rules = new AtomicLong();
+    final AtomicInteger inFlightLlm = new AtomicInteger();
+    private final List<String> failures = Collections.synchronizedList(new ArrayList<>());
+
+    public long discovered() { return discovered.get(); }
+    public long skipped() { return skipped.get(); }
+    public long learned() { return learned.get(); }
+    public long failed() { return failed.get(); }
+    public long rules() { return rules.get(); }
+    public int inFlightLlm() { return inFlightLlm.get(); }
+
+    /** First failures as "path: error", capped so a broken repo cannot exhaust memory. */
+    public List<String> failures() {
+        synchronized (failures) { return List.copyOf(failures); }
+    }
+
+    public double filesPerSecond() {
+        double secs = (System.nanoTime() - startNanos) / 1e9;
+        return secs <= 0 ? 0 : (learned.get() + skipped.get() + failed.get()) / secs;
+    }
+
+    void recordFailure(Path file, Exception e) {
+        failed.incrementAndGet();
+        synchronized (failures) {
+            if (failures.size() < MAX_FAILURES_KEPT) failures.add(file + ": " + e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("files=%d learned=%d skipped=%d failed=%d rules=%d inFlightLlm=%d rate=%.1f files/s",
+                discovered(), learned(), skipped(), failed(), rules(), inFlightLlm(), filesPerSecond());
+    }
+}
@@ -2,55 +2,151 @@ package com.example.agent.bootstrap;
 
 import com.example.agent.knowledge.Rule;
 import com.example.agent.knowledge.RuleStore;
-import com.example.agent.providers.GigaChatOpenAIClient;
+import com.example.agent.metrics.MetricsRegistry;
+import com.example.agent.providers.ChatClient;
+import com.example.agent.providers.LineSplitter;
 import com.example.agent.rag.SimpleIndexer;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.file.*;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class Learner {
 
-    private final GigaChatOpenAIClient llm;
+    private final ChatClient llm;
     private final RuleStore store;
     private final SimpleIndexer indexer;
+    private volatile Consumer<LearnStats> progressListener;
+    private volatile MetricsRegistry metrics = MetricsRegistry.noop();
+    private volatile long progressIntervalNanos;
+    private final AtomicLong lastReportNanos = new AtomicLong(System.nanoTime());
 
-    public Learner(GigaChatOpenAIClient llm, RuleStore store, SimpleIndexer indexer) {
+    public Learner(ChatClient llm, RuleStore store, SimpleIndexer indexer) {
         this.llm = llm;
         this.store = store;
         this.indexer = indexer;
     }
 
-    public void learnFromRepo(Path root, List<String> includeExts) throws IOException {
+    public LearnStats learnFromRepo(Path root, List<String> includeExts) throws IOException {
+        return learnFromRepo(root, includeExts, 1);
+    }
+
+    /**
+     * Learns rules from every matching file under {@code root}.
+     * With {@code concurrency > 1} files are handled on virtual threads: reading and hashing
+     * run ahead while at most {@code concurrency} LLM calls are in flight.
+     * A failing file is counted in {@link LearnStats} and does not stop the walk.
+     */
+    public LearnStats learnFromRepo(Path root, List<String> includeExts, int concurrency) throws IOException {
+        LearnStats stats = new LearnStats();
         try (var walk = Files.walk(root)) {
-            walk.filter(Files::isRegularFile)
-                .filter(p -> includeExts.stream().anyMatch(ext -> p.toString().endsWith(ext)))
-                .forEach(p -> {
-                    try {
-                        if (store.isProcessed(root, p)) return;
-                        String text = Files.readString(p);
-                        indexer.addDocument(text);
-                        String sample = sampleLines(text, 120);
-                        String prompt = buildPrompt(sample);
-                        String jsonl = llm.chat(List.of(
-                                Map.of("role","system","content","Ты выводишь минимальные правила языка по примерам кода. Формат: JSONL, поля: id, irType, regex, fields, listFields (опц.), javaTemplate (опц.)."),
-                                Map.of("role","user","content", prompt)
-                        ), 0.2);
-                        for (String line : jsonl.split("\r?\n")) {
-                            line = line.trim();
-                            if (line.isEmpty()) continue;
-                            try {
-                                var r = parseRule(line);
-                                if (r != null) store.addOrUpdateRule(r);
-                            } catch (Exception ignored) {}
+            Iterator<Path> files = walk
+                    .filter(Files::isRegularFile)
+                    .filter(p -> includeExts.stream().anyMatch(ext -> p.toString().endsWith(ext)))
+                    .iterator();
+            if (concurrency <= 1) {
+                Semaphore single = new Semaphore(1);
+                while (files.hasNext()) {
+                    stats.discovered.incrementAndGet();
+                    learnFile(root, files.next(), single, stats);
+                }
+                return stats;
+            }
+            Semaphore llmPermits = new Semaphore(concurrency);
+            // bounds files held in memory: in-flight LLM calls plus as many read ahead
+            Semaphore pending = new Semaphore(concurrency * 2);
+            try (ExecutorService exec = Executors.newVirtualThreadPerTaskExecutor()) {
+                while (files.hasNext()) {
+                    Path p = files.next();
+                    stats.discovered.incrementAndGet();
+                    pending.acquire();
+                    exec.execute(() -> {
+                        try {
+                            learnFile(root, p, llmPermits, stats);
+                        } finally {
+                            pending.release();
                         }
-                        store.markProcessed(root, p);
-                    } catch (Exception e) {
-                        throw new RuntimeException(e);
+                    });
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("learn interrupted");
+            }
+        }
+        return stats;
+    }
+
+    public void setMetrics(MetricsRegistry metrics) {
+        this.metrics = metrics;
+    }
+
+    /** Called at most every {@code interval} while a learn run makes progress. */
+    public void setProgressListener(Consumer<LearnStats> listener, Duration interval) {
+        this.progressListener = listener;
+        this.progressIntervalNanos = interval.toNanos();
+    }
+
+    private void learnFile(Path root, Path p, Semaphore llmPermits, LearnStats stats) {
+        try {
+            if (store.isProcessed(root, p)) {
+                stats.skipped.incrementAndGet();
+                return;
+            }
+            String text = Files.readString(p);
+            indexer.addDocument(text);
+            String prompt = buildPrompt(sampleLines(text, 120));
+            // rules are validated and stored as each JSONL line streams in
+            LineSplitter lines = new LineSplitter(line -> {
+                line = line.trim();
+                if (line.isEmpty()) return;
+                try {
+                    var r = parseRule(line);
+                    if (r != null) {
+                        store.addOrUpdateRule(r);
+                        stats.rules.incrementAndGet();
                     }
-                });
+                } catch (Exception ignored) {}
+            });
+            llmPermits.acquire();
+            stats.inFlightLlm.incrementAndGet();
+            try (var t = metrics.time("llm.learn")) {
+                ChatClient.await(llm.chatStream(List.of(
+                        Map.of("role","system","content","Ты выводишь минимальные правила языка по примерам кода. Формат: JSONL, поля: id, irType, regex, fields, listFields (опц.), javaTemplate (опц.)."),
+                        Map.of("role","user","content", prompt)
+                ), 0.2, lines));
+            } finally {
+                stats.inFlightLlm.decrementAndGet();
+                llmPermits.release();
+            }
+            lines.finish();
+            store.markProcessed(root, p);
+            stats.learned.incrementAndGet();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stats.recordFailure(p, e);
+        } catch (Exception e) {
+            stats.recordFailure(p, e);
+        } finally {
+            maybeReport(stats);
+        }
+    }
+
+    private void maybeReport(LearnStats stats) {
+        Consumer<LearnStats> listener = progressListener;
+        if (listener == null) return;
+        long now = System.nanoTime();
+        long last = lastReportNanos.get();
+        if (now - last >= progressIntervalNanos && lastReportNanos.compareAndSet(last, now)) {
+            listener.accept(stats);
         }
     }
 
@@ -61,6 +157,7 @@ public class Learner {
         String fields = extract(jsonLine, "\"fields\"\\s*:\\s*\\[(.*?)\\]");
         String listFields = extract(jsonLine, "\"listFields\"\\s*:\\s*\\[(.*?)\\]");
         String tpl = extract(jsonLine, "\"javaTemplate\"\\s*:\\s*\"(.*?)\"");
+        String block = extract(jsonLine, "\"block\"\\s*:\\s*\"(.*?)\"");
         if (id == null || irType == null || regex == null || fields == null) return null;
         java.util.List<String> fs = new java.util.ArrayList<>();
         var m1 = java.util.regex.Pattern.compile("\"(.*?)\"").matcher(fields);
@@ -70,7 +167,9 @@ public class Learner {
             var m2 = java.util.regex.Pattern.compile("\"(.*?)\"").matcher(listFields);
             while (m2.find()) lfs.add(m2.group(1));
         }
-        return new Rule(id, irType, regex, fs.toArray(new String[0]), lfs.toArray(new String[0]), tpl);
+        Rule r = new Rule(id, irType, regex, fs.toArray(new String[0]), lfs.toArray(new String[0]), tpl);
+        r.block = block;
+        return r;
     }
 
     private String extract(String s, String pattern) {
@@ -93,7 +192,9 @@ public class Learner {
                 "{id, irType, regex, fields:[...], listFields:[...] (опционально), javaTemplate (опционально)}. " +
                 "irType должен совпадать с IR-нодой: Assign(name,expr), Call(callee,args), Decl(name,type), If(cond), Loop(header). " +
                 "fields — порядок аргументов конструктора (например Assign → [\"name\",\"expr\"], Call → [\"callee\",\"args\"]). " +
-                "Если поле — список аргументов (CSV), добавь его имя в listFields (например для Call: [\"args\"]).\n\n" +
+                "Если поле — список аргументов (CSV), добавь его имя в listFields (например для Call: [\"args\"]). " +
+                "Строки If/Loop открывают блок; ELSE описывай правилом с \"block\":\"middle\" (irType If, fields []; с группой условия — ELSIF), " +
+                "END IF/END LOOP — с \"block\":\"close\" (irType If или Loop, fields []), строку, продолжающуюся на следующей, — с \"block\":\"continue\" (группа 1 — переносимый текст).\n\n" +
                 "Пример (не копируй буквально):\n" +
                 "{\"id\":\"assign1\",\"irType\":\"Assign\",\"regex\":\"^\\\\s*([A-Za-z_][A-Za-z0-9_]*)\\\\s*:=\\\\s*(.+);\\\\s*$\",\"fields\":[\"name\",\"expr\"]}\n" +
                 "{\"id\":\"call1\",\"irType\":\"Call\",\"regex\":\"^\\\\s*([A-Za-z_][A-Za-z0-9_]*)\\\\s*\\\\((.*)\\\\)\\\\s*;\\\\s*$\",\"fields\":[\"callee\",\"args\"],\"listFields\":[\"args\"]}\n\n" +
@@ -0,0 +1,262 @@
+package com.example.agent.bootstrap;
+
+import com.example.agent.knowledge.RuleStore;
+
+import java.io.Closeable;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+
+/**
+ * Background rule refinement. Translations {@link #submit} their (dialect, Java, diagnostics)
+ * samples and return immediately; one worker thread merges up to {@code batchSize} queued samples
+ * into a single {@link Improver#refineBatch} call, so rules change as one store update per batch.
+ * <p>
+ * Samples that normalise to the same text (whitespace, literals and numbers collapsed) as one
+ * queued or recently refined are dropped as duplicates. The queue is bounded; when it is full the
+ * {@link DropPolicy} decides which sample is lost. Refinement is best effort, so a failed batch
+ * is counted and skipped.
+ */
+public class RefinementQueue implements Closeable {
+
+    public enum DropPolicy {
+        /** Evict the oldest queued sample to make room: recent code is the better teacher. */
+        DROP_OLDEST,
+        /** Reject the new sample. */
+        DROP_NEWEST
+    }
+
+    private static final int RECENT_KEYS = 4096;
+    private static final int BATCH_CHARS = 48_000;
+    private static final Pattern STRING = Pattern.compile("\"(?:[^\"\\\\]|\\\\.)*\"|'(?:[^'\\\\]|\\\\.)*'");
+    private static final Pattern NUMBER = Pattern.compile("\\d+(?:\\.\\d+)?");
+    private static final Pattern SPACE = Pattern.compile("\\s+");
+
+    private final Improver improver;
+    private final RuleStore store;
+    private final int capacity;
+    private final int batchSize;
+    private final long lingerNanos;
+    private final DropPolicy policy;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition settledCond = lock.newCondition();
+    private final ArrayDeque<Entry> queue = new ArrayDeque<>();
+    private final Set<String> queuedKeys = new HashSet<>();
+    private final Map<String, Boolean> recentKeys = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > RECENT_KEYS;
+        }
+    };
+    private long accepted;
+    private long settled;
+    private long duplicates;
+    private long dropped;
+    private long batches;
+    private long failedSamples;
+    private long rulesApplied;
+    private boolean closed;
+    private int flushers;
+    private final Thread worker;
+
+    public RefinementQueue(Improver improver, RuleStore store) {
+        this(improver, store, 256, 8, Duration.ofSeconds(2), DropPolicy.DROP_OLDEST);
+    }
+
+    /**
+     * @param capacity  queued samples kept at most
+     * @param batchSize samples merged into one refinement prompt
+     * @param linger    how long a partial batch waits for more samples
+     */
+    public RefinementQueue(Improver improver, RuleStore store, int capacity, int batchSize, Duration linger, DropPolicy policy) {
+        this.improver = improver;
+        this.store = store;
+        this.capacity = Math.max(1, capacity);
+        this.batchSize = Math.max(1, batchSize);
+        this.lingerNanos = linger.toNanos();
+        this.policy = policy;
+        this.worker = Thread.ofVirtual().name("rule-refinement").start(this::run);
+    }
+
+    /** Queues a sample; false if it was a duplicate, the queue was full under DROP_NEWEST, or the queue is closed. */
+    public boolean submit(String dialect, String java, String diagnosticsOrFeedback) {
+        String key = key(dialect, diagnosticsOrFeedback);
+        lock.lock();
+        try {
+            if (closed) return false;
+            if (queuedKeys.contains(key) || recentKeys.containsKey(key)) {
+                duplicates++;
+                return false;
+            }
+            if (queue.size() >= capacity) {
+                if (policy == DropPolicy.DROP_NEWEST) {
+                    dropped++;
+                    return false;
+                }
+                Entry evicted = queue.removeFirst();
+                queuedKeys.remove(evicted.key);
+                dropped++;
+                settled++;
+                settledCond.signalAll();
+            }
+            queue.addLast(new Entry(key, new Improver.Sample(dialect, java, diagnosticsOrFeedback)));
+            queuedKeys.add(key);
+            accepted++;
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until every sample accepted before this call has been refined, failed or dropped,
+     * skipping the linger delay. Returns false on timeout.
+     */
+    public boolean flush(Duration timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        lock.lock();
+        try {
+            long target = accepted;
+            flushers++;
+            notEmpty.signal();
+            try {
+                while (settled < target) {
+                    long left = deadline - System.nanoTime();
+                    if (left <= 0) return false;
+                    settledCond.awaitNanos(left);
+                }
+                return true;
+            } finally {
+                flushers--;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int pending() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Refines what is still queued, then stops the worker. */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        while (true) {
+            List<Entry> batch = new ArrayList<>(batchSize);
+            lock.lock();
+            try {
+                while (queue.isEmpty() && !closed) notEmpty.await();
+                if (queue.isEmpty()) return; // closed and drained
+                // let a partial batch fill up, unless someone is waiting for it
+                long lingerLeft = lingerNanos;
+                while (queue.size() < batchSize && !closed && flushers == 0 && lingerLeft > 0) {
+                    lingerLeft = notEmpty.awaitNanos(lingerLeft);
+                }
+                int chars = 0;
+                while (!queue.isEmpty() && batch.size() < batchSize) {
+                    Entry e = queue.peekFirst();
+                    int size = e.sample.dialect.length() + e.sample.java.length() + e.sample.feedback.length();
+                    if (!batch.isEmpty() && chars + size > BATCH_CHARS) break;
+                    queue.removeFirst();
+                    queuedKeys.remove(e.key);
+                    batch.add(e);
+                    chars += size;
+                }
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            int applied = 0;
+            boolean ok;
+            try {
+                List<Improver.Sample> samples = new ArrayList<>(batch.size());
+                for (Entry e : batch) samples.add(e.sample);
+                applied = improver.refineBatch(samples);
+                store.save();
+                ok = true;
+            } catch (Throwable t) {
+                // an Error too: this is the only worker, and flush() would wait for it forever
+                ok = false;
+            }
+
+            lock.lock();
+            try {
+                batches++;
+                rulesApplied += applied;
+                if (!ok) failedSamples += batch.size();
+                for (Entry e : batch) recentKeys.put(e.key, Boolean.TRUE);
+                settled += batch.size();
+                settledCond.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /** Literal- and whitespace-insensitive fingerprint, so reruns of the same code with other values dedupe. */
+    static String key(String dialect, String feedback) {
+        String norm = normalize(dialect) + "\0" + normalize(feedback);
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(norm.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String normalize(String s) {
+        if (s == null) return "";
+        String t = STRING.matcher(s).replaceAll("\"\"");
+        t = NUMBER.matcher(t).replaceAll("0");
+        return SPACE.matcher(t).replaceAll(" ").trim().toLowerCase(Locale.ROOT);
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            return "refinement accepted=" + accepted + " pending=" + queue.size() + " batches=" + batches
+                    + " rules=" + rulesApplied + " duplicates=" + duplicates + " dropped=" + dropped + " failed=" + failedSamples;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static final class Entry {
+        final String key;
+        final Improver.Sample sample;
+        Entry(String key, Improver.Sample sample) {
+            this.key = key;
+            this.sample = sample;
+        }
+    }
+}
@@ -7,9 +7,14 @@ import java.nio.file.Files;
 import java.util.Arrays;
 
 public class Main {
+    private static boolean printMetrics;
+
     public static void main(String[] args) throws Exception {
+        printMetrics = Arrays.asList(args).contains("--metrics");
+        boolean incremental = Arrays.asList(args).contains("--incremental");
+        args = Arrays.stream(args).filter(a -> !a.equals("--metrics") && !a.equals("--incremental")).toArray(String[]::new);
         if (args.length == 0) {
-            System.out.println("Usage:\n  learn <repoRoot> [exts=.dlx,.dsl,.txt] [runtime=runtime]\n  translate <file> [runtime=runtime]\n  fix <dialectFile> <javaFile> <feedback.txt> [runtime=runtime]\n");
+            System.out.println("Usage:\n  learn <repoRoot> [exts=.dlx,.dsl,.txt] [runtime=runtime] [concurrency=1]\n  translate <file> [runtime=runtime]\n  translate-file <file> <out.java> [runtime=runtime] [--incremental]\n  translate-dir <srcRoot> <outRoot> [exts=.dlx,.dsl,.txt] [runtime=runtime] [llmConcurrency=4]\n  fix <dialectFile> <javaFile> <feedback.txt> [runtime=runtime]\n  prune [runtime=runtime] [windowLines=100000]\n\n  --metrics      print per-stage timings and counters to stderr\n  --incremental  translate-file: reuse the previous run, redo only changed lines\n");
             return;
         }
         String cmd = args[0];
@@ -18,31 +23,79 @@ public class Main {
                 Path repo = Path.of(args[1]);
                 String exts = args.length >= 3 ? args[2] : ".dlx,.dsl,.txt";
                 Path runtime = Path.of(args.length >= 4 ? args[3] : "runtime");
-                var engine = TranslatorEngine.fromEnv(runtime);
-                engine.learn(repo, Arrays.asList(exts.split(",")));
-                System.out.println("Learn OK");
+                int concurrency = args.length >= 5 ? Integer.parseInt(args[4]) : 1;
+                try (var engine = TranslatorEngine.fromEnv(runtime)) {
+                    var stats = engine.learn(repo, Arrays.asList(exts.split(",")), concurrency, s -> System.err.println("learn: " + s));
+                    for (String f : stats.failures()) System.err.println("failed: " + f);
+                    System.out.println("Learn OK: " + stats);
+                    System.err.println(engine.llmCache() + "; " + engine.llmScheduler());
+                    report(engine);
+                }
             }
             case "translate" -> {
                 Path file = Path.of(args[1]);
                 Path runtime = Path.of(args.length >= 3 ? args[2] : "runtime");
-                var engine = TranslatorEngine.fromEnv(runtime);
-                String src = Files.readString(file);
-                String out = engine.translate(src);
-                System.out.println(out);
+                try (var engine = TranslatorEngine.fromEnv(runtime)) {
+                    String src = Files.readString(file);
+                    String out = engine.translate(src);
+                    System.out.println(out);
+                    report(engine);
+                }
+            }
+            case "translate-file" -> {
+                Path file = Path.of(args[1]);
+                Path out = Path.of(args[2]);
+                Path runtime = Path.of(args.length >= 4 ? args[3] : "runtime");
+                try (var engine = TranslatorEngine.fromEnv(runtime)) {
+                    if (incremental) System.err.println(engine.translateFileIncremental(file, out));
+                    else engine.translateFile(file, out);
+                    report(engine);
+                }
+                System.out.println("Written " + out);
+            }
+            case "translate-dir" -> {
+                Path src = Path.of(args[1]);
+                Path out = Path.of(args[2]);
+                String exts = args.length >= 4 ? args[3] : ".dlx,.dsl,.txt";
+                Path runtime = Path.of(args.length >= 5 ? args[4] : "runtime");
+                int concurrency = args.length >= 6 ? Integer.parseInt(args[5]) : 4;
+                try (var engine = TranslatorEngine.fromEnv(runtime)) {
+                    var stats = engine.translateTree(src, out, Arrays.asList(exts.split(",")), concurrency, s -> System.err.println("translate: " + s));
+                    for (String f : stats.failures()) System.err.println("failed: " + f);
+                    System.out.println("Translate OK: " + stats);
+                    System.err.println(engine.llmCache() + "; " + engine.llmScheduler());
+                    report(engine);
+                }
             }
             case "fix" -> {
                 Path dialectFile = Path.of(args[1]);
                 Path javaFile = Path.of(args[2]);
                 Path feedbackFile = Path.of(args[3]);
                 Path runtime = Path.of(args.length >= 5 ? args[4] : "runtime");
-                var engine = TranslatorEngine.fromEnv(runtime);
-                String dialect = Files.readString(dialectFile);
-                String java = Files.readString(javaFile);
-                String feedback = Files.readString(feedbackFile);
-                String out = engine.fix(dialect, java, feedback);
-                System.out.println(out);
+                try (var engine = TranslatorEngine.fromEnv(runtime)) {
+                    String dialect = Files.readString(dialectFile);
+                    String java = Files.readString(javaFile);
+                    String feedback = Files.readString(feedbackFile);
+                    String out = engine.fix(dialect, java, feedback);
+                    System.out.println(out);
+                    report(engine);
+                }
+            }
+            case "prune" -> {
+                Path runtime = Path.of(args.length >= 2 ? args[1] : "runtime");
+                long window = args.length >= 3 ? Long.parseLong(args[2]) : 100_000;
+                try (var engine = TranslatorEngine.fromEnv(runtime)) {
+                    var retired = engine.pruneRules(window);
+                    for (String r : retired) System.out.println("retired " + r);
+                    System.out.println("Prune OK: " + retired.size() + " rules retired");
+                    report(engine);
+                }
             }
             default -> System.err.println("Unknown command: " + cmd);
         }
     }
+
+    private static void report(TranslatorEngine engine) {
+        if (printMetrics) System.err.print(engine.metrics().snapshot().format());
+    }
 }
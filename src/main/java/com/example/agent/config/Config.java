@@ -1,21 +1,46 @@
 package com.example.agent.config;
 
+import java.time.Duration;
+
 public class Config {
     public final String apiBase;
     public final String apiKey;
     public final String model;
+    public final String cacheMode;        // rw | off | replay
+    public final long cacheMaxBytes;
+    public final Duration cacheMaxAge;
+    public final double ratePerSecond;    // 0 = unlimited
+    public final int maxConcurrency;
+    public final int maxRetries;
 
     public Config(String apiBase, String apiKey, String model) {
+        this(apiBase, apiKey, model, "rw", 512L << 20, Duration.ofDays(30), 10, 32, 5);
+    }
+
+    public Config(String apiBase, String apiKey, String model, String cacheMode, long cacheMaxBytes, Duration cacheMaxAge,
+                  double ratePerSecond, int maxConcurrency, int maxRetries) {
         this.apiBase = apiBase;
         this.apiKey = apiKey;
         this.model = model;
+        this.cacheMode = cacheMode;
+        this.cacheMaxBytes = cacheMaxBytes;
+        this.cacheMaxAge = cacheMaxAge;
+        this.ratePerSecond = ratePerSecond;
+        this.maxConcurrency = maxConcurrency;
+        this.maxRetries = maxRetries;
     }
 
     public static Config fromEnv() {
         String base = getenvOr("GIGACHAT_API_BASE", "http://localhost:8000");
         String key  = getenvOr("GIGACHAT_API_KEY", "CHANGE_ME");
         String model= getenvOr("GIGACHAT_MODEL", "gigachat");
-        return new Config(base, key, model);
+        String cache = getenvOr("GIGACHAT_CACHE", "rw");
+        long cacheMb = Long.parseLong(getenvOr("GIGACHAT_CACHE_MAX_MB", "512"));
+        long cacheDays = Long.parseLong(getenvOr("GIGACHAT_CACHE_MAX_AGE_DAYS", "30"));
+        double rps = Double.parseDouble(getenvOr("GIGACHAT_RATE_PER_SEC", "10"));
+        int maxConc = Integer.parseInt(getenvOr("GIGACHAT_MAX_CONCURRENCY", "32"));
+        int retries = Integer.parseInt(getenvOr("GIGACHAT_MAX_RETRIES", "5"));
+        return new Config(base, key, model, cache, cacheMb << 20, Duration.ofDays(cacheDays), rps, maxConc, retries);
     }
 
     private static String getenvOr(String k, String def) {
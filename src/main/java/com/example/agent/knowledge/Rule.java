@@ -9,6 +9,10 @@ import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
  *  - fields: ordered field names to pass into the IR node constructor
  *  - listFields: optional field names that should be split by comma into List<String>
  *  - javaTemplate: optional generator hint (kept for future use)
+ *  - block: optional role in block structure: "open" (If/Loop header), "middle" (ELSE; with a
+ *    capture group and irType If, an ELSIF), "close" (END; irType If/Loop closes only that kind),
+ *    "continue" (line continues on the next one; group 1, if any, is the text carried over),
+ *    "none" (If/Loop without a body). Unset means "open" for If/Loop and a plain statement otherwise.
  */
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class Rule {
@@ -18,6 +22,7 @@ public class Rule {
     public String[] fields;       // e.g., ["name","expr"] in constructor order
     public String[] listFields;   // fields interpreted as CSV -> List<String>
     public String javaTemplate;   // optional for direct Java synthesis
+    public String block;          // open | middle | close | continue | none
 
     public Rule() {}
 
@@ -0,0 +1,92 @@
+package com.example.agent.knowledge;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Usage counters of one rule, updated by parsing threads without locking.
+ * Positions are in parsed lines ({@link RuleStore#countLine()}), not wall time, so a window
+ * of "the last N lines" means the same on a busy and on an idle installation.
+ */
+public final class RuleStats {
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+    private final LongAdder shadowed = new LongAdder();
+    private final LongAdder trips = new LongAdder();
+    private volatile long lastHitLine;
+    private volatile long sinceLine;
+    private volatile String shadowedBy;
+
+    RuleStats(long sinceLine) {
+        this.sinceLine = sinceLine;
+    }
+
+    /** The rule matched parsed line number {@code line}; the attempt took {@code nanos}. */
+    public void hit(long line, long nanos) {
+        hits.increment();
+        this.nanos.add(nanos);
+        if (line > lastHitLine) lastHitLine = line;
+    }
+
+    /** The rule was tried and did not match. */
+    public void miss(long nanos) {
+        misses.increment();
+        this.nanos.add(nanos);
+    }
+
+    /** A probe found the rule matching a line that the earlier rule {@code ruleId} had already taken. */
+    public void shadowedBy(String ruleId) {
+        shadowed.increment();
+        shadowedBy = ruleId;
+    }
+
+    /** A match ran out of its step budget; returns the trips so far (since start, not persisted). */
+    public long trip() {
+        trips.increment();
+        return trips.sum();
+    }
+
+    public long hits() { return hits.sum(); }
+    public long misses() { return misses.sum(); }
+    public long nanos() { return nanos.sum(); }
+    public long shadowed() { return shadowed.sum(); }
+    public long trips() { return trips.sum(); }
+    public long lastHitLine() { return lastHitLine; }
+    /** Line counter value when tracking (re)started: rule added, regex changed. */
+    public long sinceLine() { return sinceLine; }
+    public String shadowedBy() { return shadowedBy; }
+
+    /** Lines since the rule last matched, or since tracking started if it never has. */
+    public long idleLines(long currentLine) {
+        return currentLine - Math.max(lastHitLine, sinceLine);
+    }
+
+    // a changed regex is a different rule as far as usage goes
+    void restart(long line) {
+        hits.reset();
+        misses.reset();
+        nanos.reset();
+        shadowed.reset();
+        trips.reset();
+        lastHitLine = 0;
+        shadowedBy = null;
+        sinceLine = line;
+    }
+
+    void load(long hits, long misses, long nanos, long shadowed, long lastHitLine, long sinceLine, String shadowedBy) {
+        this.hits.add(hits);
+        this.misses.add(misses);
+        this.nanos.add(nanos);
+        this.shadowed.add(shadowed);
+        this.lastHitLine = lastHitLine;
+        this.sinceLine = sinceLine;
+        this.shadowedBy = shadowedBy;
+    }
+
+    @Override
+    public String toString() {
+        return "hits=" + hits() + " misses=" + misses() + " ms=" + nanos() / 1_000_000 + " lastHitLine=" + lastHitLine
+                + (shadowedBy == null ? "" : " shadowedBy=" + shadowedBy);
+    }
+}
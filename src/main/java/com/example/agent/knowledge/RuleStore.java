@@ -1,40 +1,105 @@
 package com.example.agent.knowledge;
 
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 
 import java.io.*;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.security.MessageDigest;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
-public class RuleStore {
+/**
+ * Rules and processed-file marks, persisted as snapshot files plus an append-only journal.
+ * <ul>
+ *   <li>{@code rules.jsonl}, {@code processed_files.jsonl}, {@code file_state.jsonl}, {@code quarantine.jsonl} — snapshots,
+ *       replaced by atomic rename;</li>
+ *   <li>{@code store.journal} — upserts and marks since the last snapshot, one JSON object per line;</li>
+ *   <li>{@code rule_stats.json} — per-rule usage ({@link RuleStats}), rewritten on compaction and close;</li>
+ *   <li>{@code retired_rules.jsonl} — rules removed by {@link #prune(long)}, append-only, for the record.</li>
+ * </ul>
+ * Mutations are buffered in memory; {@link #save()} appends them to the journal with a single fsync.
+ * A background task folds the journal into new snapshots once it outgrows the live state.
+ * <p>
+ * File fingerprints are cached per path with the file's size and mtime, so an unchanged
+ * file is recognised from a stat call alone; content is only rehashed when those change.
+ */
+public class RuleStore implements Closeable {
+
+    private static final int MIN_COMPACT_ENTRIES = 1000;
+    private static final int AUTO_FLUSH_ENTRIES = 4096;
+    private static final long COMPACT_CHECK_SECONDS = 30;
+    private static final int HASH_CHUNK = 64 * 1024;
+    private static final int QUARANTINE_LINE_CHARS = 500;
+    // files modified this recently may change again within the same mtime tick; never cache them
+    private static final long RACY_MTIME_MILLIS = 2000;
+    private static final ScheduledExecutorService COMPACTOR = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "rule-store-compactor");
+        t.setDaemon(true);
+        return t;
+    });
 
     private final Path dir;
     private final Path rulesFile;
     private final Path processedFile;
+    private final Path fileStateFile;
+    private final Path quarantineFile;
+    private final Path statsFile;
+    private final Path retiredFile;
+    private final Path journalFile;
+    private final Path oldJournalFile;
     private final ObjectMapper mapper = new ObjectMapper();
-    private final List<Rule> rules = new ArrayList<>();
-    private final Set<String> processed = new HashSet<>();
+    private final Map<String, Rule> rules = new LinkedHashMap<>();
+    private final Set<String> processed = new LinkedHashSet<>();
+    private final Map<String, FileState> fileStates = new HashMap<>();
+    private final Map<String, Quarantined> quarantine = new LinkedHashMap<>();
+    private final Map<String, RuleStats> usage = new ConcurrentHashMap<>();
+    private final AtomicLong linesParsed = new AtomicLong();
+    private final Object statsLock = new Object();
+    private final List<String> pending = new ArrayList<>();
+    private final Object compactLock = new Object();
+    private FileChannel journal;
+    private long journalEntries;
+    private volatile long rulesVersion;
+    private final ScheduledFuture<?> compactTask;
 
     public RuleStore(Path dir) throws IOException {
         this.dir = dir;
         Files.createDirectories(dir);
         this.rulesFile = dir.resolve("rules.jsonl");
         this.processedFile = dir.resolve("processed_files.jsonl");
+        this.fileStateFile = dir.resolve("file_state.jsonl");
+        this.quarantineFile = dir.resolve("quarantine.jsonl");
+        this.statsFile = dir.resolve("rule_stats.json");
+        this.retiredFile = dir.resolve("retired_rules.jsonl");
+        this.journalFile = dir.resolve("store.journal");
+        this.oldJournalFile = dir.resolve("store.journal.old");
         load();
+        this.journal = openJournal();
+        this.compactTask = scheduleCompaction(this);
+        if (Files.exists(oldJournalFile)) compact();
     }
 
     private void load() throws IOException {
         rules.clear();
         processed.clear();
+        fileStates.clear();
+        quarantine.clear();
         if (Files.exists(rulesFile)) {
             try (BufferedReader br = Files.newBufferedReader(rulesFile, StandardCharsets.UTF_8)) {
                 String line;
                 while ((line = br.readLine()) != null) {
                     if (line.isBlank()) continue;
                     Rule r = mapper.readValue(line, Rule.class);
-                    rules.add(r);
+                    rules.put(r.id, r);
                 }
             }
         }
@@ -47,54 +112,506 @@ public class RuleStore {
                 }
             }
         }
+        if (Files.exists(fileStateFile)) {
+            try (BufferedReader br = Files.newBufferedReader(fileStateFile, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    if (line.isBlank()) continue;
+                    applyFileState(mapper.readTree(line));
+                }
+            }
+        }
+        if (Files.exists(quarantineFile)) {
+            try (BufferedReader br = Files.newBufferedReader(quarantineFile, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    if (line.isBlank()) continue;
+                    Quarantined q = mapper.readValue(line, Quarantined.class);
+                    quarantine.put(q.id, q);
+                }
+            }
+        }
+        // a leftover old journal means a compaction was cut short; replaying it is idempotent
+        dropTornTail(oldJournalFile);
+        dropTornTail(journalFile);
+        journalEntries = replay(oldJournalFile) + replay(journalFile);
+        loadStats();
     }
 
+    private void loadStats() throws IOException {
+        usage.clear();
+        linesParsed.set(0);
+        if (!Files.exists(statsFile)) return;
+        JsonNode root = mapper.readTree(statsFile.toFile());
+        linesParsed.set(root.path("lines").asLong());
+        for (JsonNode n : root.path("rules")) {
+            String id = n.path("id").asText();
+            if (!rules.containsKey(id)) continue;
+            RuleStats st = new RuleStats(0);
+            st.load(n.path("hits").asLong(), n.path("misses").asLong(), n.path("nanos").asLong(), n.path("shadowed").asLong(),
+                    n.path("lastHitLine").asLong(), n.path("sinceLine").asLong(), n.hasNonNull("shadowedBy") ? n.get("shadowedBy").asText() : null);
+            usage.put(id, st);
+        }
+    }
+
+    /** Writes usage counters to {@code rule_stats.json}. Called by compaction and close; cheap enough to call more often. */
+    public void saveStats() throws IOException {
+        ObjectNode root = mapper.createObjectNode();
+        root.put("lines", linesParsed.get());
+        var arr = root.putArray("rules");
+        for (var e : usage.entrySet()) {
+            RuleStats st = e.getValue();
+            ObjectNode n = arr.addObject();
+            n.put("id", e.getKey());
+            n.put("hits", st.hits());
+            n.put("misses", st.misses());
+            n.put("nanos", st.nanos());
+            n.put("shadowed", st.shadowed());
+            n.put("lastHitLine", st.lastHitLine());
+            n.put("sinceLine", st.sinceLine());
+            if (st.shadowedBy() != null) n.put("shadowedBy", st.shadowedBy());
+        }
+        synchronized (statsLock) {
+            writeSnapshot(statsFile, List.of(root.toString()));
+        }
+    }
+
+    private long replay(Path file) throws IOException {
+        if (!Files.exists(file)) return 0;
+        long n = 0;
+        try (BufferedReader br = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.isBlank()) continue;
+                JsonNode e;
+                try {
+                    e = mapper.readTree(line);
+                } catch (IOException torn) {
+                    continue; // partial last line from a crash mid-append
+                }
+                apply(e);
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Cuts {@code file} after its last newline. A crash mid-append leaves a partial last entry
+     * that replay skips; left in place, the next append would be glued onto it and lost too.
+     */
+    private static void dropTornTail(Path file) throws IOException {
+        if (!Files.exists(file)) return;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = ch.size(), end = size;
+            ByteBuffer buf = ByteBuffer.allocate(4096);
+            while (end > 0) {
+                int n = (int) Math.min(buf.capacity(), end);
+                buf.clear().limit(n);
+                long from = end - n;
+                while (buf.hasRemaining()) {
+                    if (ch.read(buf, from + buf.position()) < 0) throw new EOFException(file.toString());
+                }
+                int i = n - 1;
+                while (i >= 0 && buf.get(i) != '\n') i--;
+                if (i >= 0) {
+                    end = from + i + 1;
+                    break;
+                }
+                end = from;
+            }
+            if (end < size) {
+                ch.truncate(end);
+                ch.force(false);
+            }
+        }
+    }
+
+    private void apply(JsonNode e) throws IOException {
+        switch (e.path("op").asText()) {
+            case "rule" -> {
+                Rule r = mapper.treeToValue(e.get("rule"), Rule.class);
+                rules.put(r.id, r);
+                // journals from before "release" entries: a changed regex lifted the quarantine
+                Quarantined q = quarantine.get(r.id);
+                if (q != null && !Objects.equals(q.regex, r.regex)) quarantine.remove(r.id);
+            }
+            case "release" -> quarantine.remove(e.get("id").asText());
+            case "remove" -> {
+                String id = e.get("id").asText();
+                rules.remove(id);
+                quarantine.remove(id);
+            }
+            case "quarantine" -> {
+                Quarantined q = mapper.treeToValue(e.get("entry"), Quarantined.class);
+                quarantine.put(q.id, q);
+            }
+            case "processed" -> processed.add(e.get("fp").asText());
+            case "file" -> applyFileState(e);
+            default -> { }
+        }
+    }
+
+    private void applyFileState(JsonNode e) {
+        fileStates.put(e.get("path").asText(), new FileState(e.get("size").asLong(), e.get("mtime").asLong(), e.get("fp").asText()));
+    }
+
+    private FileChannel openJournal() throws IOException {
+        return FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /** Appends buffered changes to the journal and fsyncs once for the whole batch. */
     public synchronized void save() throws IOException {
-        try (BufferedWriter bw = Files.newBufferedWriter(rulesFile, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
-            for (Rule r : rules) {
-                bw.write(mapper.writeValueAsString(r));
-                bw.write("\n");
+        if (pending.isEmpty()) return;
+        StringBuilder sb = new StringBuilder();
+        for (String line : pending) sb.append(line).append('\n');
+        ByteBuffer buf = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+        while (buf.hasRemaining()) journal.write(buf);
+        journal.force(false);
+        journalEntries += pending.size();
+        pending.clear();
+    }
+
+    /**
+     * Writes fresh snapshots and drops the journal. Writers are only blocked while the
+     * journal is rotated; the snapshot files are written outside the store lock.
+     */
+    public void compact() throws IOException {
+        synchronized (compactLock) {
+            List<Rule> ruleCopy;
+            List<String> processedCopy;
+            List<String> fileStateLines = new ArrayList<>();
+            List<Quarantined> quarantineCopy;
+            synchronized (this) {
+                save();
+                journal.close();
+                rotateJournal();
+                journal = openJournal();
+                journalEntries = 0;
+                ruleCopy = List.copyOf(rules.values());
+                processedCopy = List.copyOf(processed);
+                quarantineCopy = List.copyOf(quarantine.values());
+                for (var e : fileStates.entrySet()) fileStateLines.add(fileStateEntry(e.getKey(), e.getValue(), false).toString());
             }
+            List<String> ruleLines = new ArrayList<>(ruleCopy.size());
+            for (Rule r : ruleCopy) ruleLines.add(mapper.writeValueAsString(r));
+            writeSnapshot(rulesFile, ruleLines);
+            writeSnapshot(processedFile, processedCopy);
+            writeSnapshot(fileStateFile, fileStateLines);
+            List<String> quarantineLines = new ArrayList<>(quarantineCopy.size());
+            for (Quarantined q : quarantineCopy) quarantineLines.add(mapper.writeValueAsString(q));
+            writeSnapshot(quarantineFile, quarantineLines);
+            saveStats();
+            Files.deleteIfExists(oldJournalFile);
+        }
+    }
+
+    private void rotateJournal() throws IOException {
+        if (!Files.exists(oldJournalFile)) {
+            Files.move(journalFile, oldJournalFile, StandardCopyOption.ATOMIC_MOVE);
+            return;
         }
-        try (BufferedWriter bw = Files.newBufferedWriter(processedFile, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
-            for (String p : processed) {
-                bw.write(p);
-                bw.write("\n");
+        // an earlier compaction did not finish: keep its entries and add ours after them
+        try (FileChannel old = FileChannel.open(oldJournalFile, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+             FileChannel cur = FileChannel.open(journalFile, StandardOpenOption.READ)) {
+            long pos = 0, size = cur.size();
+            while (pos < size) pos += cur.transferTo(pos, size - pos, old);
+            old.force(false);
+        }
+        Files.delete(journalFile);
+    }
+
+    private void writeSnapshot(Path target, List<String> lines) throws IOException {
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             Writer w = new BufferedWriter(new OutputStreamWriter(java.nio.channels.Channels.newOutputStream(ch), StandardCharsets.UTF_8))) {
+            for (String l : lines) {
+                w.write(l);
+                w.write("\n");
+            }
+            w.flush();
+            ch.force(true);
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private synchronized boolean needsCompaction() {
+        return journalEntries >= Math.max(MIN_COMPACT_ENTRIES, rules.size() + processed.size() + fileStates.size());
+    }
+
+    private static ScheduledFuture<?> scheduleCompaction(RuleStore store) {
+        var ref = new WeakReference<>(store);
+        var self = new CompletableFuture<ScheduledFuture<?>>();
+        ScheduledFuture<?> f = COMPACTOR.scheduleWithFixedDelay(() -> {
+            RuleStore s = ref.get();
+            if (s == null) {
+                self.thenAccept(t -> t.cancel(false));
+                return;
+            }
+            try {
+                if (s.needsCompaction()) s.compact();
+            } catch (IOException | RuntimeException ignored) {
+                // retried on the next tick; the journal still holds every change
             }
+        }, COMPACT_CHECK_SECONDS, COMPACT_CHECK_SECONDS, TimeUnit.SECONDS);
+        self.complete(f);
+        return f;
+    }
+
+    /** Flushes pending changes and stops background compaction. */
+    @Override
+    public void close() throws IOException {
+        compactTask.cancel(false);
+        synchronized (this) {
+            save();
+            journal.close();
         }
+        saveStats();
     }
 
-    public List<Rule> allRules() { return Collections.unmodifiableList(rules); }
+    /** Point-in-time copy; safe to iterate while learners keep adding rules. */
+    public synchronized List<Rule> allRules() { return List.copyOf(rules.values()); }
+
+    /** Incremented by every rule change. A lock-free read, so callers can poll it on every request. */
+    public long rulesVersion() { return rulesVersion; }
 
-    public void addOrUpdateRule(Rule r) {
-        for (int i = 0; i < rules.size(); i++) {
-            if (rules.get(i).id.equals(r.id)) { rules.set(i, r); return; }
+    /** The active (not quarantined) rules together with the {@link #rulesVersion()} they correspond to. */
+    public synchronized RuleSet ruleSet() {
+        List<Rule> active = new ArrayList<>(rules.size());
+        for (Rule r : rules.values()) if (!quarantine.containsKey(r.id)) active.add(r);
+        return new RuleSet(rulesVersion, List.copyOf(active));
+    }
+
+    public static final class RuleSet {
+        public final long version;
+        public final List<Rule> rules;
+        RuleSet(long version, List<Rule> rules) {
+            this.version = version;
+            this.rules = rules;
         }
-        rules.add(r);
+    }
+
+    public synchronized void addOrUpdateRule(Rule r) {
+        putRule(r);
+        rulesVersion++;
+    }
+
+    /** Upserts all of {@code batch} as one change: readers see either none or all of them. */
+    public synchronized void addOrUpdateRules(Collection<Rule> batch) {
+        if (batch.isEmpty()) return;
+        for (Rule r : batch) putRule(r);
+        rulesVersion++;
+    }
+
+    private void putRule(Rule r) {
+        Rule old = rules.put(r.id, r);
+        releaseIfChanged(r);
+        if (old == null) {
+            usage.putIfAbsent(r.id, new RuleStats(linesParsed.get()));
+        } else if (!Objects.equals(old.regex, r.regex)) {
+            RuleStats st = usage.get(r.id);
+            if (st != null) st.restart(linesParsed.get());
+        }
+        ObjectNode e = mapper.createObjectNode();
+        e.put("op", "rule");
+        e.set("rule", mapper.valueToTree(r));
+        log(e);
+    }
+
+    /** A rule taken out of parsing because one of its matches ran out of budget. */
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static final class Quarantined {
+        public String id;
+        public String regex;
+        public String reason;
+        public String line;     // the input that triggered it, truncated
+        public long at;         // epoch millis
+
+        public Quarantined() {}
+
+        public Quarantined(String id, String regex, String reason, String line, long at) {
+            this.id = id; this.regex = regex; this.reason = reason; this.line = line; this.at = at;
+        }
+    }
+
+    /**
+     * Excludes rule {@code ruleId} from {@link #ruleSet()} until an update changes its regex,
+     * recording why and on which input. Returns false if the rule is unknown or already quarantined.
+     */
+    public synchronized boolean quarantine(String ruleId, String reason, String line) {
+        Rule r = rules.get(ruleId);
+        if (r == null || quarantine.containsKey(ruleId)) return false;
+        if (line != null && line.length() > QUARANTINE_LINE_CHARS) line = line.substring(0, QUARANTINE_LINE_CHARS) + "...";
+        Quarantined q = new Quarantined(ruleId, r.regex, reason, line, System.currentTimeMillis());
+        quarantine.put(ruleId, q);
+        ObjectNode e = mapper.createObjectNode();
+        e.put("op", "quarantine");
+        e.set("entry", mapper.valueToTree(q));
+        log(e);
+        rulesVersion++;
+        return true;
+    }
+
+    public synchronized List<Quarantined> quarantined() { return List.copyOf(quarantine.values()); }
+
+    // a refined regex gets a fresh chance; journaled before the rule itself
+    private void releaseIfChanged(Rule r) {
+        Quarantined q = quarantine.get(r.id);
+        if (q == null || Objects.equals(q.regex, r.regex)) return;
+        quarantine.remove(r.id);
+        ObjectNode e = mapper.createObjectNode();
+        e.put("op", "release");
+        e.put("id", r.id);
+        log(e);
+    }
+
+    /** Usage counters of rule {@code ruleId}; created on first use, starting at the current line. */
+    public RuleStats usage(String ruleId) {
+        return usage.computeIfAbsent(ruleId, k -> new RuleStats(linesParsed.get()));
+    }
+
+    /** Counts one parsed line and returns its number; the clock for {@link RuleStats} windows. */
+    public long countLine() {
+        return linesParsed.incrementAndGet();
+    }
+
+    public long linesParsed() {
+        return linesParsed.get();
+    }
+
+    /**
+     * Retires rules that have not matched during the last {@code windowLines} parsed lines
+     * (counting from when they were added or last changed), including rules a probe found
+     * shadowed by an earlier rule and quarantined ones. Retired rules are journaled as removed
+     * and appended to {@code retired_rules.jsonl}. Returns them as "id: reason".
+     */
+    public synchronized List<String> prune(long windowLines) throws IOException {
+        long now = linesParsed.get();
+        List<String> retired = new ArrayList<>();
+        List<String> record = new ArrayList<>();
+        for (Iterator<Rule> it = rules.values().iterator(); it.hasNext(); ) {
+            Rule r = it.next();
+            RuleStats st = usage(r.id);
+            if (st.idleLines(now) < windowLines) continue;
+            String reason = quarantine.containsKey(r.id) ? "quarantined: " + quarantine.get(r.id).reason
+                    : st.shadowedBy() != null ? "shadowed by " + st.shadowedBy()
+                    : "no hits in " + st.idleLines(now) + " lines";
+            it.remove();
+            quarantine.remove(r.id);
+            usage.remove(r.id);
+            ObjectNode e = mapper.createObjectNode();
+            e.put("op", "remove");
+            e.put("id", r.id);
+            log(e);
+            ObjectNode rec = mapper.createObjectNode();
+            rec.set("rule", mapper.valueToTree(r));
+            rec.put("reason", reason);
+            rec.put("line", now);
+            record.add(rec.toString());
+            retired.add(r.id + ": " + reason);
+        }
+        if (retired.isEmpty()) return retired;
+        rulesVersion++;
+        save();
+        StringBuilder sb = new StringBuilder();
+        for (String l : record) sb.append(l).append('\n');
+        Files.writeString(retiredFile, sb, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        return retired;
     }
 
     public boolean isProcessed(Path repoRoot, Path file) {
-        return processed.contains(fingerprint(repoRoot, file));
+        String fp = fingerprint(repoRoot, file); // hashed outside the lock
+        synchronized (this) {
+            return processed.contains(fp);
+        }
     }
 
     public void markProcessed(Path repoRoot, Path file) {
-        processed.add(fingerprint(repoRoot, file));
+        String fp = fingerprint(repoRoot, file);
+        synchronized (this) {
+            if (!processed.add(fp)) return;
+            ObjectNode e = mapper.createObjectNode();
+            e.put("op", "processed");
+            e.put("fp", fp);
+            log(e);
+        }
+    }
+
+    private void log(JsonNode entry) {
+        pending.add(entry.toString());
+        if (pending.size() >= AUTO_FLUSH_ENTRIES) {
+            try {
+                save();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
     }
 
+    /**
+     * SHA-256 over (root, path, content). Served from the file-state cache when size and
+     * mtime are unchanged; otherwise the content is streamed through in fixed-size chunks.
+     */
     private String fingerprint(Path repoRoot, Path file) {
         try {
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            String key = repoRoot + "\0" + file;
+            long mtime = attrs.lastModifiedTime().toMillis();
+            FileState cached;
+            synchronized (this) {
+                cached = fileStates.get(key);
+            }
+            if (cached != null && cached.size == attrs.size() && cached.mtime == mtime) return cached.fingerprint;
+
             MessageDigest md = MessageDigest.getInstance("SHA-256");
             md.update(repoRoot.toString().getBytes(StandardCharsets.UTF_8));
             md.update((byte)0);
             md.update(file.toString().getBytes(StandardCharsets.UTF_8));
             md.update((byte)0);
-            md.update(java.nio.file.Files.readAllBytes(file));
+            long size = 0;
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+                ByteBuffer buf = ByteBuffer.allocate(HASH_CHUNK);
+                while (ch.read(buf) >= 0) {
+                    buf.flip();
+                    size += buf.remaining();
+                    md.update(buf);
+                    buf.clear();
+                }
+            }
             byte[] h = md.digest();
             StringBuilder sb = new StringBuilder();
             for (byte b : h) sb.append(String.format("%02x", b));
-            return sb.toString();
+            String fp = sb.toString();
+
+            if (size == attrs.size() && System.currentTimeMillis() - mtime > RACY_MTIME_MILLIS) {
+                FileState state = new FileState(size, mtime, fp);
+                synchronized (this) {
+                    fileStates.put(key, state);
+                    log(fileStateEntry(key, state, true));
+                }
+            }
+            return fp;
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
+
+    private ObjectNode fileStateEntry(String key, FileState s, boolean journal) {
+        ObjectNode e = mapper.createObjectNode();
+        if (journal) e.put("op", "file");
+        e.put("path", key);
+        e.put("size", s.size);
+        e.put("mtime", s.mtime);
+        e.put("fp", s.fingerprint);
+        return e;
+    }
+
+    private static final class FileState {
+        final long size;
+        final long mtime;
+        final String fingerprint;
+        FileState(long size, long mtime, String fingerprint) {
+            this.size = size; this.mtime = mtime; this.fingerprint = fingerprint;
+        }
+    }
 }
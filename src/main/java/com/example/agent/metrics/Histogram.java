@@ -0,0 +1,66 @@
+package com.example.agent.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with log-linear buckets: eight sub-buckets per power of two,
+ * so any reported percentile is within 12.5% of the true value. Fixed 4 KB per stage.
+ */
+final class Histogram {
+    private static final int SUB_BITS = 3;
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int LINEAR = 2 * SUB; // values below this get a bucket each
+    private static final int BUCKETS = LINEAR + (64 - SUB_BITS - 1) * SUB;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    void record(long value) {
+        long v = Math.max(0, value);
+        counts.incrementAndGet(bucket(v));
+        count.incrementAndGet();
+        sum.addAndGet(v);
+        max.accumulateAndGet(v, Math::max);
+    }
+
+    static int bucket(long v) {
+        if (v < LINEAR) return (int) v;
+        int exp = 63 - Long.numberOfLeadingZeros(v);
+        int sub = (int) (v >>> (exp - SUB_BITS)) & (SUB - 1);
+        return LINEAR + (exp - SUB_BITS - 1) * SUB + sub;
+    }
+
+    /** Smallest value that falls into bucket {@code b}. */
+    static long lowerBound(int b) {
+        if (b < LINEAR) return b;
+        int exp = (b - LINEAR) / SUB + SUB_BITS + 1;
+        int sub = (b - LINEAR) % SUB;
+        return (1L << exp) | ((long) sub << (exp - SUB_BITS));
+    }
+
+    MetricsSnapshot.Timing snapshot() {
+        long n = count.get();
+        long[] c = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            c[i] = counts.get(i);
+            total += c[i];
+        }
+        return new MetricsSnapshot.Timing(n, sum.get(), max.get(),
+                percentile(c, total, 0.50), percentile(c, total, 0.90), percentile(c, total, 0.99));
+    }
+
+    private static long percentile(long[] c, long total, double q) {
+        if (total == 0) return 0;
+        long rank = (long) Math.ceil(q * total);
+        long seen = 0;
+        for (int i = 0; i < c.length; i++) {
+            seen += c[i];
+            if (seen >= rank) return lowerBound(i);
+        }
+        return lowerBound(c.length - 1);
+    }
+}
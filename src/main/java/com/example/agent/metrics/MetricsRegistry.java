@@ -0,0 +1,70 @@
+package com.example.agent.metrics;
+
+/**
+ * Sink for stage timings and counters. {@link SimpleMetricsRegistry} keeps them in memory;
+ * embedders can implement this to forward into their own monitoring. Implementations must be
+ * thread-safe and cheap: they are called on every translation.
+ */
+public interface MetricsRegistry {
+
+    /** Records one execution of {@code stage} that took {@code nanos}. */
+    void record(String stage, long nanos);
+
+    void increment(String counter, long delta);
+
+    default void increment(String counter) {
+        increment(counter, 1);
+    }
+
+    /** Point-in-time copy of everything recorded so far. */
+    MetricsSnapshot snapshot();
+
+    /**
+     * Starts timing {@code stage}; closing the returned timer records it here and commits a
+     * {@link StageEvent} to JFR. Use with try-with-resources.
+     */
+    default Timer time(String stage) {
+        return new Timer(this, stage);
+    }
+
+    /** Discards everything; for callers that do not care. */
+    static MetricsRegistry noop() {
+        return Noop.INSTANCE;
+    }
+
+    final class Timer implements AutoCloseable {
+        private final MetricsRegistry registry;
+        private final String stage;
+        private final StageEvent event;
+        private final long start = System.nanoTime();
+
+        private Timer(MetricsRegistry registry, String stage) {
+            this.registry = registry;
+            this.stage = stage;
+            StageEvent e = new StageEvent();
+            if (e.isEnabled()) {
+                e.stage = stage;
+                e.begin();
+                this.event = e;
+            } else {
+                this.event = null;
+            }
+        }
+
+        @Override
+        public void close() {
+            registry.record(stage, System.nanoTime() - start);
+            if (event != null) event.commit();
+        }
+    }
+
+    final class Noop implements MetricsRegistry {
+        static final Noop INSTANCE = new Noop();
+
+        private Noop() {}
+
+        @Override public void record(String stage, long nanos) {}
+        @Override public void increment(String counter, long delta) {}
+        @Override public MetricsSnapshot snapshot() { return new MetricsSnapshot(java.util.Map.of(), java.util.Map.of()); }
+    }
+}
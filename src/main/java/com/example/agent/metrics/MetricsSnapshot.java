@@ -0,0 +1,62 @@
+package com.example.agent.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/** Immutable copy of a registry's timers and counters. */
+public class MetricsSnapshot {
+
+    /** Latency summary of one stage, in nanoseconds. Percentiles are approximate (±12.5%). */
+    public static class Timing {
+        public final long count;
+        public final long totalNanos;
+        public final long maxNanos;
+        public final long p50Nanos;
+        public final long p90Nanos;
+        public final long p99Nanos;
+        public Timing(long count, long totalNanos, long maxNanos, long p50Nanos, long p90Nanos, long p99Nanos) {
+            this.count = count; this.totalNanos = totalNanos; this.maxNanos = maxNanos;
+            this.p50Nanos = p50Nanos; this.p90Nanos = p90Nanos; this.p99Nanos = p99Nanos;
+        }
+        public double meanNanos() { return count == 0 ? 0 : (double) totalNanos / count; }
+    }
+
+    public final Map<String, Timing> timings;
+    public final Map<String, Long> counters;
+
+    public MetricsSnapshot(Map<String, Timing> timings, Map<String, Long> counters) {
+        this.timings = Map.copyOf(timings);
+        this.counters = Map.copyOf(counters);
+    }
+
+    public long counter(String name) {
+        return counters.getOrDefault(name, 0L);
+    }
+
+    /** Fraction of parsed lines that no rule matched; 0 if nothing was parsed. */
+    public double unknownRatio() {
+        long lines = counter("parse.lines");
+        return lines == 0 ? 0 : (double) counter("parse.unknown") / lines;
+    }
+
+    /** Human-readable per-stage breakdown, stages sorted by name. */
+    public String format() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-16s %8s %11s %9s %9s %9s %9s %9s%n", "stage", "count", "total ms", "mean ms", "p50 ms", "p90 ms", "p99 ms", "max ms"));
+        for (var e : new TreeMap<>(timings).entrySet()) {
+            Timing t = e.getValue();
+            sb.append(String.format("%-16s %8d %11.1f %9.2f %9.2f %9.2f %9.2f %9.2f%n", e.getKey(), t.count,
+                    t.totalNanos / 1e6, t.meanNanos() / 1e6, t.p50Nanos / 1e6, t.p90Nanos / 1e6, t.p99Nanos / 1e6, t.maxNanos / 1e6));
+        }
+        for (var e : new TreeMap<>(counters).entrySet()) {
+            sb.append(String.format("%-28s %12d%n", e.getKey(), e.getValue()));
+        }
+        if (counter("parse.lines") > 0) sb.append(String.format("%-28s %11.1f%%%n", "unknown ratio", unknownRatio() * 100));
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return format();
+    }
+}
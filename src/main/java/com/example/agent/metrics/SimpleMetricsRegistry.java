@@ -0,0 +1,32 @@
+package com.example.agent.metrics;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/** In-memory registry: a {@link Histogram} per stage and a {@link LongAdder} per counter. */
+public class SimpleMetricsRegistry implements MetricsRegistry {
+
+    private final Map<String, Histogram> stages = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    @Override
+    public void record(String stage, long nanos) {
+        stages.computeIfAbsent(stage, k -> new Histogram()).record(nanos);
+    }
+
+    @Override
+    public void increment(String counter, long delta) {
+        counters.computeIfAbsent(counter, k -> new LongAdder()).add(delta);
+    }
+
+    @Override
+    public MetricsSnapshot snapshot() {
+        Map<String, MetricsSnapshot.Timing> t = new HashMap<>();
+        stages.forEach((k, h) -> t.put(k, h.snapshot()));
+        Map<String, Long> c = new HashMap<>();
+        counters.forEach((k, v) -> c.put(k, v.sum()));
+        return new MetricsSnapshot(t, c);
+    }
+}
@@ -0,0 +1,19 @@
+package com.example.agent.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** One pipeline stage (parse, topK, llm.*, verify, repair, refine, save) as a JFR duration event. */
+@Name("com.example.agent.Stage")
+@Label("Translation Stage")
+@Category({"Dialect Translator"})
+@Description("Time spent in one stage of dialect-to-Java translation")
+@StackTrace(false)
+public class StageEvent extends Event {
+    @Label("Stage")
+    public String stage;
+}
@@ -0,0 +1,263 @@
+package com.example.agent.model.ir;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Columnar form of {@link IR} for large inputs. Nodes are int handles into parallel arrays: an
+ * opcode, two text fields as {@code (start, length)} spans into the original source, and
+ * first-child / first-else-child / next-sibling links. Captured text is never copied; the only
+ * text kept besides the source is that of lines joined from continuation lines, which do not
+ * exist in the source as one piece.
+ * <p>
+ * Fields per opcode: ASSIGN name, expr; CALL callee, args (comma-separated, split on demand);
+ * DECL name, type; IF cond (then-body in {@link #child}, else-body in {@link #alt}); LOOP header
+ * (body in {@link #child}); UNKNOWN raw line. {@link #node(int)} and {@link #nodes()} materialize
+ * the object form for callers that need it. Immutable once built.
+ */
+public final class CompactIR {
+
+    public static final byte ASSIGN = 1, CALL = 2, DECL = 3, IF = 4, LOOP = 5, UNKNOWN = 6;
+    public static final int NONE = -1;
+
+    private final String source;
+    private final String extra;
+    private final int size;
+    private final int first;
+    private final byte[] op;
+    // field spans: start in source (or, from source.length() on, in extra); start NONE = absent
+    private final int[] aStart, aLen, bStart, bLen;
+    private final int[] child, alt, next;
+
+    private CompactIR(Builder b) {
+        this.source = b.source;
+        this.extra = b.extra.toString();
+        this.size = b.size;
+        this.first = b.first;
+        this.op = Arrays.copyOf(b.op, size);
+        this.aStart = Arrays.copyOf(b.aStart, size);
+        this.aLen = Arrays.copyOf(b.aLen, size);
+        this.bStart = Arrays.copyOf(b.bStart, size);
+        this.bLen = Arrays.copyOf(b.bLen, size);
+        this.child = Arrays.copyOf(b.child, size);
+        this.alt = Arrays.copyOf(b.alt, size);
+        this.next = Arrays.copyOf(b.next, size);
+    }
+
+    /** Number of nodes at all depths. */
+    public int size() { return size; }
+    /** First top-level node, or {@link #NONE}. */
+    public int first() { return first; }
+    public byte op(int n) { return op[n]; }
+    public int next(int n) { return next[n]; }
+    /** First node of the then-body (IF) or body (LOOP), or {@link #NONE}. */
+    public int child(int n) { return child[n]; }
+    /** First node of the else-body (IF), or {@link #NONE}. */
+    public int alt(int n) { return alt[n]; }
+
+    /** Whether field {@code f} (0 or 1) was captured. */
+    public boolean has(int n, int f) {
+        return (f == 0 ? aStart[n] : bStart[n]) != NONE;
+    }
+
+    /** Field {@code f} (0 or 1) as a read-only view of the source; empty if absent. */
+    public CharSequence field(int n, int f) {
+        int start = f == 0 ? aStart[n] : bStart[n];
+        int len = f == 0 ? aLen[n] : bLen[n];
+        if (start == NONE) return "";
+        return start < source.length()
+                ? CharBuffer.wrap(source, start, start + len)
+                : CharBuffer.wrap(extra, start - source.length(), start - source.length() + len);
+    }
+
+    /** Field {@code f} as a new string, or null if absent. */
+    public String string(int n, int f) {
+        return has(n, f) ? field(n, f).toString() : null;
+    }
+
+    /** Appends field {@code f} to {@code out} without an intermediate copy. */
+    public void appendField(int n, int f, Appendable out) throws IOException {
+        appendField(n, f, 0, f == 0 ? aLen[n] : bLen[n], out);
+    }
+
+    /**
+     * Appends chars {@code [from, to)} of field {@code f}, e.g. one of its {@link #argSpans}.
+     * Appending the {@link #field} view instead copies char by char.
+     */
+    public void appendField(int n, int f, int from, int to, Appendable out) throws IOException {
+        int start = f == 0 ? aStart[n] : bStart[n];
+        if (start == NONE) return;
+        if (start < source.length()) out.append(source, start + from, start + to);
+        else out.append(extra, start - source.length() + from, start - source.length() + to);
+    }
+
+    /**
+     * Call arguments as {@code [start, end)} pairs relative to {@link #field field(n, 1)}, split on
+     * commas and trimmed the way the object IR splits them.
+     */
+    public int[] argSpans(int n) {
+        CharSequence s = field(n, 1);
+        if (isBlank(s)) return new int[0];
+        List<int[]> pieces = new ArrayList<>();
+        int from = 0;
+        for (int i = 0; i <= s.length(); i++) {
+            if (i < s.length() && s.charAt(i) != ',') continue;
+            pieces.add(new int[]{from, i});
+            from = i + 1;
+        }
+        // String.split drops trailing empty pieces
+        int count = pieces.size();
+        while (count > 0 && pieces.get(count - 1)[0] == pieces.get(count - 1)[1]) count--;
+        int[] out = new int[count * 2];
+        for (int k = 0; k < count; k++) {
+            int a = pieces.get(k)[0], b = pieces.get(k)[1];
+            while (a < b && s.charAt(a) <= ' ') a++;
+            while (b > a && s.charAt(b - 1) <= ' ') b--;
+            out[2 * k] = a;
+            out[2 * k + 1] = b;
+        }
+        return out;
+    }
+
+    private static boolean isBlank(CharSequence s) {
+        for (int i = 0; i < s.length(); i++) if (!Character.isWhitespace(s.charAt(i))) return false;
+        return true;
+    }
+
+    public List<String> args(int n) {
+        CharSequence s = field(n, 1);
+        int[] spans = argSpans(n);
+        List<String> out = new ArrayList<>(spans.length / 2);
+        for (int k = 0; k < spans.length; k += 2) out.add(s.subSequence(spans[k], spans[k + 1]).toString());
+        return out;
+    }
+
+    /** Object form of node {@code n} and everything under it. */
+    public IR.Node node(int n) {
+        return switch (op[n]) {
+            case ASSIGN -> new IR.Assign(string(n, 0), string(n, 1));
+            case CALL -> new IR.Call(string(n, 0), args(n));
+            case DECL -> new IR.Decl(string(n, 0), string(n, 1));
+            case IF -> {
+                IR.If i = new IR.If(string(n, 0));
+                for (int c = child[n]; c != NONE; c = next[c]) i.thenBody.add(node(c));
+                for (int c = alt[n]; c != NONE; c = next[c]) i.elseBody.add(node(c));
+                yield i;
+            }
+            case LOOP -> {
+                IR.Loop l = new IR.Loop(string(n, 0));
+                for (int c = child[n]; c != NONE; c = next[c]) l.body.add(node(c));
+                yield l;
+            }
+            default -> new IR.UnknownNode(string(n, 0));
+        };
+    }
+
+    /** Top-level nodes in object form, each materialized only when reached. */
+    public Iterator<IR.Node> nodes() {
+        return new Iterator<>() {
+            int cur = first;
+
+            @Override
+            public boolean hasNext() {
+                return cur != NONE;
+            }
+
+            @Override
+            public IR.Node next() {
+                if (cur == NONE) throw new NoSuchElementException();
+                IR.Node node = node(cur);
+                cur = CompactIR.this.next[cur];
+                return node;
+            }
+        };
+    }
+
+    public IR toIR() {
+        IR ir = new IR();
+        for (Iterator<IR.Node> it = nodes(); it.hasNext(); ) ir.nodes.add(it.next());
+        return ir;
+    }
+
+    /** Appends nodes and links them; not thread-safe. */
+    public static final class Builder {
+        private final String source;
+        private final StringBuilder extra = new StringBuilder();
+        private int size;
+        private int first = NONE, lastTop = NONE;
+        private byte[] op = new byte[64];
+        private int[] aStart = new int[64], aLen = new int[64], bStart = new int[64], bLen = new int[64];
+        private int[] child = new int[64], alt = new int[64], next = new int[64];
+        // last node of each body, so appending is O(1); not kept in the built IR
+        private int[] childTail = new int[64], altTail = new int[64];
+
+        public Builder(String source) {
+            this.source = source;
+        }
+
+        /**
+         * Stores {@code text} that is not a piece of the source (a joined line) and returns the
+         * span start to use for it.
+         */
+        public int addText(CharSequence text) {
+            int start = source.length() + extra.length();
+            extra.append(text);
+            return start;
+        }
+
+        /** New unlinked node; pass {@link #NONE} as the start of an absent field. */
+        public int add(byte opcode, int aStart, int aLen, int bStart, int bLen) {
+            if (size == op.length) grow();
+            int n = size++;
+            op[n] = opcode;
+            this.aStart[n] = aStart;
+            this.aLen[n] = aLen;
+            this.bStart[n] = bStart;
+            this.bLen[n] = bLen;
+            child[n] = alt[n] = next[n] = childTail[n] = altTail[n] = NONE;
+            return n;
+        }
+
+        public void appendTop(int n) {
+            if (first == NONE) first = n;
+            else next[lastTop] = n;
+            lastTop = n;
+        }
+
+        /** Appends {@code n} to the body of {@code block}, or to its else-body if {@code elseBranch}. */
+        public void appendChild(int block, boolean elseBranch, int n) {
+            int[] head = elseBranch ? alt : child;
+            int[] tail = elseBranch ? altTail : childTail;
+            if (head[block] == NONE) head[block] = n;
+            else next[tail[block]] = n;
+            tail[block] = n;
+        }
+
+        public byte op(int n) {
+            return op[n];
+        }
+
+        public CompactIR build() {
+            return new CompactIR(this);
+        }
+
+        private void grow() {
+            int cap = op.length * 2;
+            op = Arrays.copyOf(op, cap);
+            aStart = Arrays.copyOf(aStart, cap);
+            aLen = Arrays.copyOf(aLen, cap);
+            bStart = Arrays.copyOf(bStart, cap);
+            bLen = Arrays.copyOf(bLen, cap);
+            child = Arrays.copyOf(child, cap);
+            alt = Arrays.copyOf(alt, cap);
+            next = Arrays.copyOf(next, cap);
+            childTail = Arrays.copyOf(childTail, cap);
+            altTail = Arrays.copyOf(altTail, cap);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.agent.providers;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * AIMD concurrency limit. Each success that came back without queueing delay adds {@code 1/limit}
+ * (about +1 per round trip); a 429 or a latency well above the observed floor multiplies the limit
+ * by 0.7, at most once per round trip so one burst of slow replies counts as one congestion signal.
+ */
+final class AdaptiveLimit {
+    private static final double BACKOFF = 0.7;
+    private static final double SLOW = 2.0; // latency above SLOW x floor counts as congestion
+
+    private final int min;
+    private final int max;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition freed = lock.newCondition();
+    private double limit;
+    private int inFlight;
+    private double floorNanos = Double.NaN;
+    private long lastDecrease;
+
+    AdaptiveLimit(int initial, int max) {
+        this.min = 1;
+        this.max = Math.max(1, max);
+        this.limit = Math.max(min, Math.min(initial, this.max));
+    }
+
+    void acquire() throws InterruptedIOException {
+        lock.lock();
+        try {
+            while (inFlight >= (int) limit) freed.await();
+            inFlight++;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for an LLM request slot");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Releases a slot and feeds the outcome back; {@code overloaded} is true for a 429. */
+    void release(long latencyNanos, boolean overloaded) {
+        lock.lock();
+        try {
+            inFlight--;
+            long now = System.nanoTime();
+            // the floor drifts up slowly so it follows a genuinely slower model instead of sticking to one lucky sample
+            floorNanos = Double.isNaN(floorNanos) ? latencyNanos : Math.min(latencyNanos, floorNanos + (latencyNanos - floorNanos) / 100);
+            boolean congested = overloaded || latencyNanos > SLOW * floorNanos;
+            if (congested) {
+                if (now - lastDecrease > latencyNanos) {
+                    limit = Math.max(min, limit * BACKOFF);
+                    lastDecrease = now;
+                }
+            } else {
+                limit = Math.min(max, limit + 1 / limit);
+            }
+            freed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Releases a slot without a latency sample (the call failed before the server answered). */
+    void release() {
+        lock.lock();
+        try {
+            inFlight--;
+            freed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int limit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long floorMillis() {
+        lock.lock();
+        try {
+            return Double.isNaN(floorNanos) ? 0 : TimeUnit.NANOSECONDS.toMillis((long) floorNanos);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
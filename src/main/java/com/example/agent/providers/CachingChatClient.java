@@ -0,0 +1,316 @@
+package com.example.agent.providers;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Content-addressed response cache in front of a {@link ChatClient}.
+ * The key is SHA-256 over (model, messages, temperature); entries live as one JSON file each
+ * under {@code dir/xx/<key>.json}, with a small in-memory LRU in front. Entries expire after
+ * {@code maxAge} since last use, and the least recently used are evicted once the directory exceeds
+ * {@code maxBytes}. Use is tracked in memory and written to the file's mtime at most every
+ * {@code maxAge / 10} (and at least every minute), so other instances see hot entries as recent too.
+ */
+public class CachingChatClient implements ChatClient {
+
+    public enum Mode {
+        /** Serve hits, call through and store on misses. */
+        READ_WRITE,
+        /** Always call through; the cache is neither read nor written. */
+        BYPASS,
+        /** Serve hits only; a miss is an error. For offline CI and repeatable benchmarks. */
+        REPLAY;
+
+        /**
+         * Accepts "rw", "off"/"bypass", "replay" (case-insensitive); null or blank is READ_WRITE.
+         * Anything else is rejected rather than guessed, so a typo cannot turn replay into live calls.
+         */
+        public static Mode parse(String s) {
+            if (s == null || s.isBlank()) return READ_WRITE;
+            return switch (s.trim().toLowerCase(Locale.ROOT)) {
+                case "rw", "read_write" -> READ_WRITE;
+                case "off", "bypass" -> BYPASS;
+                case "replay" -> REPLAY;
+                default -> throw new IllegalArgumentException("Unknown LLM cache mode: " + s + " (expected rw, off or replay)");
+            };
+        }
+    }
+
+    private static final int MEMORY_ENTRIES = 256;
+
+    private final ChatClient delegate;
+    private final String model;
+    private final Path dir;
+    private final Mode mode;
+    private final long maxBytes;
+    private final Duration maxAge;
+    private final ObjectMapper mapper = new ObjectMapper().configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+    private final long touchMillis;
+    private final Map<String, Hot> memory = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Hot> eldest) {
+            return size() > MEMORY_ENTRIES;
+        }
+    };
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong diskBytes = new AtomicLong();
+
+    public CachingChatClient(ChatClient delegate, String model, Path dir, Mode mode, long maxBytes, Duration maxAge) throws IOException {
+        this.delegate = delegate;
+        this.model = model;
+        this.dir = dir;
+        this.mode = mode;
+        this.maxBytes = maxBytes;
+        this.maxAge = maxAge;
+        this.touchMillis = Math.min(60_000, maxAge.toMillis() / 10);
+        Files.createDirectories(dir);
+        if (mode != Mode.BYPASS) evict();
+    }
+
+    @Override
+    public String chat(List<Map<String, String>> messages, double temperature) throws IOException {
+        if (mode == Mode.BYPASS) return delegate.chat(messages, temperature);
+        String key = key(messages, temperature);
+        String cached = lookup(key);
+        if (cached != null) return cached;
+        String response = delegate.chat(messages, temperature);
+        store(key, response);
+        return response;
+    }
+
+    @Override
+    public CompletableFuture<String> chatAsync(List<Map<String, String>> messages, double temperature) {
+        if (mode == Mode.BYPASS) return delegate.chatAsync(messages, temperature);
+        return cachedOr(messages, temperature, null, key -> delegate.chatAsync(messages, temperature));
+    }
+
+    /** A hit is delivered as a single delta; a miss streams from the delegate and is stored when complete. */
+    @Override
+    public CompletableFuture<String> chatStream(List<Map<String, String>> messages, double temperature, Consumer<String> onDelta) {
+        if (mode == Mode.BYPASS) return delegate.chatStream(messages, temperature, onDelta);
+        return cachedOr(messages, temperature, onDelta, key -> delegate.chatStream(messages, temperature, onDelta));
+    }
+
+    private CompletableFuture<String> cachedOr(List<Map<String, String>> messages, double temperature, Consumer<String> onDelta,
+                                               Function<String, CompletableFuture<String>> call) {
+        String key;
+        try {
+            key = key(messages, temperature);
+            String cached = lookup(key);
+            if (cached != null) {
+                if (onDelta != null) onDelta.accept(cached);
+                return CompletableFuture.completedFuture(cached);
+            }
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return call.apply(key).thenApply(response -> {
+            try {
+                store(key, response);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return response;
+        });
+    }
+
+    /** Cached response or null; counts the hit or miss. Throws on a miss in replay mode. */
+    private String lookup(String key) throws IOException {
+        String cached = null;
+        boolean touch = false;
+        long now = System.currentTimeMillis();
+        synchronized (memory) {
+            Hot h = memory.get(key);
+            if (h != null && expired(h.used)) {
+                memory.remove(key); // the file decides: another instance may have used it since
+            } else if (h != null) {
+                h.used = now;
+                cached = h.response;
+                if (now - h.touched >= touchMillis) {
+                    h.touched = now;
+                    touch = true;
+                }
+            }
+        }
+        if (touch) {
+            try {
+                Files.setLastModifiedTime(entryPath(key), FileTime.fromMillis(now));
+            } catch (NoSuchFileException e) {
+                forget(key); // evicted by another instance; this answer is still good
+            }
+        }
+        if (cached == null) cached = readEntry(key);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached;
+        }
+        misses.incrementAndGet();
+        if (mode == Mode.REPLAY) throw new IOException("LLM cache miss in replay mode (key " + key + ")");
+        return null;
+    }
+
+    private void store(String key, String response) throws IOException {
+        writeEntry(key, response);
+        remember(key, response);
+    }
+
+    private void remember(String key, String response) {
+        long now = System.currentTimeMillis();
+        synchronized (memory) {
+            memory.put(key, new Hot(response, now));
+        }
+    }
+
+    private void forget(String key) {
+        synchronized (memory) {
+            memory.remove(key);
+        }
+    }
+
+    public long hits() { return hits.get(); }
+
+    public long misses() { return misses.get(); }
+
+    @Override
+    public String toString() {
+        return "llmCache mode=" + mode + " hits=" + hits() + " misses=" + misses() + " diskBytes=" + diskBytes.get();
+    }
+
+    String key(List<Map<String, String>> messages, double temperature) throws IOException {
+        ObjectNode k = mapper.createObjectNode();
+        k.put("model", model);
+        k.set("messages", mapper.valueToTree(messages));
+        k.put("temperature", temperature);
+        try {
+            byte[] h = MessageDigest.getInstance("SHA-256").digest(mapper.writeValueAsBytes(k));
+            StringBuilder sb = new StringBuilder();
+            for (byte b : h) sb.append(String.format("%02x", b));
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Path entryPath(String key) {
+        return dir.resolve(key.substring(0, 2)).resolve(key + ".json");
+    }
+
+    private String readEntry(String key) throws IOException {
+        Path p = entryPath(key);
+        try {
+            if (expired(Files.getLastModifiedTime(p).toMillis())) {
+                Files.deleteIfExists(p);
+                return null;
+            }
+            String response = mapper.readTree(Files.readAllBytes(p)).path("response").asText(null);
+            if (response == null) return null;
+            Files.setLastModifiedTime(p, FileTime.fromMillis(System.currentTimeMillis())); // LRU by mtime
+            remember(key, response);
+            return response;
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private void writeEntry(String key, String response) throws IOException {
+        Path p = entryPath(key);
+        Files.createDirectories(p.getParent());
+        ObjectNode e = mapper.createObjectNode();
+        e.put("model", model);
+        e.put("created", System.currentTimeMillis());
+        e.put("response", response);
+        byte[] bytes = mapper.writeValueAsBytes(e);
+        Path tmp = Files.createTempFile(p.getParent(), key, ".tmp");
+        Files.write(tmp, bytes);
+        Files.move(tmp, p, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (diskBytes.addAndGet(bytes.length) > maxBytes) evict();
+    }
+
+    private boolean expired(long used) {
+        return System.currentTimeMillis() - used > maxAge.toMillis();
+    }
+
+    /**
+     * Drops expired entries, then least recently used ones until under 90% of {@code maxBytes}.
+     * Last use is the later of the file's mtime and what memory knows; dropped keys leave memory too.
+     */
+    private synchronized void evict() throws IOException {
+        Map<String, Long> hot = new HashMap<>();
+        synchronized (memory) {
+            for (var e : memory.entrySet()) hot.put(e.getKey(), e.getValue().used);
+        }
+        List<Path> files = new ArrayList<>();
+        Map<Path, BasicFileAttributes> attrs = new HashMap<>();
+        Map<Path, Long> used = new HashMap<>();
+        long total = 0;
+        try (var walk = Files.walk(dir)) {
+            for (Path p : (Iterable<Path>) walk::iterator) {
+                if (!p.toString().endsWith(".json")) continue;
+                BasicFileAttributes a;
+                try {
+                    a = Files.readAttributes(p, BasicFileAttributes.class);
+                } catch (NoSuchFileException gone) {
+                    continue;
+                }
+                long last = Math.max(a.lastModifiedTime().toMillis(), hot.getOrDefault(keyOf(p), 0L));
+                if (expired(last)) {
+                    Files.deleteIfExists(p);
+                    forget(keyOf(p));
+                    continue;
+                }
+                files.add(p);
+                attrs.put(p, a);
+                used.put(p, last);
+                total += a.size();
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        if (total > maxBytes) {
+            files.sort(Comparator.comparing(used::get));
+            long target = maxBytes / 10 * 9;
+            for (Path p : files) {
+                if (total <= target) break;
+                Files.deleteIfExists(p);
+                forget(keyOf(p));
+                total -= attrs.get(p).size();
+            }
+        }
+        diskBytes.set(total);
+    }
+
+    private static String keyOf(Path entry) {
+        String name = entry.getFileName().toString();
+        return name.substring(0, name.length() - ".json".length());
+    }
+
+    /** A response held in memory: when it was last used, and when that was last written to its file. */
+    private static final class Hot {
+        final String response;
+        long used;
+        long touched;
+
+        Hot(String response, long now) {
+            this.response = response;
+            this.used = now;
+            this.touched = now;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.agent.providers;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+
+/**
+ * Chat-completion endpoint as seen by the agents. {@link GigaChatOpenAIClient} talks to the
+ * network; decorators such as {@link CachingChatClient} wrap it without the callers noticing.
+ * The async and streaming defaults run the blocking call on a virtual thread, so a decorator
+ * only has to implement {@link #chat}.
+ */
+public interface ChatClient {
+    String chat(List<Map<String, String>> messages, double temperature) throws IOException;
+
+    default CompletableFuture<String> chatAsync(List<Map<String, String>> messages, double temperature) {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        Thread.ofVirtual().name("llm-call").start(() -> {
+            try {
+                result.complete(chat(messages, temperature));
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            }
+        });
+        return result;
+    }
+
+    /** Delivers the reply to {@code onDelta} in pieces as it is produced; the future holds the full text. */
+    default CompletableFuture<String> chatStream(List<Map<String, String>> messages, double temperature, Consumer<String> onDelta) {
+        return chatAsync(messages, temperature).thenApply(s -> {
+            onDelta.accept(s);
+            return s;
+        });
+    }
+
+    /** Waits for {@code f}, turning its failure back into the IOException a blocking call would throw. */
+    static String await(CompletableFuture<String> f) throws IOException {
+        try {
+            return f.join();
+        } catch (CompletionException e) {
+            Throwable c = e.getCause();
+            if (c instanceof IOException io) throw io;
+            if (c instanceof RuntimeException re) throw re;
+            throw new IOException(c);
+        }
+    }
+}
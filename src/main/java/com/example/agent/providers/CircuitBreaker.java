@@ -0,0 +1,55 @@
+package com.example.agent.providers;
+
+import java.io.IOException;
+import java.time.Duration;
+
+/**
+ * Opens after {@code threshold} consecutive failures and rejects calls for {@code openFor};
+ * then lets a single probe through (half-open) and closes again if it succeeds.
+ */
+final class CircuitBreaker {
+    enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int threshold;
+    private final long openNanos;
+    private State state = State.CLOSED;
+    private int failures;
+    private long openedAt;
+    private boolean probing;
+
+    CircuitBreaker(int threshold, Duration openFor) {
+        this.threshold = Math.max(1, threshold);
+        this.openNanos = openFor.toNanos();
+    }
+
+    /** Throws if the circuit is open, or half-open with its probe already in flight. */
+    synchronized void check() throws IOException {
+        if (state == State.OPEN && System.nanoTime() - openedAt >= openNanos) {
+            state = State.HALF_OPEN;
+            probing = false;
+        }
+        if (state == State.OPEN || (state == State.HALF_OPEN && probing)) {
+            throw new IOException("GigaChat circuit open after " + failures + " consecutive failures; not calling the endpoint");
+        }
+        if (state == State.HALF_OPEN) probing = true;
+    }
+
+    synchronized void onSuccess() {
+        state = State.CLOSED;
+        failures = 0;
+        probing = false;
+    }
+
+    synchronized void onFailure() {
+        failures++;
+        if (state == State.HALF_OPEN || failures >= threshold) {
+            state = State.OPEN;
+            openedAt = System.nanoTime();
+            probing = false;
+        }
+    }
+
+    synchronized State state() {
+        return state;
+    }
+}
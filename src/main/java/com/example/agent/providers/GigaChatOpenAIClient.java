@@ -1,53 +1,277 @@
 package com.example.agent.providers;
 
-import com.fasterxml.jackson.databind.JsonNode;
+import com.example.agent.metrics.MetricsRegistry;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import okhttp3.*;
 
+import java.io.BufferedReader;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
-public class GigaChatOpenAIClient {
+public class GigaChatOpenAIClient implements ChatClient {
+
+    private static final MediaType JSON = MediaType.parse("application/json");
 
     private final String baseUrl; // e.g. http://localhost:8000
     private final String apiKey;
     private final String model;
     private final OkHttpClient http;
+    private final OkHttpClient streamingHttp;
     private final ObjectMapper mapper = new ObjectMapper();
+    private final JsonFactory json = mapper.getFactory();
+    private volatile MetricsRegistry metrics = MetricsRegistry.noop();
 
     public GigaChatOpenAIClient(String baseUrl, String apiKey, String model) {
+        this(baseUrl, apiKey, model, 64);
+    }
+
+    /** @param maxConcurrentRequests upper bound on simultaneous HTTP calls to the endpoint */
+    public GigaChatOpenAIClient(String baseUrl, String apiKey, String model, int maxConcurrentRequests) {
         this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length()-1) : baseUrl;
         this.apiKey = apiKey;
         this.model = model;
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(maxConcurrentRequests);
+        dispatcher.setMaxRequestsPerHost(maxConcurrentRequests);
         this.http = new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectionPool(new ConnectionPool(maxConcurrentRequests, 5, TimeUnit.MINUTES))
                 .callTimeout(Duration.ofSeconds(60))
                 .build();
+        // streamed completions may legitimately run longer than one call timeout; bound the gap between chunks instead
+        this.streamingHttp = http.newBuilder()
+                .callTimeout(Duration.ZERO)
+                .readTimeout(Duration.ofSeconds(60))
+                .build();
+    }
+
+    /** Where request counts, bytes on the wire and reported token usage go. */
+    public void setMetrics(MetricsRegistry metrics) {
+        this.metrics = metrics;
     }
 
+    @Override
     public String chat(List<Map<String, String>> messages, double temperature) throws IOException {
+        try (Response resp = http.newCall(request(messages, temperature, false)).execute()) {
+            return readCompletion(resp);
+        }
+    }
+
+    @Override
+    public CompletableFuture<String> chatAsync(List<Map<String, String>> messages, double temperature) {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        Call call;
+        try {
+            call = http.newCall(request(messages, temperature, false));
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call c, IOException e) {
+                result.completeExceptionally(e);
+            }
+
+            @Override
+            public void onResponse(Call c, Response resp) {
+                try (resp) {
+                    result.complete(readCompletion(resp));
+                } catch (IOException | RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+            }
+        });
+        result.whenComplete((r, t) -> { if (result.isCancelled()) call.cancel(); });
+        return result;
+    }
+
+    /**
+     * Sends {@code stream: true} and hands every content delta to {@code onDelta} as the
+     * server-sent events arrive (on an OkHttp thread). The future completes with the full text.
+     */
+    @Override
+    public CompletableFuture<String> chatStream(List<Map<String, String>> messages, double temperature, Consumer<String> onDelta) {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        Call call;
+        try {
+            call = streamingHttp.newCall(request(messages, temperature, true));
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call c, IOException e) {
+                result.completeExceptionally(e);
+            }
+
+            @Override
+            public void onResponse(Call c, Response resp) {
+                try (resp) {
+                    if (!resp.isSuccessful()) throw error(resp);
+                    result.complete(readStream(resp.body().byteStream(), onDelta));
+                } catch (IOException | RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+            }
+        });
+        result.whenComplete((r, t) -> { if (result.isCancelled()) call.cancel(); });
+        return result;
+    }
+
+    /**
+     * Reads server-sent events up to {@code data: [DONE]} or the end of the body, passing each
+     * non-empty content delta to {@code onDelta}; returns the concatenated text.
+     */
+    String readStream(InputStream body, Consumer<String> onDelta) throws IOException {
+        StringBuilder full = new StringBuilder();
+        var in = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (!line.startsWith("data:")) continue;
+            String data = line.substring(5).trim();
+            if (data.equals("[DONE]")) break;
+            if (data.isEmpty()) continue;
+            metrics.increment("llm.bytes.received", data.length());
+            Completion chunk;
+            try (JsonParser p = json.createParser(data)) {
+                chunk = parseCompletion(p, "delta");
+            }
+            recordUsage(chunk); // servers that report usage do so in the last chunk
+            String delta = chunk.content;
+            if (delta == null || delta.isEmpty()) continue;
+            full.append(delta);
+            onDelta.accept(delta);
+        }
+        return full.toString();
+    }
+
+    private Request request(List<Map<String, String>> messages, double temperature, boolean stream) throws IOException {
         String url = baseUrl + "/v1/chat/completions";
-        var payload = Map.of(
-                "model", model,
-                "messages", messages,
-                "temperature", temperature
-        );
-        RequestBody body = RequestBody.create(
-                mapper.writeValueAsBytes(payload),
-                MediaType.parse("application/json")
-        );
-        Request req = new Request.Builder()
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("model", model);
+        payload.put("messages", messages);
+        payload.put("temperature", temperature);
+        if (stream) payload.put("stream", true);
+        byte[] bytes = mapper.writeValueAsBytes(payload);
+        metrics.increment("llm.requests");
+        metrics.increment("llm.bytes.sent", bytes.length);
+        RequestBody body = RequestBody.create(bytes, JSON);
+        return new Request.Builder()
                 .url(url)
                 .addHeader("Authorization", "Bearer " + apiKey)
                 .post(body)
                 .build();
-        try (Response resp = http.newCall(req).execute()) {
-            if (!resp.isSuccessful()) {
-                throw new IOException("GigaChat API error: " + resp.code() + " " + resp.message() + " body=" + (resp.body() != null ? resp.body().string() : ""));
+    }
+
+    private String readCompletion(Response resp) throws IOException {
+        if (!resp.isSuccessful()) throw error(resp);
+        Completion c;
+        try (CountingInputStream in = new CountingInputStream(resp.body().byteStream()); JsonParser p = json.createParser(in)) {
+            c = parseCompletion(p, "message");
+            metrics.increment("llm.bytes.received", in.count);
+        }
+        recordUsage(c);
+        if (c.content == null) throw new IOException("GigaChat API error: no choices[0].message.content in response");
+        return c.content;
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        long count;
+        CountingInputStream(InputStream in) { super(in); }
+        @Override public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count++;
+            return b;
+        }
+        @Override public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) count += n;
+            return n;
+        }
+    }
+
+    private static IOException error(Response resp) throws IOException {
+        return new LlmHttpException(resp.code(), LlmHttpException.parseRetryAfter(resp.header("Retry-After"), Instant.now()),
+                "GigaChat API error: " + resp.code() + " " + resp.message() + " body=" + (resp.body() != null ? resp.body().string() : ""));
+    }
+
+    /** The parts of a completion (or of one streamed chunk) the client uses. */
+    static final class Completion {
+        String content;
+        long promptTokens = -1;
+        long completionTokens = -1;
+    }
+
+    /**
+     * Reads {@code choices[0].<container>.content} and {@code usage} from a completion with the
+     * streaming parser, without building a tree. Missing parts stay null / -1.
+     */
+    static Completion parseCompletion(JsonParser p, String container) throws IOException {
+        Completion c = new Completion();
+        if (p.nextToken() != JsonToken.START_OBJECT) return c;
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.currentName();
+            JsonToken t = p.nextToken();
+            if ("choices".equals(field) && t == JsonToken.START_ARRAY) {
+                readFirstChoice(p, container, c);
+            } else if ("usage".equals(field) && t == JsonToken.START_OBJECT) {
+                while (p.nextToken() == JsonToken.FIELD_NAME) {
+                    String uf = p.currentName();
+                    JsonToken ut = p.nextToken();
+                    if (ut == JsonToken.VALUE_NUMBER_INT && "prompt_tokens".equals(uf)) c.promptTokens = p.getLongValue();
+                    else if (ut == JsonToken.VALUE_NUMBER_INT && "completion_tokens".equals(uf)) c.completionTokens = p.getLongValue();
+                    else p.skipChildren();
+                }
+            } else {
+                p.skipChildren();
             }
-            JsonNode json = mapper.readTree(resp.body().bytes());
-            return json.get("choices").get(0).get("message").get("content").asText();
         }
+        return c;
+    }
+
+    /** Positioned on the choices array's START_ARRAY; leaves the parser after its END_ARRAY. */
+    private static void readFirstChoice(JsonParser p, String container, Completion c) throws IOException {
+        boolean first = true;
+        JsonToken t;
+        while ((t = p.nextToken()) != JsonToken.END_ARRAY && t != null) {
+            if (!first || t != JsonToken.START_OBJECT) {
+                p.skipChildren();
+                continue;
+            }
+            first = false;
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String cf = p.currentName();
+                JsonToken ct = p.nextToken();
+                if (!container.equals(cf) || ct != JsonToken.START_OBJECT) {
+                    p.skipChildren();
+                    continue;
+                }
+                while (p.nextToken() == JsonToken.FIELD_NAME) {
+                    String mf = p.currentName();
+                    JsonToken mt = p.nextToken();
+                    if ("content".equals(mf) && mt != JsonToken.VALUE_NULL) c.content = p.getText();
+                    else p.skipChildren();
+                }
+            }
+        }
+    }
+
+    private void recordUsage(Completion c) {
+        if (c.promptTokens >= 0) metrics.increment("llm.tokens.prompt", c.promptTokens);
+        if (c.completionTokens >= 0) metrics.increment("llm.tokens.completion", c.completionTokens);
     }
 }
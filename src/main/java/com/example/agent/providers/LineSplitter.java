@@ -0,0 +1,41 @@
+package com.example.agent.providers;
+
+import java.util.function.Consumer;
+
+/**
+ * Re-chunks streamed deltas into whole lines, so JSONL replies can be handled line by line
+ * while the completion is still arriving. Call {@link #finish()} for a final unterminated line.
+ */
+public class LineSplitter implements Consumer<String> {
+
+    private final Consumer<String> onLine;
+    private final StringBuilder partial = new StringBuilder();
+
+    public LineSplitter(Consumer<String> onLine) {
+        this.onLine = onLine;
+    }
+
+    @Override
+    public synchronized void accept(String delta) {
+        int start = 0;
+        for (int i = 0; i < delta.length(); i++) {
+            if (delta.charAt(i) != '\n') continue;
+            partial.append(delta, start, i);
+            emit();
+            start = i + 1;
+        }
+        partial.append(delta, start, delta.length());
+    }
+
+    public synchronized void finish() {
+        if (!partial.isEmpty()) emit();
+    }
+
+    private void emit() {
+        int end = partial.length();
+        if (end > 0 && partial.charAt(end - 1) == '\r') end--;
+        String line = partial.substring(0, end);
+        partial.setLength(0);
+        onLine.accept(line);
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.agent.providers;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/** Non-2xx reply from the chat endpoint, with what the scheduler needs to decide on a retry. */
+public class LlmHttpException extends IOException {
+    public final int status;
+    /** Server-requested delay from {@code Retry-After}, or null. */
+    public final Duration retryAfter;
+
+    public LlmHttpException(int status, Duration retryAfter, String message) {
+        super(message);
+        this.status = status;
+        this.retryAfter = retryAfter;
+    }
+
+    /** Rate limiting and server-side failures are worth retrying; other 4xx are the caller's fault. */
+    public boolean retryable() {
+        return status == 429 || status >= 500;
+    }
+
+    /** Parses a {@code Retry-After} value: delta-seconds or an HTTP date. Null if absent or malformed. */
+    static Duration parseRetryAfter(String value, Instant now) {
+        if (value == null || value.isBlank()) return null;
+        String v = value.trim();
+        try {
+            return Duration.ofSeconds(Math.max(0, Long.parseLong(v)));
+        } catch (NumberFormatException notSeconds) {
+            try {
+                Instant at = ZonedDateTime.parse(v, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+                return at.isAfter(now) ? Duration.between(now, at) : Duration.ZERO;
+            } catch (DateTimeParseException e) {
+                return null;
+            }
+        }
+    }
+}
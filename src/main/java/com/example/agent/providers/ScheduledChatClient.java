@@ -0,0 +1,197 @@
+package com.example.agent.providers;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Admission control in front of the network client. Every call passes, in order:
+ * <ol>
+ *   <li>single-flight: a request identical to one already in flight waits for that one's reply;</li>
+ *   <li>a {@link TokenBucket} holding the average request rate to the gateway quota;</li>
+ *   <li>an {@link AdaptiveLimit} on concurrent requests, shrinking on 429s and rising latency;</li>
+ *   <li>a {@link CircuitBreaker} that fails fast while the endpoint keeps failing.</li>
+ * </ol>
+ * Retryable failures (429, 5xx, transport errors) are retried with full-jitter exponential backoff,
+ * never sooner than the server's {@code Retry-After}; a {@code Retry-After} also pauses the bucket
+ * for all callers. A stream is only retried if it failed before delivering its first delta.
+ */
+public class ScheduledChatClient implements ChatClient {
+
+    private final ChatClient delegate;
+    private final TokenBucket rate;
+    private final AdaptiveLimit limit;
+    private final CircuitBreaker breaker;
+    private final int maxRetries;
+    private final long backoffBaseNanos;
+    private final long backoffCapNanos;
+    private final Map<Key, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * @param ratePerSecond  average request rate; 0 disables rate limiting
+     * @param maxConcurrency ceiling for the adaptive concurrency limit
+     * @param maxRetries     retries after the first attempt
+     */
+    public ScheduledChatClient(ChatClient delegate, double ratePerSecond, int maxConcurrency, int maxRetries) {
+        this(delegate, ratePerSecond, maxConcurrency, maxRetries, Duration.ofMillis(500), Duration.ofSeconds(30), 5, Duration.ofSeconds(30));
+    }
+
+    ScheduledChatClient(ChatClient delegate, double ratePerSecond, int maxConcurrency, int maxRetries,
+                        Duration backoffBase, Duration backoffCap, int breakerThreshold, Duration breakerOpenFor) {
+        this.delegate = delegate;
+        this.rate = new TokenBucket(ratePerSecond, Math.max(1, (int) Math.ceil(ratePerSecond)));
+        this.limit = new AdaptiveLimit(Math.min(4, maxConcurrency), maxConcurrency);
+        this.breaker = new CircuitBreaker(breakerThreshold, breakerOpenFor);
+        this.maxRetries = Math.max(0, maxRetries);
+        this.backoffBaseNanos = backoffBase.toNanos();
+        this.backoffCapNanos = backoffCap.toNanos();
+    }
+
+    @Override
+    public String chat(List<Map<String, String>> messages, double temperature) throws IOException {
+        Key key = new Key(List.copyOf(messages), temperature);
+        CompletableFuture<String> mine = new CompletableFuture<>();
+        CompletableFuture<String> leader = inFlight.putIfAbsent(key, mine);
+        if (leader != null) {
+            coalesced.incrementAndGet();
+            return ChatClient.await(leader);
+        }
+        try {
+            String r = execute(() -> delegate.chat(messages, temperature), null);
+            mine.complete(r);
+            return r;
+        } catch (Throwable e) { // an Error too, or the followers would wait forever
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    @Override
+    public CompletableFuture<String> chatStream(List<Map<String, String>> messages, double temperature, Consumer<String> onDelta) {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        Thread.ofVirtual().name("llm-stream").start(() -> {
+            try {
+                result.complete(stream(messages, temperature, onDelta));
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            }
+        });
+        return result;
+    }
+
+    private String stream(List<Map<String, String>> messages, double temperature, Consumer<String> onDelta) throws IOException {
+        Key key = new Key(List.copyOf(messages), temperature);
+        CompletableFuture<String> mine = new CompletableFuture<>();
+        CompletableFuture<String> leader = inFlight.putIfAbsent(key, mine);
+        if (leader != null) {
+            // the leader's deltas went to its own consumer; a follower gets the whole reply at once
+            coalesced.incrementAndGet();
+            String r = ChatClient.await(leader);
+            onDelta.accept(r);
+            return r;
+        }
+        AtomicBoolean started = new AtomicBoolean();
+        Consumer<String> tracking = d -> {
+            started.set(true);
+            onDelta.accept(d);
+        };
+        try {
+            String r = execute(() -> ChatClient.await(delegate.chatStream(messages, temperature, tracking)), started);
+            mine.complete(r);
+            return r;
+        } catch (Throwable e) { // an Error too, or the followers would wait forever
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    private interface Attempt {
+        String call() throws IOException;
+    }
+
+    /** Runs {@code attempt} under admission control, retrying while that is safe; {@code started} may be null. */
+    private String execute(Attempt attempt, AtomicBoolean started) throws IOException {
+        for (int n = 0; ; n++) {
+            rate.acquire();
+            limit.acquire();
+            try {
+                breaker.check();
+            } catch (IOException open) {
+                limit.release();
+                rejected.incrementAndGet();
+                throw open;
+            }
+            calls.incrementAndGet();
+            long t0 = System.nanoTime();
+            IOException failure;
+            try {
+                String r = attempt.call();
+                limit.release(System.nanoTime() - t0, false);
+                breaker.onSuccess();
+                return r;
+            } catch (IOException e) {
+                failure = e;
+            } catch (RuntimeException | Error e) {
+                limit.release();
+                breaker.onSuccess(); // not the endpoint's fault
+                throw e;
+            }
+
+            LlmHttpException http = failure instanceof LlmHttpException h ? h : null;
+            boolean retryable = http != null ? http.retryable() : !(failure instanceof InterruptedIOException && Thread.currentThread().isInterrupted());
+            if (http != null) {
+                limit.release(System.nanoTime() - t0, http.status == 429);
+            } else {
+                limit.release();
+            }
+            if (retryable) breaker.onFailure(); else breaker.onSuccess();
+            if (!retryable || n >= maxRetries || (started != null && started.get())) throw failure;
+
+            long delay = backoff(n);
+            if (http != null && http.retryAfter != null) {
+                delay = Math.max(delay, http.retryAfter.toNanos());
+                rate.pause(http.retryAfter);
+            }
+            retries.incrementAndGet();
+            Sleeper.sleep(delay);
+        }
+    }
+
+    /** Full jitter: uniform in [0, min(cap, base * 2^n)]. */
+    private long backoff(int n) {
+        long ceiling = n >= 30 ? backoffCapNanos : Math.min(backoffCapNanos, backoffBaseNanos << n);
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    public long calls() { return calls.get(); }
+
+    public long retries() { return retries.get(); }
+
+    public long coalesced() { return coalesced.get(); }
+
+    @Override
+    public String toString() {
+        return "llmScheduler calls=" + calls.get() + " retries=" + retries.get() + " coalesced=" + coalesced.get()
+                + " rejected=" + rejected.get() + " limit=" + limit.limit() + " latencyFloorMs=" + limit.floorMillis()
+                + " breaker=" + breaker.state();
+    }
+
+    private record Key(List<Map<String, String>> messages, double temperature) {}
+}
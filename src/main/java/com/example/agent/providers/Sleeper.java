@@ -0,0 +1,19 @@
+package com.example.agent.providers;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+final class Sleeper {
+    private Sleeper() {}
+
+    /** Sleeps, turning an interrupt into the IOException the chat callers already handle. */
+    static void sleep(long nanos) throws InterruptedIOException {
+        if (nanos <= 0) return;
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for the LLM endpoint");
+        }
+    }
+}
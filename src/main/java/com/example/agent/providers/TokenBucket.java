@@ -0,0 +1,68 @@
+package com.example.agent.providers;
+
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Token-bucket rate limiter: {@code ratePerSecond} permits on average, up to {@code burst} at once.
+ * A rate of zero or less disables it. {@link #pause} stops all issuing for a while, which is how
+ * a server's {@code Retry-After} is applied to every caller and not just the one that got it.
+ */
+final class TokenBucket {
+    private final double ratePerNano;
+    private final double burst;
+    private final ReentrantLock lock = new ReentrantLock();
+    private double tokens;
+    private long last = System.nanoTime();
+    private volatile long pausedUntil = last; // also read without the lock on the unlimited fast path
+
+    TokenBucket(double ratePerSecond, int burst) {
+        this.ratePerNano = ratePerSecond / 1e9;
+        this.burst = Math.max(1, burst);
+        this.tokens = this.burst;
+    }
+
+    /** Blocks until a permit is available. */
+    void acquire() throws InterruptedIOException {
+        if (ratePerNano <= 0 && pausedUntil - System.nanoTime() <= 0) return;
+        while (true) {
+            long wait;
+            lock.lock();
+            try {
+                long now = System.nanoTime();
+                if (pausedUntil - now > 0) {
+                    wait = pausedUntil - now;
+                } else if (ratePerNano <= 0) {
+                    return;
+                } else {
+                    tokens = Math.min(burst, tokens + (now - last) * ratePerNano);
+                    last = now;
+                    if (tokens >= 1) {
+                        tokens -= 1;
+                        return;
+                    }
+                    wait = (long) Math.ceil((1 - tokens) / ratePerNano);
+                }
+            } finally {
+                lock.unlock();
+            }
+            Sleeper.sleep(wait);
+        }
+    }
+
+    /** Issues nothing for {@code d}; the bucket restarts empty so callers do not stampede afterwards. */
+    void pause(Duration d) {
+        lock.lock();
+        try {
+            long until = System.nanoTime() + d.toNanos();
+            if (until - pausedUntil > 0) {
+                pausedUntil = until;
+                tokens = 0;
+                last = until;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.agent.rag;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Append-only store of document bodies: {@code docs.dat} holds the UTF-8 bytes back to back,
+ * {@code docs.off} one long start offset per document. Both are read through memory maps,
+ * so stored bodies stay off-heap until a caller asks for one. A read-only store (opened
+ * without the index's write lock) never modifies the files and ignores bytes past the
+ * manifest's lengths, which may be another process's append in progress.
+ */
+final class DocStore implements AutoCloseable {
+
+    private final Path dataFile;
+    private final Path offsetsFile;
+    private final FileChannel data;
+    private final FileChannel offsets;
+    private MappedFile dataMap;
+    private MappedFile offMap;
+    private int count;
+    private long bytes;
+
+    private DocStore(Path dir, int count, long bytes, boolean writable) throws IOException {
+        this.dataFile = dir.resolve("docs.dat");
+        this.offsetsFile = dir.resolve("docs.off");
+        if (writable) {
+            this.data = FileChannel.open(dataFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.offsets = FileChannel.open(offsetsFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } else {
+            this.data = null;
+            this.offsets = null;
+        }
+        long dataSize = writable ? data.size() : Files.exists(dataFile) ? Files.size(dataFile) : 0;
+        long offSize = writable ? offsets.size() : Files.exists(offsetsFile) ? Files.size(offsetsFile) : 0;
+        if (dataSize < bytes || offSize < 8L * count) {
+            close();
+            throw new IOException("Document store in " + dir + " is shorter than its manifest");
+        }
+        if (writable) {
+            // the writer holds the index lock, so anything past the committed lengths is a half-written append from a crash
+            data.truncate(bytes);
+            offsets.truncate(8L * count);
+        }
+        this.count = count;
+        this.bytes = bytes;
+        remap();
+    }
+
+    /** Opens the store with the document count and byte length recorded in the index manifest. */
+    static DocStore open(Path dir, int count, long bytes, boolean writable) throws IOException {
+        return new DocStore(dir, count, bytes, writable);
+    }
+
+    int count() { return count; }
+
+    long bytes() { return bytes; }
+
+    String get(int id) {
+        long start = offMap.getLong(8L * id);
+        long end = id + 1 < count ? offMap.getLong(8L * (id + 1)) : bytes;
+        byte[] b = new byte[(int) (end - start)];
+        dataMap.get(start, b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    /** Appends and fsyncs {@code docs}; they become visible to {@link #get} immediately. */
+    void append(List<String> docs) throws IOException {
+        if (data == null) throw new IllegalStateException("Document store is read-only");
+        ByteBuffer off = ByteBuffer.allocate(8 * docs.size());
+        long pos = bytes;
+        for (String d : docs) {
+            off.putLong(pos);
+            ByteBuffer b = ByteBuffer.wrap(d.getBytes(StandardCharsets.UTF_8));
+            while (b.hasRemaining()) pos += data.write(b, pos);
+        }
+        off.flip();
+        long offPos = 8L * count;
+        while (off.hasRemaining()) offPos += offsets.write(off, offPos);
+        data.force(false);
+        offsets.force(false);
+        count += docs.size();
+        bytes = pos;
+        remap();
+    }
+
+    private void remap() throws IOException {
+        dataMap = MappedFile.map(dataFile, bytes);
+        offMap = MappedFile.map(offsetsFile, 8L * count);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (data != null) data.close();
+        if (offsets != null) offsets.close();
+    }
+}
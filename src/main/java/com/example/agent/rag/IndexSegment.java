@@ -0,0 +1,196 @@
+package com.example.agent.rag;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Immutable, memory-mapped slice of the inverted index.
+ * <pre>
+ * header   int magic, int version, int termCount, int reserved
+ * terms    termCount x (int blobOffset, int length, long postingsOffset, int df, int maxTf), sorted by UTF-8 bytes
+ * blob     term bytes, padded to 4
+ * postings df x (int docId, int tf) per term, doc ids ascending and global
+ * </pre>
+ */
+final class IndexSegment {
+
+    private static final int MAGIC = 0x534E4958; // "SNIX"
+    private static final int VERSION = 1;
+    private static final int HEADER = 16;
+    private static final int ENTRY = 24;
+
+    final Path file;
+    private final MappedFile map;
+    private final int termCount;
+    private final long blobStart;
+
+    private IndexSegment(Path file, MappedFile map) throws IOException {
+        this.file = file;
+        this.map = map;
+        if (map.length < HEADER || map.getInt(0) != MAGIC || map.getInt(4) != VERSION) {
+            throw new IOException("Not an index segment: " + file);
+        }
+        this.termCount = map.getInt(8);
+        this.blobStart = HEADER + (long) termCount * ENTRY;
+    }
+
+    static IndexSegment open(Path file) throws IOException {
+        return new IndexSegment(file, MappedFile.map(file, Files.size(file)));
+    }
+
+    /** Size of the segment file. */
+    long bytes() {
+        return map.length;
+    }
+
+    /** Term entry index, or -1 if the segment does not contain {@code term}. */
+    int find(byte[] term) {
+        int lo = 0, hi = termCount - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = compare(mid, term);
+            if (c < 0) lo = mid + 1;
+            else if (c > 0) hi = mid - 1;
+            else return mid;
+        }
+        return -1;
+    }
+
+    /** Largest term frequency in the term's postings, the bound that lets queries skip documents. */
+    int maxTf(int entry) {
+        return map.getInt(HEADER + (long) entry * ENTRY + 20);
+    }
+
+    int df(int entry) {
+        return map.getInt(HEADER + (long) entry * ENTRY + 16);
+    }
+
+    long postings(int entry) {
+        return map.getLong(HEADER + (long) entry * ENTRY + 8);
+    }
+
+    int doc(long postings, int i) {
+        return map.getInt(postings + 8L * i);
+    }
+
+    int tf(long postings, int i) {
+        return map.getInt(postings + 8L * i + 4);
+    }
+
+    private byte[] term(int entry) {
+        long e = HEADER + (long) entry * ENTRY;
+        byte[] t = new byte[map.getInt(e + 4)];
+        map.get(blobStart + map.getInt(e), t);
+        return t;
+    }
+
+    private void postingsInto(int entry, int[] docs, int[] tfs, int at) {
+        long base = postings(entry);
+        int df = df(entry);
+        for (int i = 0; i < df; i++) {
+            docs[at + i] = doc(base, i);
+            tfs[at + i] = tf(base, i);
+        }
+    }
+
+    /**
+     * Writes the union of two segments to {@code file}. {@code older} must hold lower doc ids
+     * than {@code newer}, as adjacent segments do, so concatenated postings stay ascending.
+     * Both are read into memory, so a merge needs heap for their combined postings.
+     */
+    static void merge(Path file, IndexSegment older, IndexSegment newer) throws IOException {
+        List<TermPostings> terms = new ArrayList<>(Math.max(older.termCount, newer.termCount));
+        int i = 0, j = 0;
+        while (i < older.termCount || j < newer.termCount) {
+            int c = i == older.termCount ? 1 : j == newer.termCount ? -1 : Arrays.compareUnsigned(older.term(i), newer.term(j));
+            int dfA = c <= 0 ? older.df(i) : 0, dfB = c >= 0 ? newer.df(j) : 0;
+            int[] docs = new int[dfA + dfB], tfs = new int[dfA + dfB];
+            if (c <= 0) older.postingsInto(i, docs, tfs, 0);
+            if (c >= 0) newer.postingsInto(j, docs, tfs, dfA);
+            terms.add(new TermPostings(c <= 0 ? older.term(i) : newer.term(j), docs, tfs, docs.length));
+            if (c <= 0) i++;
+            if (c >= 0) j++;
+        }
+        write(file, terms);
+    }
+
+    private int compare(int entry, byte[] term) {
+        long e = HEADER + (long) entry * ENTRY;
+        long off = blobStart + map.getInt(e);
+        int len = map.getInt(e + 4);
+        int n = Math.min(len, term.length);
+        for (int i = 0; i < n; i++) {
+            int c = Integer.compare(map.get(off + i) & 0xFF, term[i] & 0xFF);
+            if (c != 0) return c;
+        }
+        return Integer.compare(len, term.length);
+    }
+
+    /** In-memory postings of one term, as handed over by the indexer's write buffer. */
+    static final class TermPostings {
+        final byte[] term;
+        final int[] docs;
+        final int[] tfs;
+        final int size;
+
+        TermPostings(String term, int[] docs, int[] tfs, int size) {
+            this(term.getBytes(StandardCharsets.UTF_8), docs, tfs, size);
+        }
+
+        TermPostings(byte[] term, int[] docs, int[] tfs, int size) {
+            this.term = term;
+            this.docs = docs;
+            this.tfs = tfs;
+            this.size = size;
+        }
+    }
+
+    /** Writes and fsyncs a segment; {@code terms} may be in any order. */
+    static void write(Path file, List<TermPostings> terms) throws IOException {
+        TermPostings[] sorted = terms.toArray(new TermPostings[0]);
+        Arrays.sort(sorted, (a, b) -> Arrays.compareUnsigned(a.term, b.term));
+
+        long blobLen = 0;
+        for (TermPostings t : sorted) blobLen += t.term.length;
+        long blobPadded = (blobLen + 3) & ~3L;
+        long postingsStart = HEADER + (long) sorted.length * ENTRY + blobPadded;
+
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(ch), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(sorted.length);
+            out.writeInt(0);
+            long blobOff = 0, post = postingsStart;
+            for (TermPostings t : sorted) {
+                out.writeInt((int) blobOff);
+                out.writeInt(t.term.length);
+                out.writeLong(post);
+                out.writeInt(t.size);
+                int maxTf = 0;
+                for (int i = 0; i < t.size; i++) maxTf = Math.max(maxTf, t.tfs[i]);
+                out.writeInt(maxTf);
+                blobOff += t.term.length;
+                post += 8L * t.size;
+            }
+            for (TermPostings t : sorted) out.write(t.term);
+            for (long i = blobLen; i < blobPadded; i++) out.write(0);
+            for (TermPostings t : sorted) {
+                for (int i = 0; i < t.size; i++) {
+                    out.writeInt(t.docs[i]);
+                    out.writeInt(t.tfs[i]);
+                }
+            }
+            out.flush();
+            ch.force(true);
+        }
+    }
+}
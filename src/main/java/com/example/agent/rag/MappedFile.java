@@ -0,0 +1,61 @@
+package com.example.agent.rag;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read-only memory map of a file prefix of any size, split into 1 GiB windows.
+ * Callers only read ints at 4-byte aligned positions (never straddling a window) and bytes.
+ */
+final class MappedFile {
+
+    private static final int CHUNK_BITS = 30;
+    private static final long CHUNK = 1L << CHUNK_BITS;
+
+    private final MappedByteBuffer[] chunks;
+    final long length;
+
+    private MappedFile(MappedByteBuffer[] chunks, long length) {
+        this.chunks = chunks;
+        this.length = length;
+    }
+
+    static MappedFile map(Path file, long length) throws IOException {
+        int n = (int) ((length + CHUNK - 1) >>> CHUNK_BITS);
+        MappedByteBuffer[] chunks = new MappedByteBuffer[n];
+        if (n > 0) {
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+                for (int i = 0; i < n; i++) {
+                    long start = i * CHUNK;
+                    chunks[i] = ch.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK, length - start));
+                }
+            }
+        }
+        return new MappedFile(chunks, length);
+    }
+
+    int getInt(long pos) {
+        return chunks[(int) (pos >>> CHUNK_BITS)].getInt((int) (pos & (CHUNK - 1)));
+    }
+
+    long getLong(long pos) {
+        return ((long) getInt(pos) << 32) | (getInt(pos + 4) & 0xFFFFFFFFL);
+    }
+
+    byte get(long pos) {
+        return chunks[(int) (pos >>> CHUNK_BITS)].get((int) (pos & (CHUNK - 1)));
+    }
+
+    void get(long pos, byte[] dst) {
+        for (int i = 0; i < dst.length; ) {
+            MappedByteBuffer c = chunks[(int) ((pos + i) >>> CHUNK_BITS)];
+            int off = (int) ((pos + i) & (CHUNK - 1));
+            int n = Math.min(dst.length - i, c.capacity() - off);
+            c.get(off, dst, i, n);
+            i += n;
+        }
+    }
+}
@@ -1,57 +1,611 @@
 package com.example.agent.rag;
 
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.regex.Pattern;
 
-/** Extremely simple in-memory TF-IDF index for code snippets. */
-public class SimpleIndexer {
-    private static final Pattern TOKEN = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*|\\S");
+/**
+ * Simple TF-IDF index for code snippets. Thread-safe.
+ * Terms are words and numbers (punctuation, which nearly every snippet contains, is not
+ * indexed), interned to int ids; each term keeps a postings list of (doc id, tf) in primitive
+ * arrays and its largest tf. Queries walk only the postings of their own terms, term at a
+ * time into per-document accumulators, then keep the best {@code k} in a bounded min-heap.
+ * MaxScore pruning on each term's bound ({@code weight x maxTf}) stops admitting documents once
+ * the terms left cannot lift a new one into the top {@code k}, and then only looks up the
+ * remaining candidates in the rest of the postings.
+ * <p>
+ * {@link #open(Path)} makes the index persistent: new documents collect in an in-memory
+ * buffer that {@link #flush()} appends to a memory-mapped document store and writes out as
+ * an immutable {@link IndexSegment}. Opening an existing index only maps its files, so
+ * startup does not depend on corpus size. {@code new SimpleIndexer()} stays purely in memory.
+ * <p>
+ * One open index per directory holds {@code write.lock} and is the only one that appends,
+ * merges segments, or repairs what a crash left behind. Others (in this or another process)
+ * open read-only; they see what the manifest listed at open time and never touch the files.
+ */
+public class SimpleIndexer implements Closeable {
+    private static final Pattern TOKEN = Pattern.compile("[\\p{L}_][\\p{L}\\p{N}_]*|\\p{N}+");
+    // slack for summation order when comparing scores against bounds
+    private static final double EPS = 1e-9;
+    private static final int FLUSH_DOCS = 10_000;
+    private static final long FLUSH_BYTES = 32L << 20;
 
+    // canonical index directories whose write lock this JVM holds
+    private static final Set<String> WRITERS = ConcurrentHashMap.newKeySet();
+
+    private final Path dir;
+    private final String lockKey;
+    private final FileLock writeLock;
+    private final DocStore store;
+    private final List<IndexSegment> segments = new ArrayList<>();
+    private int nextSegment;
+
+    // write buffer: documents not yet flushed (all of them for an in-memory index)
     private final List<String> docs = new ArrayList<>();
-    private final List<Map<String, Integer>> termFreq = new ArrayList<>();
-    private final Map<String, Integer> docFreq = new HashMap<>();
+    private final Map<String, Integer> termIds = new HashMap<>();
+    private final List<Postings> postings = new ArrayList<>();
+    private long bufferedBytes;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // one per query running at the same time, so accumulator arrays are not reallocated per query
+    private final Queue<Scratch> scratch = new ConcurrentLinkedQueue<>();
+
+    public SimpleIndexer() {
+        this.dir = null;
+        this.lockKey = null;
+        this.writeLock = null;
+        this.store = null;
+    }
+
+    private SimpleIndexer(Path dir) throws IOException {
+        this.dir = dir;
+        Files.createDirectories(dir);
+        this.lockKey = dir.toRealPath().toString();
+        this.writeLock = acquireWriteLock(dir, lockKey);
+        try {
+            this.store = writeLock != null ? openAsWriter() : openAsReader();
+        } catch (IOException | RuntimeException e) {
+            releaseWriteLock();
+            throw e;
+        }
+    }
+
+    private DocStore openAsWriter() throws IOException {
+        Properties manifest = readManifest();
+        DocStore docs = DocStore.open(dir,
+                Integer.parseInt(manifest.getProperty("docs", "0")),
+                Long.parseLong(manifest.getProperty("docBytes", "0")), true);
+        this.nextSegment = Integer.parseInt(manifest.getProperty("nextSegment", "0"));
+        Set<String> live = openSegments(manifest);
+        // only the lock holder writes segments, so unlisted ones are left over from a crash or merge
+        try (var files = Files.list(dir)) {
+            for (Path p : (Iterable<Path>) files::iterator) {
+                String name = p.getFileName().toString();
+                if (name.startsWith("seg-") && !live.contains(name)) Files.deleteIfExists(p);
+            }
+        }
+        return docs;
+    }
+
+    private DocStore openAsReader() throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            Properties manifest = readManifest();
+            try {
+                segments.clear();
+                openSegments(manifest);
+                return DocStore.open(dir,
+                        Integer.parseInt(manifest.getProperty("docs", "0")),
+                        Long.parseLong(manifest.getProperty("docBytes", "0")), false);
+            } catch (NoSuchFileException e) {
+                if (attempt == 3) throw e; // the writer merged a segment away after we read the manifest
+            }
+        }
+    }
+
+    private Properties readManifest() throws IOException {
+        Properties manifest = new Properties();
+        Path mf = dir.resolve("manifest.properties");
+        if (Files.exists(mf)) {
+            try (Reader r = Files.newBufferedReader(mf, StandardCharsets.UTF_8)) {
+                manifest.load(r);
+            }
+        }
+        return manifest;
+    }
+
+    private Set<String> openSegments(Properties manifest) throws IOException {
+        Set<String> live = new HashSet<>();
+        for (String name : manifest.getProperty("segments", "").split(",")) {
+            if (name.isBlank()) continue;
+            segments.add(IndexSegment.open(dir.resolve(name)));
+            live.add(name);
+        }
+        return live;
+    }
+
+    /**
+     * Exclusive lock on {@code write.lock}, or null if another process or another open index in
+     * this JVM holds it. The in-JVM check comes first because closing any channel on a locked
+     * file may release the JVM's lock on it.
+     */
+    private static FileLock acquireWriteLock(Path dir, String key) throws IOException {
+        if (!WRITERS.add(key)) return null;
+        FileChannel ch = null;
+        try {
+            ch = FileChannel.open(dir.resolve("write.lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            FileLock lock = ch.tryLock();
+            if (lock != null) return lock;
+            ch.close();
+        } catch (IOException | RuntimeException e) {
+            if (ch != null) ch.close();
+            WRITERS.remove(key);
+            throw e;
+        }
+        WRITERS.remove(key);
+        return null;
+    }
+
+    private void releaseWriteLock() throws IOException {
+        if (writeLock == null) return;
+        try {
+            writeLock.channel().close();
+        } finally {
+            WRITERS.remove(lockKey);
+        }
+    }
+
+    /**
+     * Whether this instance holds the index's write lock. A read-only index still accepts
+     * documents, but keeps them in memory: they are searchable here and never persisted.
+     */
+    public boolean writable() {
+        return writeLock != null;
+    }
+
+    /** Opens (or creates) a persistent index in {@code dir}. */
+    public static SimpleIndexer open(Path dir) throws IOException {
+        return new SimpleIndexer(dir);
+    }
 
     public int addDocument(String content) {
-        int id = docs.size();
-        docs.add(content);
-        Map<String, Integer> tf = new HashMap<>();
+        Map<String, int[]> tf = new HashMap<>();
         var m = TOKEN.matcher(content);
-        Set<String> seen = new HashSet<>();
-        while (m.find()) {
-            String t = m.group();
-            tf.put(t, tf.getOrDefault(t, 0) + 1);
-            if (!seen.contains(t)) {
-                docFreq.put(t, docFreq.getOrDefault(t, 0) + 1);
-                seen.add(t);
+        while (m.find()) tf.computeIfAbsent(m.group(), t -> new int[1])[0]++;
+
+        lock.writeLock().lock();
+        try {
+            int id = persistedDocs() + docs.size();
+            docs.add(content);
+            bufferedBytes += content.length() * 2L;
+            for (var e : tf.entrySet()) {
+                Integer termId = termIds.get(e.getKey());
+                if (termId == null) {
+                    termId = postings.size();
+                    termIds.put(e.getKey(), termId);
+                    postings.add(new Postings());
+                }
+                postings.get(termId).add(id, e.getValue()[0]);
+            }
+            if (writable() && (docs.size() >= FLUSH_DOCS || bufferedBytes >= FLUSH_BYTES)) flushLocked();
+            return id;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Persists buffered documents as a new segment. No-op for an in-memory or read-only index. */
+    public void flush() throws IOException {
+        lock.writeLock().lock();
+        try {
+            flushLocked();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void flushLocked() throws IOException {
+        if (!writable() || docs.isEmpty()) return;
+        List<IndexSegment.TermPostings> terms = new ArrayList<>(termIds.size());
+        for (var e : termIds.entrySet()) {
+            Postings p = postings.get(e.getValue());
+            terms.add(new IndexSegment.TermPostings(e.getKey(), p.docs, p.tfs, p.size));
+        }
+        String name = "seg-" + nextSegment++ + ".idx";
+        Path segFile = dir.resolve(name);
+        IndexSegment.write(segFile, terms);
+        store.append(docs);
+        segments.add(IndexSegment.open(segFile));
+        writeManifest();
+
+        docs.clear();
+        termIds.clear();
+        postings.clear();
+        bufferedBytes = 0;
+        mergeSegments();
+    }
+
+    /**
+     * Merges the two newest segments while the newer is at least as large as the older, like a
+     * binary counter: with flushes of similar size an index of {@code n} flushes keeps about
+     * {@code log2(n)} segments, and each posting is rewritten about that many times.
+     */
+    private void mergeSegments() throws IOException {
+        while (segments.size() >= 2) {
+            IndexSegment newer = segments.get(segments.size() - 1), older = segments.get(segments.size() - 2);
+            if (newer.bytes() < older.bytes()) return;
+            Path merged = dir.resolve("seg-" + nextSegment++ + ".idx");
+            IndexSegment.merge(merged, older, newer);
+            segments.remove(segments.size() - 1);
+            segments.set(segments.size() - 1, IndexSegment.open(merged));
+            writeManifest();
+            for (IndexSegment old : List.of(older, newer)) {
+                try {
+                    Files.deleteIfExists(old.file);
+                } catch (IOException stillMapped) {
+                    // e.g. mapped on Windows; unlisted, so the next writer open deletes it
+                }
             }
         }
-        termFreq.add(tf);
-        return id;
+    }
+
+    private void writeManifest() throws IOException {
+        StringJoiner names = new StringJoiner(",");
+        for (IndexSegment seg : segments) names.add(seg.file.getFileName().toString());
+        Properties manifest = new Properties();
+        manifest.setProperty("docs", Integer.toString(store.count()));
+        manifest.setProperty("docBytes", Long.toString(store.bytes()));
+        manifest.setProperty("nextSegment", Integer.toString(nextSegment));
+        manifest.setProperty("segments", names.toString());
+        Path tmp = dir.resolve("manifest.properties.tmp");
+        try (var out = new FileOutputStream(tmp.toFile())) {
+            manifest.store(out, "SimpleIndexer");
+            out.getFD().sync();
+        }
+        Files.move(tmp, dir.resolve("manifest.properties"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+            if (store != null) store.close();
+        } finally {
+            releaseWriteLock();
+        }
     }
 
     public List<String> topKSimilar(String query, int k) {
-        var qtf = new HashMap<String, Integer>();
+        Map<String, int[]> qtf = new HashMap<>();
         var m = TOKEN.matcher(query);
-        while (m.find()) qtf.put(m.group(), qtf.getOrDefault(m.group(), 0) + 1);
+        while (m.find()) qtf.computeIfAbsent(m.group(), t -> new int[1])[0]++;
 
-        int N = docs.size();
-        List<int[]> order = new ArrayList<>();
-        for (int i = 0; i < docs.size(); i++) {
-            double score = 0.0;
+        lock.readLock().lock();
+        try {
+            int n = persistedDocs() + docs.size();
+            List<Cursor> cursors = new ArrayList<>();
+            int terms = 0;
             for (var e : qtf.entrySet()) {
-                String t = e.getKey();
-                int q = e.getValue();
-                int tf = termFreq.get(i).getOrDefault(t, 0);
-                int df = docFreq.getOrDefault(t, 0);
+                int first = cursors.size();
+                int df = 0;
+                byte[] term = null;
+                for (IndexSegment s : segments) {
+                    if (term == null) term = e.getKey().getBytes(StandardCharsets.UTF_8);
+                    int entry = s.find(term);
+                    if (entry < 0) continue;
+                    Cursor c = new Cursor(s, s.postings(entry), null, s.df(entry), s.maxTf(entry));
+                    df += c.size;
+                    cursors.add(c);
+                }
+                Integer termId = termIds.get(e.getKey());
+                if (termId != null) {
+                    Postings p = postings.get(termId);
+                    cursors.add(new Cursor(null, 0, p, p.size, p.maxTf));
+                    df += p.size;
+                }
                 if (df == 0) continue;
-                double idf = Math.log(1 + (double)N / df);
-                score += q * tf * idf;
+                double weight = e.getValue()[0] * Math.log(1 + (double) n / df);
+                for (int i = first; i < cursors.size(); i++) {
+                    Cursor c = cursors.get(i);
+                    c.term = terms;
+                    c.weight = weight;
+                    c.bound = weight * c.maxTf;
+                }
+                terms++;
+            }
+
+            TopK top = new TopK(Math.min(k, n));
+            if (top.capacity > 0 && terms > 0) {
+                Scratch s = scratch.poll();
+                try {
+                    if (s == null) s = new Scratch();
+                    score(cursors, terms, n, top, s);
+                } finally {
+                    if (s != null) scratch.offer(s);
+                }
             }
-            order.add(new int[]{i, (int)(score * 1000)});
+
+            int[] best = top.sortedDocs();
+            List<String> res = new ArrayList<>(top.capacity);
+            for (int d : best) res.add(document(d));
+            // fewer matches than k: pad with unscored documents in insertion order, as before
+            if (res.size() < top.capacity) {
+                Set<Integer> taken = new HashSet<>();
+                for (int d : best) taken.add(d);
+                for (int d = 0; d < n && res.size() < top.capacity; d++) {
+                    if (!taken.contains(d)) res.add(document(d));
+                }
+            }
+            return res;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Term-at-a-time scoring with MaxScore pruning (Turtle and Flood). Terms go in order of
+     * their bound ({@code weight x maxTf}), adding into one accumulator per document. Once the
+     * bounds of the terms still to come sum below the k-th best accumulator, a document not seen
+     * yet cannot enter the top k: from then on only the surviving candidates are looked up in the
+     * remaining postings, and candidates that can no longer reach the k-th score are dropped.
+     * Every document sums its terms in the same order, so equal scores tie exactly.
+     */
+    private static void score(List<Cursor> cursors, int terms, int n, TopK top, Scratch s) {
+        List<List<Cursor>> byTerm = new ArrayList<>(terms);
+        double[] bound = new double[terms];
+        for (int t = 0; t < terms; t++) byTerm.add(new ArrayList<>(2));
+        for (Cursor c : cursors) {
+            byTerm.get(c.term).add(c);
+            bound[c.term] = Math.max(bound[c.term], c.bound); // one term's cursors cover disjoint segments
+        }
+        Integer[] order = new Integer[terms];
+        for (int t = 0; t < terms; t++) order[t] = t;
+        Arrays.sort(order, (a, b) -> bound[a] != bound[b] ? Double.compare(bound[b], bound[a]) : Integer.compare(a, b));
+        double[] rest = new double[terms + 1]; // rest[i]: bounds of the terms after the i-th together
+        for (int t = terms - 1; t >= 0; t--) rest[t] = rest[t + 1] + bound[order[t]];
+
+        if (s.acc.length < n) s.acc = new double[n];
+        double[] acc = s.acc;
+        int[] docs = s.docs;
+        int count = 0;
+        boolean open = true; // unseen documents may still enter
+        double best = 0;
+        for (int t = 0; t < terms; t++) {
+            for (Cursor c : byTerm.get(order[t])) {
+                if (open) {
+                    for (; c.pos < c.size; c.pos++) {
+                        int d = c.doc();
+                        double v = acc[d];
+                        if (v == 0) { // contributions are positive, so 0 means unseen
+                            if (count == docs.length) docs = Arrays.copyOf(docs, Math.max(1024, count * 2));
+                            docs[count++] = d;
+                        }
+                        acc[d] = v += c.weight * c.tf();
+                        if (v > best) best = v;
+                    }
+                } else if (count < c.size) {
+                    for (int i = 0; i < count && c.pos < c.size; i++) { // candidates are ascending here
+                        int d = docs[i];
+                        c.advance(d);
+                        if (c.pos < c.size && c.doc() == d) acc[d] += c.weight * c.tf();
+                    }
+                } else {
+                    for (; c.pos < c.size; c.pos++) {
+                        int d = c.doc();
+                        if (acc[d] != 0) acc[d] += c.weight * c.tf();
+                    }
+                }
+            }
+            double remaining = rest[t + 1];
+            // the k-th score is at most the best one, so there is nothing to prune before that
+            if (count < top.capacity || remaining * (1 + EPS) >= best) continue;
+            double kth = kth(acc, docs, count, top.capacity);
+            if (remaining * (1 + EPS) >= kth) continue;
+            int kept = 0;
+            for (int i = 0; i < count; i++) {
+                int d = docs[i];
+                if ((acc[d] + remaining) * (1 + EPS) >= kth) docs[kept++] = d;
+                else acc[d] = 0;
+            }
+            count = kept;
+            if (open) Arrays.sort(docs, 0, count);
+            open = false;
+        }
+        for (int i = 0; i < count; i++) {
+            int d = docs[i];
+            top.offer(d, acc[d]);
+            acc[d] = 0; // hand the accumulators back zeroed
+        }
+        s.docs = docs;
+    }
+
+    /** The {@code k}-th largest accumulator among {@code docs[0..count)}. */
+    private static double kth(double[] acc, int[] docs, int count, int k) {
+        double[] heap = new double[k]; // min-heap of the k largest so far
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            double v = acc[docs[i]];
+            if (size < k) {
+                int j = size++;
+                heap[j] = v;
+                while (j > 0 && heap[(j - 1) / 2] > heap[j]) {
+                    double p = heap[(j - 1) / 2]; heap[(j - 1) / 2] = heap[j]; heap[j] = p;
+                    j = (j - 1) / 2;
+                }
+            } else if (v > heap[0]) {
+                heap[0] = v;
+                for (int j = 0; ; ) {
+                    int l = 2 * j + 1, r = l + 1, min = j;
+                    if (l < k && heap[l] < heap[min]) min = l;
+                    if (r < k && heap[r] < heap[min]) min = r;
+                    if (min == j) break;
+                    double p = heap[min]; heap[min] = heap[j]; heap[j] = p;
+                    j = min;
+                }
+            }
+        }
+        return heap[0];
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return persistedDocs() + docs.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int persistedDocs() {
+        return store == null ? 0 : store.count();
+    }
+
+    private String document(int id) {
+        int persisted = persistedDocs();
+        return id < persisted ? store.get(id) : docs.get(id - persisted);
+    }
+
+    /** Position in one term's postings, either in a mapped segment or in the write buffer. */
+    private static final class Cursor {
+        final IndexSegment seg;
+        final long base;
+        final Postings mem;
+        final int size;
+        final int maxTf;
+        int term; // ordinal of the query term
+        double weight;
+        double bound;
+        int pos;
+
+        Cursor(IndexSegment seg, long base, Postings mem, int size, int maxTf) {
+            this.seg = seg;
+            this.base = base;
+            this.mem = mem;
+            this.size = size;
+            this.maxTf = maxTf;
+        }
+
+        int doc() { return docAt(pos); }
+
+        int tf() { return seg != null ? seg.tf(base, pos) : mem.tfs[pos]; }
+
+        private int docAt(int i) { return seg != null ? seg.doc(base, i) : mem.docs[i]; }
+
+        /** Moves to the first posting at or after {@code target}: galloping, then binary search. */
+        void advance(int target) {
+            if (pos >= size || docAt(pos) >= target) return;
+            int lo = pos, hi = pos + 1;
+            for (int step = 1; hi < size && docAt(hi) < target; step <<= 1) {
+                lo = hi;
+                hi = lo + step;
+            }
+            hi = Math.min(hi, size);
+            while (lo + 1 < hi) { // docAt(lo) < target, and docAt(hi) >= target unless hi == size
+                int mid = (lo + hi) >>> 1;
+                if (docAt(mid) < target) lo = mid;
+                else hi = mid;
+            }
+            pos = hi;
+        }
+    }
+
+    /** Per-document accumulators for one query at a time, zeroed again after use. */
+    private static final class Scratch {
+        double[] acc = new double[0];
+        int[] docs = new int[0];
+    }
+
+    /** Doc ids with term frequencies, ascending by doc id. */
+    private static final class Postings {
+        int[] docs = new int[2];
+        int[] tfs = new int[2];
+        int size;
+        int maxTf;
+
+        void add(int doc, int tf) {
+            maxTf = Math.max(maxTf, tf);
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                tfs = Arrays.copyOf(tfs, size * 2);
+            }
+            docs[size] = doc;
+            tfs[size] = tf;
+            size++;
+        }
+    }
+
+    /** Bounded min-heap; the root is the weakest hit (lowest score, then highest doc id). */
+    private static final class TopK {
+        final int capacity;
+        final int[] docs;
+        final double[] scores;
+        int size;
+
+        TopK(int capacity) {
+            this.capacity = Math.max(0, capacity);
+            this.docs = new int[this.capacity];
+            this.scores = new double[this.capacity];
+        }
+
+        void offer(int doc, double score) {
+            if (capacity == 0) return;
+            if (size < capacity) {
+                docs[size] = doc;
+                scores[size] = score;
+                up(size++);
+            } else if (weaker(0, doc, score)) {
+                docs[0] = doc;
+                scores[0] = score;
+                down(0);
+            }
+        }
+
+        /** Best first: score descending, ties by ascending doc id. */
+        int[] sortedDocs() {
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) order[i] = i;
+            Arrays.sort(order, (a, b) -> scores[a] != scores[b] ? Double.compare(scores[b], scores[a]) : Integer.compare(docs[a], docs[b]));
+            int[] out = new int[size];
+            for (int i = 0; i < size; i++) out[i] = docs[order[i]];
+            return out;
+        }
+
+        /** Is the entry at {@code i} weaker than (doc, score)? */
+        private boolean weaker(int i, int doc, double score) {
+            return scores[i] < score || (scores[i] == score && docs[i] > doc);
+        }
+
+        private void up(int i) {
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (!weaker(i, docs[parent], scores[parent])) break;
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void down(int i) {
+            while (true) {
+                int l = 2 * i + 1, r = l + 1, min = i;
+                if (l < size && weaker(l, docs[min], scores[min])) min = l;
+                if (r < size && weaker(r, docs[min], scores[min])) min = r;
+                if (min == i) return;
+                swap(i, min);
+                i = min;
+            }
+        }
+
+        private void swap(int a, int b) {
+            int d = docs[a]; docs[a] = docs[b]; docs[b] = d;
+            double s = scores[a]; scores[a] = scores[b]; scores[b] = s;
         }
-        order.sort((a,b) -> Integer.compare(b[1], a[1]));
-        List<String> res = new ArrayList<>();
-        for (int i = 0; i < Math.min(k, order.size()); i++) res.add(docs.get(order.get(i)[0]));
-        return res;
     }
 }
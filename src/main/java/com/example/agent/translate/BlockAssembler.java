@@ -0,0 +1,209 @@
+package com.example.agent.translate;
+
+import com.example.agent.model.ir.IR;
+
+import java.util.ArrayDeque;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Single-pass assembly of source lines into nested IR; one instance per parse. Physical lines
+ * are first joined while a continuation rule matches, then each logical line's match drives a
+ * stack of open blocks: an opener pushes its If/Loop, statements go into the innermost open
+ * body, ELSE switches an If to its else branch (an ELSIF also pushes the nested If), and a
+ * close pops. A middle or close line that fits no open block stays an unknown node, as does
+ * any line no rule matches. Blocks still open at the end are closed implicitly. Without any
+ * close rule an opener could never be closed, so then If/Loop stay one-line statements; the
+ * same happens past {@link #MAX_DEPTH} open blocks, where the closes (and middles) of such
+ * openers are dropped rather than taken for an enclosing block's.
+ * <p>
+ * The node representation is up to the {@link Tree}: {@link #objects} builds {@link IR.Node}s,
+ * {@link CompactBuilder} builds {@link com.example.agent.model.ir.CompactIR}. Top-level nodes
+ * are handed out as soon as they are complete, so memory is bounded by the largest block, not
+ * by the file. Not thread-safe.
+ *
+ * @param <N> node handle type
+ */
+final class BlockAssembler<N> {
+
+    /**
+     * One matched logical line: the node built for it (null for ELSE and block ends), the rule
+     * (null if none matched) and, for a continuation, the text carried to the next line.
+     */
+    record Matched<N>(N node, CompiledRules.CompiledRule rule, String carry) {
+        String ruleId() {
+            return rule == null ? null : rule.r.id;
+        }
+
+        BlockRole role() {
+            return rule == null ? BlockRole.STATEMENT : rule.role;
+        }
+    }
+
+    /**
+     * Matches one logical line. {@code offset} is where {@code text} starts in the source, or -1
+     * for a line joined from several; continuation rules are skipped unless {@code continuable}.
+     */
+    @FunctionalInterface
+    interface LineMatcher<N> {
+        Matched<N> match(String text, int offset, boolean continuable);
+    }
+
+    /** Links nodes into bodies and hands out finished top-level ones. */
+    interface Tree<N> {
+        void top(N node, int lineNo);
+
+        void child(N block, boolean elseBranch, N node);
+
+        boolean isIf(N block);
+
+        /** Node for a line that fits nowhere; {@code offset} as in {@link LineMatcher}. */
+        N unknown(String text, int offset);
+    }
+
+    /** Object IR: nodes go into the bodies of {@link IR.If}/{@link IR.Loop}. */
+    static BlockAssembler<IR.Node> objects(LineMatcher<IR.Node> matcher, boolean nest, ObjIntConsumer<IR.Node> out) {
+        return new BlockAssembler<>(matcher, new Tree<>() {
+            @Override
+            public void top(IR.Node node, int lineNo) {
+                out.accept(node, lineNo);
+            }
+
+            @Override
+            public void child(IR.Node block, boolean elseBranch, IR.Node node) {
+                if (block instanceof IR.If i) (elseBranch ? i.elseBody : i.thenBody).add(node);
+                else ((IR.Loop) block).body.add(node);
+            }
+
+            @Override
+            public boolean isIf(IR.Node block) {
+                return block instanceof IR.If;
+            }
+
+            @Override
+            public IR.Node unknown(String text, int offset) {
+                return new IR.UnknownNode(text);
+            }
+        }, nest);
+    }
+
+    // a runaway continuation rule must not glue the rest of a file into one line
+    static final int MAX_CONTINUED_LINES = 100;
+    // generators recurse per level; real code nests far less
+    static final int MAX_DEPTH = 200;
+
+    private static final class Frame<N> {
+        final N node;
+        final boolean isIf;
+        final int lineNo;
+        final boolean chained;  // ELSIF: closed together with the If it hangs under
+        boolean inElse;
+
+        Frame(N node, boolean isIf, int lineNo, boolean chained) {
+            this.node = node;
+            this.isIf = isIf;
+            this.lineNo = lineNo;
+            this.chained = chained;
+        }
+    }
+
+    private final LineMatcher<N> matcher;
+    private final Tree<N> tree;
+    private final boolean nest;
+    private final ArrayDeque<Frame<N>> open = new ArrayDeque<>();
+    private int suppressed; // openers past MAX_DEPTH still waiting for their close
+    private String pending;
+    private int pendingLines;
+    private int pendingStart;
+
+    /** {@code nest}: whether the rule set can close blocks at all ({@link CompiledRules#closesBlocks}). */
+    BlockAssembler(LineMatcher<N> matcher, Tree<N> tree, boolean nest) {
+        this.matcher = matcher;
+        this.tree = tree;
+        this.nest = nest;
+    }
+
+    /** Feeds physical line {@code lineNo} (1-based); blank lines are skipped. */
+    void line(String text, int lineNo) {
+        line(text, lineNo, -1);
+    }
+
+    /** Same, for a line that starts at {@code offset} in the source. */
+    void line(String text, int lineNo, int offset) {
+        if (text.isBlank()) return;
+        String logical = pending == null ? text : pending + " " + text.strip();
+        int start = pending == null ? lineNo : pendingStart;
+        int at = pending == null ? offset : -1;
+        Matched<N> m = matcher.match(logical, at, pendingLines < MAX_CONTINUED_LINES);
+        if (m.role() == BlockRole.CONTINUE) {
+            pending = m.carry();
+            pendingStart = start;
+            pendingLines++;
+            return;
+        }
+        pending = null;
+        pendingLines = 0;
+        apply(m, logical, at, start);
+    }
+
+    /** Flushes a dangling continuation and closes blocks left open. */
+    void finish() {
+        if (pending != null) {
+            String text = pending;
+            pending = null;
+            pendingLines = 0;
+            apply(matcher.match(text, -1, false), text, -1, pendingStart);
+        }
+        while (!open.isEmpty()) {
+            Frame<N> f = open.pop();
+            emit(f.node, f.lineNo);
+        }
+    }
+
+    private void apply(Matched<N> m, String text, int offset, int lineNo) {
+        switch (m.role()) {
+            case STATEMENT, CONTINUE -> emit(m.node(), lineNo);
+            case OPEN -> {
+                if (nest && open.size() < MAX_DEPTH && suppressed == 0) {
+                    open.push(new Frame<>(m.node(), tree.isIf(m.node()), lineNo, false));
+                } else {
+                    if (nest) suppressed++;
+                    emit(m.node(), lineNo);
+                }
+            }
+            case MIDDLE -> {
+                if (suppressed > 0) return; // of an opener that became a statement
+                Frame<N> top = open.peek();
+                if (top == null || !top.isIf || top.inElse) {
+                    emit(tree.unknown(text, offset), lineNo);
+                    return;
+                }
+                top.inElse = true;
+                if (m.node() == null) return;
+                if (open.size() < MAX_DEPTH) open.push(new Frame<>(m.node(), true, lineNo, true));
+                else emit(m.node(), lineNo); // closed by the If's own close, so nothing to swallow
+            }
+            case CLOSE -> {
+                if (suppressed > 0) {
+                    suppressed--;
+                    return;
+                }
+                Frame<N> top = open.peek();
+                if (top == null || !m.rule().closes(top.isIf)) {
+                    emit(tree.unknown(text, offset), lineNo);
+                    return;
+                }
+                Frame<N> f;
+                do {
+                    f = open.pop();
+                    emit(f.node, f.lineNo);
+                } while (f.chained);
+            }
+        }
+    }
+
+    private void emit(N node, int lineNo) {
+        Frame<N> top = open.peek();
+        if (top == null) tree.top(node, lineNo);
+        else tree.child(top.node, top.inElse, node);
+    }
+}
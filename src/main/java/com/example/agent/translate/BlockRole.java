@@ -0,0 +1,28 @@
+package com.example.agent.translate;
+
+import com.example.agent.knowledge.Rule;
+
+/** What a matched line does to the block structure; see {@link Rule#block}. */
+enum BlockRole {
+    STATEMENT, OPEN, MIDDLE, CLOSE, CONTINUE;
+
+    /** @throws IllegalArgumentException if the role is unknown or does not fit the rule's irType */
+    static BlockRole of(Rule r) {
+        boolean block = "If".equals(r.irType) || "Loop".equals(r.irType);
+        if (r.block == null || r.block.isBlank()) return block ? OPEN : STATEMENT;
+        return switch (r.block.trim().toLowerCase(java.util.Locale.ROOT)) {
+            case "none" -> STATEMENT;
+            case "open" -> {
+                if (!block) throw new IllegalArgumentException("block 'open' needs irType If or Loop");
+                yield OPEN;
+            }
+            case "middle" -> {
+                if (r.irType != null && !"If".equals(r.irType)) throw new IllegalArgumentException("block 'middle' belongs to If");
+                yield MIDDLE;
+            }
+            case "close" -> CLOSE;
+            case "continue" -> CONTINUE;
+            default -> throw new IllegalArgumentException("unknown block role '" + r.block + "'");
+        };
+    }
+}
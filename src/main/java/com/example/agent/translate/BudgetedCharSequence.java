@@ -0,0 +1,62 @@
+package com.example.agent.translate;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Line wrapper that bounds the work one regex match may do. {@link java.util.regex.Matcher} reads
+ * its input only through {@link #charAt}, so counting those calls counts backtracking steps:
+ * once a match uses more than its budget it is aborted with {@link Exceeded}. The thread's
+ * interrupt flag is polled along the way, so a stuck match can also be cancelled.
+ * Not thread-safe; one instance per line being parsed.
+ */
+final class BudgetedCharSequence implements CharSequence {
+
+    /** Thrown from inside the matcher when the step budget runs out. */
+    static final class Exceeded extends RuntimeException {
+        Exceeded(long steps) {
+            super("regex match exceeded " + steps + " steps", null, false, false);
+        }
+    }
+
+    private static final int INTERRUPT_CHECK_MASK = 0xFFF;
+
+    private final String s;
+    private final long budget;
+    private long steps;
+
+    BudgetedCharSequence(String s, long budget) {
+        this.s = s;
+        this.budget = budget;
+    }
+
+    /** Starts a new match with the full budget. */
+    BudgetedCharSequence reset() {
+        steps = 0;
+        return this;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if ((++steps & INTERRUPT_CHECK_MASK) == 0) {
+            if (steps > budget) throw new Exceeded(budget);
+            if (Thread.currentThread().isInterrupted()) throw new CancellationException("parse interrupted");
+        }
+        return s.charAt(index);
+    }
+
+    @Override
+    public int length() {
+        return s.length();
+    }
+
+    /** Groups are read through here; they come from the plain string and cost no budget. */
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return s.substring(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return s;
+    }
+}
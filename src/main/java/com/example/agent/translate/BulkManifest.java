@@ -0,0 +1,84 @@
+package com.example.agent.translate;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Append-only record of finished files in a bulk run, one JSON line per file:
+ * {@code {"path": <relative source path>, "fp": <sha-256 of source>, "rules": <rules fingerprint>, "status": ...}}.
+ * A later run skips a file whose fingerprint and rules still match and whose output compiled
+ * ({@code ok}, or {@code repaired} by the LLM); an unverified one is tried again. A torn last
+ * line from a crash is cut off on open, so the next record starts on a line of its own.
+ */
+final class BulkManifest implements Closeable {
+
+    static final String FILE = ".translate-manifest.jsonl";
+    private static final Set<String> COMPILED = Set.of("ok", "repaired");
+
+    private record Entry(String fp, String rules, String status) {}
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Map<String, Entry> done = new HashMap<>();
+    private final BufferedWriter out;
+
+    BulkManifest(Path outRoot) throws IOException {
+        Path file = outRoot.resolve(FILE);
+        if (Files.exists(file)) {
+            byte[] bytes = Files.readAllBytes(file);
+            int end = bytes.length;
+            while (end > 0 && bytes[end - 1] != '\n') end--;
+            if (end < bytes.length) {
+                // half-written line from an interrupted run
+                try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                    ch.truncate(end);
+                    ch.force(false);
+                }
+            }
+            for (String line : new String(bytes, 0, end, StandardCharsets.UTF_8).split("\n")) {
+                if (line.isBlank()) continue;
+                try {
+                    JsonNode n = mapper.readTree(line);
+                    done.put(n.path("path").asText(), new Entry(n.path("fp").asText(), n.path("rules").asText(), n.path("status").asText()));
+                } catch (IOException garbled) {
+                    // a damaged record: its file is simply translated again
+                }
+            }
+        }
+        this.out = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    boolean isDone(String path, String fp, String rules) {
+        Entry e = done.get(path);
+        return e != null && e.fp.equals(fp) && e.rules.equals(rules) && COMPILED.contains(e.status);
+    }
+
+    /** Called from the single writer thread only. */
+    void record(String path, String fp, String rules, String status) throws IOException {
+        ObjectNode n = mapper.createObjectNode();
+        n.put("path", path);
+        n.put("fp", fp);
+        n.put("rules", rules);
+        n.put("status", status);
+        out.write(mapper.writeValueAsString(n));
+        out.write('\n');
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
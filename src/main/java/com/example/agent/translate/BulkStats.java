@@ -0,0 +1,62 @@
+package com.example.agent.translate;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Live counters of a bulk translation run; safe to read while the run is in progress. */
+public class BulkStats {
+
+    private static final int MAX_FAILURES_KEPT = 100;
+
+    private final long startNanos = System.nanoTime();
+    final AtomicLong discovered = new AtomicLong();
+    final AtomicLong skipped = new AtomicLong();
+    final AtomicLong verified = new AtomicLong();
+    final AtomicLong repaired = new AtomicLong();
+    final AtomicLong unverified = new AtomicLong();
+    final AtomicLong failed = new AtomicLong();
+    final AtomicInteger inFlightLlm = new AtomicInteger();
+    private final List<String> failures = Collections.synchronizedList(new ArrayList<>());
+
+    public long discovered() { return discovered.get(); }
+    public long skipped() { return skipped.get(); }
+    /** Compiled as generated. */
+    public long verified() { return verified.get(); }
+    /** Compiled after an LLM repair. */
+    public long repaired() { return repaired.get(); }
+    /** Written although neither the generated nor a repaired version compiled. */
+    public long unverified() { return unverified.get(); }
+    public long failed() { return failed.get(); }
+    public int inFlightLlm() { return inFlightLlm.get(); }
+
+    /** First failures as "path: error", capped so a broken tree cannot exhaust memory. */
+    public List<String> failures() {
+        synchronized (failures) { return List.copyOf(failures); }
+    }
+
+    public long done() {
+        return skipped.get() + verified.get() + repaired.get() + unverified.get() + failed.get();
+    }
+
+    public double filesPerSecond() {
+        double secs = (System.nanoTime() - startNanos) / 1e9;
+        return secs <= 0 ? 0 : done() / secs;
+    }
+
+    void recordFailure(Path file, Throwable e) {
+        failed.incrementAndGet();
+        synchronized (failures) {
+            if (failures.size() < MAX_FAILURES_KEPT) failures.add(file + ": " + e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("files=%d done=%d verified=%d repaired=%d unverified=%d skipped=%d failed=%d inFlightLlm=%d rate=%.1f files/s",
+                discovered(), done(), verified(), repaired(), unverified(), skipped(), failed(), inFlightLlm(), filesPerSecond());
+    }
+}
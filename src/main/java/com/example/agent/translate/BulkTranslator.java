@@ -0,0 +1,277 @@
+package com.example.agent.translate;
+
+import com.example.agent.model.ir.CompactIR;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Translates a whole source tree into an output tree as a staged pipeline:
+ * read → parse → generate → verify → (LLM repair) → write. Every stage has its own bounded
+ * queue and workers, so parsing and compiling keep the CPUs busy while slow repairs are in
+ * flight, and a full queue pushes back on the stage before it instead of buffering the tree.
+ * <p>
+ * Finished files are recorded in {@code outRoot/.translate-manifest.jsonl}; a rerun skips
+ * those whose source and rule set are unchanged and whose output compiled, and redoes the rest. Unlike {@link TranslatorAgent#translate} there are no IR
+ * hints and no rule refinement: one LLM call at most per file, and only for code that fails to compile.
+ * Two sources in one directory that map to the same class name ({@code x.dlx}, {@code x.dsl})
+ * would overwrite each other; the one found second is reported as failed instead.
+ */
+public class BulkTranslator {
+
+    private static final int QUEUE_CAPACITY = 64;
+
+    private final TranslatorAgent agent;
+    private final int cpuWorkers;
+    private final int llmWorkers;
+    private volatile Consumer<BulkStats> progressListener;
+    private volatile long progressIntervalNanos;
+    private final AtomicLong lastReportNanos = new AtomicLong(System.nanoTime());
+
+    /** @param llmWorkers concurrent repair calls; 0 writes non-compiling output as is */
+    public BulkTranslator(TranslatorAgent agent, int cpuWorkers, int llmWorkers) {
+        this.agent = agent;
+        this.cpuWorkers = Math.max(1, cpuWorkers);
+        this.llmWorkers = Math.max(0, llmWorkers);
+    }
+
+    /** Called at most every {@code interval} while a run makes progress. */
+    public void setProgressListener(Consumer<BulkStats> listener, Duration interval) {
+        this.progressListener = listener;
+        this.progressIntervalNanos = interval.toNanos();
+    }
+
+    public BulkStats run(Path srcRoot, Path outRoot, List<String> includeExts) throws IOException {
+        Files.createDirectories(outRoot);
+        Path outAbs = outRoot.toAbsolutePath().normalize();
+        BulkStats stats = new BulkStats();
+        String rules = agent.rulesFingerprint();
+        try (BulkManifest manifest = new BulkManifest(outRoot)) {
+            // built back to front so each stage can hand over to the next
+            Stage write = new Stage("write", 1, true, stats, job -> {
+                Path target = outRoot.resolve(job.rel).resolveSibling(job.className + ".java");
+                Files.createDirectories(target.getParent());
+                Files.writeString(target, job.java, StandardCharsets.UTF_8);
+                manifest.record(job.rel, job.fp, rules, job.status);
+                switch (job.status) {
+                    case "ok" -> stats.verified.incrementAndGet();
+                    case "repaired" -> stats.repaired.incrementAndGet();
+                    default -> stats.unverified.incrementAndGet();
+                }
+                reportProgress(stats);
+            });
+            Stage repair = new Stage("repair", Math.max(1, llmWorkers), true, stats, job -> {
+                String fixed;
+                stats.inFlightLlm.incrementAndGet();
+                try {
+                    fixed = agent.repair(job.java, job.diagnostics);
+                } finally {
+                    stats.inFlightLlm.decrementAndGet();
+                }
+                if (fixed != null && agent.verify(job.className, fixed).ok) {
+                    job.java = fixed;
+                    job.status = "repaired";
+                } else {
+                    job.status = "unverified";
+                }
+                write.put(job);
+            });
+            Stage verify = new Stage("verify", cpuWorkers, false, stats, job -> {
+                var res = agent.verify(job.className, job.java);
+                if (res.ok) {
+                    job.status = "ok";
+                    write.put(job);
+                } else if (llmWorkers > 0) {
+                    job.diagnostics = res.diagnostics;
+                    repair.put(job);
+                } else {
+                    job.status = "unverified";
+                    write.put(job);
+                }
+            });
+            Stage generate = new Stage("generate", cpuWorkers, false, stats, job -> {
+                job.java = agent.generate(job.ir, job.className);
+                job.ir = null;
+                verify.put(job);
+            });
+            Stage parse = new Stage("parse", cpuWorkers, false, stats, job -> {
+                job.ir = agent.parseCompact(job.source);
+                job.source = null;
+                generate.put(job);
+            });
+            Stage read = new Stage("read", 4, true, stats, job -> {
+                byte[] bytes = Files.readAllBytes(job.file);
+                job.fp = sha256(bytes);
+                Path target = outRoot.resolve(job.rel).resolveSibling(job.className + ".java");
+                if (manifest.isDone(job.rel, job.fp, rules) && Files.exists(target)) {
+                    stats.skipped.incrementAndGet();
+                    return;
+                }
+                job.source = new String(bytes, StandardCharsets.UTF_8);
+                parse.put(job);
+            });
+
+            List<Stage> pipeline = List.of(read, parse, generate, verify, repair, write);
+            try (var walk = Files.walk(srcRoot)) {
+                Iterator<Path> files = walk
+                        .filter(Files::isRegularFile)
+                        .filter(p -> !p.toAbsolutePath().normalize().startsWith(outAbs))
+                        .filter(p -> includeExts.stream().anyMatch(ext -> p.toString().endsWith(ext)))
+                        .iterator();
+                // output file -> source claiming it; lower-cased so case-insensitive file systems collide too
+                Map<String, Path> claimed = new HashMap<>();
+                while (files.hasNext()) {
+                    Path f = files.next();
+                    stats.discovered.incrementAndGet();
+                    Job job = new Job(f, srcRoot.relativize(f));
+                    Path target = Path.of(job.rel).resolveSibling(job.className + ".java");
+                    Path first = claimed.putIfAbsent(target.toString().toLowerCase(Locale.ROOT), f);
+                    if (first != null) {
+                        stats.recordFailure(f, new FileAlreadyExistsException(target.toString(), first.toString(),
+                                "also the translation of " + first.getFileName() + "; rename one of them"));
+                        continue;
+                    }
+                    read.put(job);
+                }
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } finally {
+                // drain front to back: a stage is closed only once everything upstream has finished
+                for (Stage s : pipeline) s.finish();
+            }
+        }
+        return stats;
+    }
+
+    private void reportProgress(BulkStats stats) {
+        Consumer<BulkStats> listener = progressListener;
+        if (listener == null) return;
+        long now = System.nanoTime();
+        long last = lastReportNanos.get();
+        if (now - last >= progressIntervalNanos && lastReportNanos.compareAndSet(last, now)) {
+            listener.accept(stats);
+        }
+    }
+
+    static String className(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        if (dot > 0) name = name.substring(0, dot);
+        StringBuilder sb = new StringBuilder();
+        boolean upper = true;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (!Character.isJavaIdentifierPart(c)) {
+                upper = true;
+                continue;
+            }
+            sb.append(upper ? Character.toUpperCase(c) : c);
+            upper = false;
+        }
+        if (sb.isEmpty() || !Character.isJavaIdentifierStart(sb.charAt(0))) sb.insert(0, 'P');
+        return sb.toString();
+    }
+
+    private static String sha256(byte[] bytes) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** One file on its way through the pipeline; each field is set by the stage that needs it next. */
+    private static final class Job {
+        final Path file;
+        final String rel;
+        final String className;
+        String fp;
+        String source;
+        CompactIR ir; // spans of the source, so holding it costs little more than the source
+        String java;
+        String diagnostics;
+        String status;
+
+        Job(Path file, Path rel) {
+            this.file = file;
+            this.rel = rel.toString().replace('\\', '/');
+            this.className = BulkTranslator.className(file);
+        }
+    }
+
+    private interface Handler {
+        void handle(Job job) throws Exception;
+    }
+
+    /** Bounded queue plus a fixed set of workers; a failing job is recorded and dropped, and its worker carries on. */
+    private static final class Stage {
+        private static final Job END = new Job(Path.of("."), Path.of("."));
+
+        private final BlockingQueue<Job> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        private final List<Thread> workers = new ArrayList<>();
+
+        Stage(String name, int n, boolean virtual, BulkStats stats, Handler handler) {
+            Runnable loop = () -> {
+                while (true) {
+                    Job job;
+                    try {
+                        job = queue.take();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    if (job == END) return;
+                    try {
+                        handler.handle(job);
+                    } catch (Throwable t) {
+                        // an Error too (e.g. a StackOverflowError from a regex): a dead worker would leave finish() waiting forever
+                        stats.recordFailure(job.file, t);
+                    }
+                }
+            };
+            for (int i = 0; i < n; i++) {
+                workers.add(virtual
+                        ? Thread.ofVirtual().name("bulk-" + name + "-" + i).start(loop)
+                        : Thread.ofPlatform().name("bulk-" + name + "-" + i).daemon().start(loop));
+            }
+        }
+
+        void put(Job job) throws InterruptedIOException {
+            try {
+                queue.put(job);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("bulk translation interrupted");
+            }
+        }
+
+        /** Lets the queued jobs drain, then stops the workers and waits for them. */
+        void finish() throws InterruptedIOException {
+            for (int i = 0; i < workers.size(); i++) put(END);
+            try {
+                for (Thread t : workers) t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("bulk translation interrupted");
+            }
+        }
+    }
+}
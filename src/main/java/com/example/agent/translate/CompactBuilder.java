@@ -0,0 +1,72 @@
+package com.example.agent.translate;
+
+import com.example.agent.model.ir.CompactIR;
+
+import java.util.regex.Matcher;
+
+/**
+ * Block assembly into {@link CompactIR}: a matched line becomes one node whose fields are the
+ * rule's capture groups as spans of the source. Lines joined from continuations are not in the
+ * source, so their text is stored once in the IR and the spans point there. Not thread-safe.
+ */
+final class CompactBuilder implements BlockAssembler.Tree<Integer>, BlockAssembler.LineMatcher<Integer> {
+
+    private final DynamicDialectParser parser;
+    private final CompiledRules rules;
+    private final CompactIR.Builder ir;
+    private final BlockAssembler<Integer> blocks;
+
+    CompactBuilder(DynamicDialectParser parser, CompiledRules rules, String source) {
+        this.parser = parser;
+        this.rules = rules;
+        this.ir = new CompactIR.Builder(source);
+        this.blocks = new BlockAssembler<>(this, this, rules.closesBlocks);
+    }
+
+    /** Feeds the physical line starting at {@code offset} in the source. */
+    void line(String text, int lineNo, int offset) {
+        blocks.line(text, lineNo, offset);
+    }
+
+    CompactIR build() {
+        blocks.finish();
+        return ir.build();
+    }
+
+    @Override
+    public BlockAssembler.Matched<Integer> match(String text, int offset, boolean continuable) {
+        DynamicDialectParser.Hit h = parser.find(rules, text, continuable);
+        if (h == null) return new BlockAssembler.Matched<>(unknown(text, offset), null, null);
+        CompiledRules.CompiledRule cr = h.rule();
+        if (cr.role == BlockRole.CONTINUE) return new BlockAssembler.Matched<>(null, cr, h.m().group(cr.carryGroup));
+        if (cr.op == 0) return new BlockAssembler.Matched<>(null, cr, null);
+        int base = offset >= 0 ? offset : ir.addText(text);
+        Matcher m = h.m();
+        int a = cr.groupA < 0 ? -1 : m.start(cr.groupA), b = cr.groupB < 0 ? -1 : m.start(cr.groupB);
+        int node = ir.add(cr.op,
+                a < 0 ? CompactIR.NONE : base + a, a < 0 ? 0 : m.end(cr.groupA) - a,
+                b < 0 ? CompactIR.NONE : base + b, b < 0 ? 0 : m.end(cr.groupB) - b);
+        return new BlockAssembler.Matched<>(node, cr, null);
+    }
+
+    @Override
+    public void top(Integer node, int lineNo) {
+        ir.appendTop(node);
+    }
+
+    @Override
+    public void child(Integer block, boolean elseBranch, Integer node) {
+        ir.appendChild(block, elseBranch, node);
+    }
+
+    @Override
+    public boolean isIf(Integer block) {
+        return ir.op(block) == CompactIR.IF;
+    }
+
+    @Override
+    public Integer unknown(String text, int offset) {
+        int base = offset >= 0 ? offset : ir.addText(text);
+        return ir.add(CompactIR.UNKNOWN, base, text.length(), CompactIR.NONE, 0);
+    }
+}
@@ -0,0 +1,227 @@
+package com.example.agent.translate;
+
+import com.example.agent.knowledge.Rule;
+import com.example.agent.knowledge.RuleStats;
+import com.example.agent.knowledge.RuleStore;
+import com.example.agent.model.ir.CompactIR;
+import com.example.agent.model.ir.IR;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Immutable compiled form of one {@link com.example.agent.knowledge.RuleStore} version:
+ * patterns, node factories and the dispatch index. Shared by all parsing threads without locking;
+ * a rule change produces a new instance rather than modifying this one.
+ * <p>
+ * Rules are tried in store order, except that frequently hitting rules are moved ahead of
+ * colder ones they provably cannot overlap with ({@link RuleOverlap}), so first-match-wins
+ * gives the same result as the unranked order on every line.
+ */
+final class CompiledRules {
+
+    static final class CompiledRule {
+        final Rule r;
+        final Pattern p;
+        final NodeFactory factory;
+        final RuleStats stats;
+        final RuleOverlap.Head head;
+        final BlockRole role;
+        /** For a continuation: the group carried to the next line (0 = the whole match). */
+        final int carryGroup;
+        /** What {@link com.example.agent.model.ir.CompactIR} keeps: opcode (0 = no node) and the groups of its two fields (-1 = none). */
+        final byte op;
+        final int groupA, groupB;
+        // set when the rule is quarantined, so the rest of a parse on this snapshot skips it
+        volatile boolean tripped;
+        CompiledRule(Rule r, RuleStats stats) {
+            this.r = r;
+            this.stats = stats;
+            this.p = Pattern.compile(r.regex, Pattern.CASE_INSENSITIVE);
+            String risk = RegexGuard.screen(r.regex);
+            if (risk != null) throw new IllegalArgumentException(risk);
+            this.role = BlockRole.of(r);
+            int groups = p.matcher("").groupCount();
+            this.factory = switch (role) {
+                case STATEMENT, OPEN -> NodeFactory.forRule(r, groups);
+                // an ELSE with a condition is an ELSIF: an If hung in the else branch
+                case MIDDLE -> groups >= 1 ? m -> new IR.If(m.group(1)) : m -> null;
+                case CLOSE, CONTINUE -> m -> null;
+            };
+            this.carryGroup = groups >= 1 ? 1 : 0;
+            // mirrors the factories above; forRule has already rejected what does not fit
+            if (role == BlockRole.MIDDLE) {
+                op = groups >= 1 ? CompactIR.IF : 0;
+                groupA = 1;
+                groupB = -1;
+            } else if (role == BlockRole.STATEMENT || role == BlockRole.OPEN) {
+                op = switch (r.irType) {
+                    case "Assign" -> CompactIR.ASSIGN;
+                    case "Call" -> CompactIR.CALL;
+                    case "Decl" -> CompactIR.DECL;
+                    case "If" -> CompactIR.IF;
+                    case "Loop" -> CompactIR.LOOP;
+                    default -> CompactIR.UNKNOWN;
+                };
+                groupA = op == CompactIR.UNKNOWN && groups < 1 ? 0 : 1;
+                groupB = op == CompactIR.ASSIGN || op == CompactIR.DECL || (op == CompactIR.CALL && groups >= 2) ? 2 : -1;
+            } else {
+                op = 0;
+                groupA = groupB = -1;
+            }
+            this.head = RuleOverlap.head(r.regex);
+        }
+
+        /** For a close rule: whether it ends an open If ({@code isIf}) or Loop. Untyped closes end any block. */
+        boolean closes(boolean isIf) {
+            if ("If".equals(r.irType)) return isIf;
+            if ("Loop".equals(r.irType)) return !isIf;
+            return true;
+        }
+    }
+
+    // at most this many of the hottest rules are moved per ranking; each move scans its predecessors
+    static final int RANK_TOP = 64;
+
+    final long version;
+    /** {@link RuleStore#linesParsed()} when the order was computed. */
+    final long rankedAt;
+    final List<CompiledRule> rules;
+    final List<String> rejected;
+    final RuleDispatchIndex index;
+    /** Whether any rule closes a block; without one, If/Loop openers are parsed as plain statements. */
+    final boolean closesBlocks;
+    private final List<Rule> source;
+    private volatile String fingerprint;
+    // keyed by Rule instance: the store replaces the instance on every update, so a hit is unchanged
+    private final Map<Rule, Object> byRule;
+    private final Map<String, CompiledRule> byId;
+
+    private CompiledRules(long version, long rankedAt, List<Rule> source, List<CompiledRule> rules, List<String> rejected,
+                          Map<Rule, Object> byRule) {
+        this.version = version;
+        this.source = source;
+        this.rankedAt = rankedAt;
+        this.rules = rules;
+        this.rejected = Collections.unmodifiableList(rejected);
+        this.byRule = byRule;
+        this.byId = new HashMap<>(rules.size() * 2);
+        boolean closes = false;
+        for (CompiledRule cr : rules) {
+            byId.put(cr.r.id, cr);
+            closes |= cr.role == BlockRole.CLOSE;
+        }
+        this.closesBlocks = closes;
+        List<String> regexes = new ArrayList<>(rules.size());
+        for (CompiledRule cr : rules) regexes.add(cr.r.regex);
+        this.index = new RuleDispatchIndex(regexes);
+    }
+
+    /**
+     * Compiles {@code rules}; entries already compiled in {@code previous} (may be null) are reused,
+     * so a version that adds one rule costs one regex compile plus an index rebuild. Usage counters
+     * come from {@code store}, which also supplies the line clock recorded as {@link #rankedAt}.
+     */
+    static CompiledRules compile(long version, List<Rule> rules, CompiledRules previous, RuleStore store) {
+        long rankedAt = store.linesParsed();
+        List<CompiledRule> compiled = new ArrayList<>(rules.size());
+        List<String> rejected = new ArrayList<>();
+        Map<Rule, Object> byRule = new IdentityHashMap<>(rules.size() * 2);
+        for (Rule r : rules) {
+            Object prior = previous == null ? null : previous.byRule.get(r);
+            if (prior == null) {
+                try {
+                    prior = new CompiledRule(r, store.usage(r.id));
+                } catch (Exception e) {
+                    prior = r.id + ": " + e.getMessage();
+                }
+            }
+            byRule.put(r, prior);
+            if (prior instanceof CompiledRule cr) compiled.add(cr);
+            else rejected.add((String) prior);
+        }
+        return new CompiledRules(version, rankedAt, rules, List.copyOf(rank(compiled)), rejected, byRule);
+    }
+
+    /** The compiled rule with this id, or null if it is absent or was rejected. */
+    CompiledRule byId(String id) {
+        return id == null ? null : byId.get(id);
+    }
+
+    /**
+     * SHA-256 over the rules' content in store order. Unlike {@link #version} it is stable across
+     * restarts, and it ignores ranking, which never changes what a line parses to.
+     */
+    String fingerprint() {
+        String fp = fingerprint;
+        if (fp != null) return fp;
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            for (Rule r : source) {
+                for (String f : new String[]{r.id, r.irType, r.regex, r.javaTemplate, r.block,
+                        r.fields == null ? null : String.join(",", r.fields),
+                        r.listFields == null ? null : String.join(",", r.listFields)}) {
+                    md.update(String.valueOf(f).getBytes(StandardCharsets.UTF_8));
+                    md.update((byte) 0);
+                }
+            }
+            fp = HexFormat.of().formatHex(md.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        fingerprint = fp;
+        return fp;
+    }
+
+    /**
+     * Moves each of the hottest rules forward past colder predecessors, stopping at the first
+     * one it may overlap with. Only disjoint neighbours ever swap, so the relative order of
+     * any two rules that could match the same line is unchanged.
+     */
+    static List<CompiledRule> rank(List<CompiledRule> rules) {
+        int n = rules.size();
+        long[] hits = new long[n];
+        Map<CompiledRule, Long> hitsOf = new IdentityHashMap<>(n * 2);
+        Integer[] byHits = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            hits[i] = rules.get(i).stats.hits(); // one read each: the counters keep moving
+            hitsOf.put(rules.get(i), hits[i]);
+            byHits[i] = i;
+        }
+        Arrays.sort(byHits, (x, y) -> Long.compare(hits[y], hits[x]));
+
+        List<CompiledRule> order = new ArrayList<>(rules);
+        for (int k = 0; k < Math.min(RANK_TOP, n); k++) {
+            CompiledRule hot = rules.get(byHits[k]);
+            long h = hits[byHits[k]];
+            if (h == 0) break;
+            int pos = indexOf(order, hot);
+            int target = pos;
+            while (target > 0) {
+                CompiledRule prev = order.get(target - 1);
+                if (hitsOf.get(prev) >= h || !RuleOverlap.disjoint(prev.head, hot.head)) break;
+                target--;
+            }
+            if (target < pos) {
+                order.remove(pos);
+                order.add(target, hot);
+            }
+        }
+        return order;
+    }
+
+    private static int indexOf(List<CompiledRule> list, CompiledRule cr) {
+        for (int i = 0; i < list.size(); i++) if (list.get(i) == cr) return i;
+        return -1;
+    }
+}
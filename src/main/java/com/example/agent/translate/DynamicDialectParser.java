@@ -1,105 +1,249 @@
 package com.example.agent.translate;
 
-import com.example.agent.knowledge.Rule;
 import com.example.agent.knowledge.RuleStore;
+import com.example.agent.model.ir.CompactIR;
 import com.example.agent.model.ir.IR;
 
-import java.lang.reflect.Constructor;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+/**
+ * Parser driven by the rules in a {@link RuleStore}. Each line is matched on its own; rules with
+ * a block role ({@link com.example.agent.knowledge.Rule#block}) then nest the lines into If/Loop
+ * bodies and join continuation lines in the same pass (see {@link BlockAssembler}). Safe for concurrent use: parsing reads
+ * an immutable {@link CompiledRules} snapshot without locking, and the snapshot is recompiled
+ * only when {@link RuleStore#rulesVersion()} has moved. While one thread recompiles, the others
+ * keep parsing with the previous snapshot.
+ * <p>
+ * Rule regexes come from the LLM, so each match runs under a step budget proportional to the
+ * line length (see {@link BudgetedCharSequence}). A rule that exceeds it is skipped for that line;
+ * after {@link #QUARANTINE_TRIPS} such lines it is quarantined in the store with the last
+ * offending one, so a single freak line does not take out a rule. Regexes with nested
+ * quantifiers are rejected at load time.
+ * <p>
+ * Every attempt is counted in the rule's {@link com.example.agent.knowledge.RuleStats} as a hit
+ * or miss; match time is sampled. The snapshot is re-ranked by hit count every {@link #RERANK_LINES} parsed lines,
+ * and now and then a line is also tried against later, never-hit candidates to spot rules that
+ * an earlier rule shadows.
+ */
 public class DynamicDialectParser {
 
-    private final List<CompiledRule> compiled = new ArrayList<>();
+    static final long MATCH_BUDGET_BASE = 1_000_000;
+    static final long MATCH_BUDGET_PER_CHAR = 1_000;
+    static final long QUARANTINE_TRIPS = 3;
+    static final long RERANK_LINES = 50_000;
+    // one line in 64 is probed for shadowed rules; match time is measured on one line in 8 and scaled
+    static final long SHADOW_PROBE_MASK = 63;
+    static final long TIMING_SAMPLE_MASK = 7;
 
-    private static class CompiledRule {
-        final Rule r;
-        final Pattern p;
-        CompiledRule(Rule r) {
-            this.r = r;
-            this.p = Pattern.compile(r.regex, Pattern.CASE_INSENSITIVE);
-        }
-    }
+    private final RuleStore store;
+    private final long budgetBase;
+    private final long budgetPerChar;
+    private final AtomicReference<CompiledRules> current = new AtomicReference<>();
+    private final ReentrantLock recompile = new ReentrantLock();
 
     public DynamicDialectParser(RuleStore store) {
-        for (Rule r : store.allRules()) {
-            try {
-                compiled.add(new CompiledRule(r));
-            } catch (Exception ignored) {}
+        this(store, MATCH_BUDGET_BASE, MATCH_BUDGET_PER_CHAR);
+    }
+
+    DynamicDialectParser(RuleStore store, long budgetBase, long budgetPerChar) {
+        this.store = store;
+        this.budgetBase = budgetBase;
+        this.budgetPerChar = budgetPerChar;
+        RuleStore.RuleSet set = store.ruleSet();
+        current.set(CompiledRules.compile(set.version, set.rules, null, store));
+    }
+
+    /** Rules skipped at load time (bad or backtracking-prone regex, unknown irType, missing groups), as "id: reason". */
+    public List<String> rejectedRules() {
+        return snapshot().rejected;
+    }
+
+    /** Rule store version the parser is currently using. */
+    public long rulesVersion() {
+        return snapshot().version;
+    }
+
+    /** Identifies the current rule set across restarts; equal fingerprints parse every line the same way. */
+    public String rulesFingerprint() {
+        return snapshot().fingerprint();
+    }
+
+    CompiledRules snapshot() {
+        CompiledRules s = current.get();
+        if (fresh(s)) return s;
+        if (!recompile.tryLock()) return s; // someone else is already on it
+        try {
+            s = current.get();
+            if (fresh(s)) return s;
+            RuleStore.RuleSet set = store.ruleSet();
+            CompiledRules fresh = CompiledRules.compile(set.version, set.rules, s, store);
+            current.set(fresh);
+            return fresh;
+        } finally {
+            recompile.unlock();
         }
     }
 
+    private boolean fresh(CompiledRules s) {
+        return s.version == store.rulesVersion() && store.linesParsed() - s.rankedAt < RERANK_LINES;
+    }
+
+    /** Parses with one snapshot throughout, so a concurrent rule change never splits a program. */
     public IR parse(String source) {
+        CompiledRules rules = snapshot();
         IR ir = new IR();
+        var blocks = BlockAssembler.objects((text, offset, continuable) -> match(rules, text, continuable), rules.closesBlocks,
+                (n, line) -> ir.nodes.add(n));
         String[] lines = source.split("\r?\n");
-        for (String line : lines) {
-            if (line.isBlank()) continue;
-            boolean matched = false;
-            for (CompiledRule cr : compiled) {
-                Matcher m = cr.p.matcher(line);
-                if (m.matches()) {
-                    IR.Node node = buildNodeByRule(cr.r, m, line);
-                    ir.nodes.add(node);
-                    matched = true;
-                    break;
-                }
-            }
-            if (!matched) ir.nodes.add(new IR.UnknownNode(line));
-        }
+        for (int i = 0; i < lines.length; i++) blocks.line(lines[i], i + 1);
+        blocks.finish();
         return ir;
     }
 
-    private IR.Node buildNodeByRule(Rule r, Matcher m, String fallbackRaw) {
-        try {
-            String fqcn = "com.example.agent.model.ir.IR$" + r.irType;
-            Class<?> clazz = Class.forName(fqcn);
-            Constructor<?>[] ctors = clazz.getDeclaredConstructors();
-            if (ctors.length == 0) return new IR.UnknownNode(fallbackRaw);
-            Constructor<?> ctor = ctors[0];
-            Class<?>[] params = ctor.getParameterTypes();
-            Object[] args = new Object[params.length];
-
-            // Map fields -> constructor args by order
-            for (int i = 0; i < params.length; i++) {
-                String fieldName = (r.fields != null && i < r.fields.length) ? r.fields[i] : null;
-                String value = null;
-                if (fieldName != null) {
-                    // group index is i+1 by convention; but try by name position-independent
-                    int groupIdx = i + 1;
-                    // safer: try to find position of fieldName in r.fields
-                    for (int gi = 0; gi < r.fields.length; gi++) {
-                        if (r.fields[gi].equalsIgnoreCase(fieldName)) { groupIdx = gi + 1; break; }
-                    }
-                    value = safeGroup(m, groupIdx);
-                } else {
-                    value = safeGroup(m, i + 1);
-                }
+    /**
+     * Lazily parses {@code reader}, yielding top-level nodes as they complete; only the current
+     * line and the innermost open blocks are held in memory.
+     * The caller owns the reader and must close the stream (or the reader) when done.
+     * Read failures surface as {@link java.io.UncheckedIOException}.
+     */
+    public Stream<IR.Node> parse(Reader reader) {
+        BufferedReader br = reader instanceof BufferedReader b ? b : new BufferedReader(reader);
+        CompiledRules rules = snapshot();
+        ArrayDeque<IR.Node> ready = new ArrayDeque<>();
+        var blocks = BlockAssembler.objects((text, offset, continuable) -> match(rules, text, continuable), rules.closesBlocks,
+                (n, line) -> ready.add(n));
+        var nodes = new Spliterators.AbstractSpliterator<IR.Node>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+            int lineNo;
+            boolean done;
 
-                if (params[i] == String.class) {
-                    args[i] = value;
-                } else if (List.class.isAssignableFrom(params[i])) {
-                    // convert CSV to List<String>
-                    if (value == null || value.isBlank()) {
-                        args[i] = java.util.List.of();
-                    } else {
-                        java.util.List<String> out = new java.util.ArrayList<>();
-                        for (String a : value.split(",")) out.add(a.trim());
-                        args[i] = out;
+            @Override
+            public boolean tryAdvance(Consumer<? super IR.Node> action) {
+                try {
+                    while (ready.isEmpty() && !done) {
+                        String line = br.readLine();
+                        if (line == null) {
+                            blocks.finish();
+                            done = true;
+                        } else {
+                            blocks.line(line, ++lineNo);
+                        }
                     }
-                } else {
-                    // fallback: pass as string
-                    args[i] = value;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
                 }
+                if (ready.isEmpty()) return false;
+                action.accept(ready.poll());
+                return true;
+            }
+        };
+        return StreamSupport.stream(nodes, false)
+                .onClose(() -> {
+                    try { br.close(); } catch (IOException ignored) {}
+                });
+    }
+
+    /**
+     * Parses into the columnar {@link CompactIR}: fields are spans of {@code source} rather than
+     * copies, so the result stays small next to the source. Same structure as {@link #parse(String)}.
+     */
+    public CompactIR parseCompact(String source) {
+        var compact = new CompactBuilder(this, snapshot(), source);
+        int lineNo = 0;
+        for (int start = 0, n = source.length(); start <= n; ) {
+            int end = source.indexOf('\n', start);
+            if (end < 0) end = n;
+            int stop = end > start && source.charAt(end - 1) == '\r' ? end - 1 : end;
+            compact.line(source.substring(start, stop), ++lineNo, start);
+            start = end + 1;
+        }
+        return compact.build();
+    }
+
+    /**
+     * Parses one line in isolation. Block ends, ELSE and continued lines need their neighbours,
+     * so they come back as {@link IR.UnknownNode}; an opener comes back with an empty body.
+     */
+    public IR.Node parseLine(String line) {
+        var m = match(snapshot(), line, false);
+        return m.role() == BlockRole.STATEMENT || m.role() == BlockRole.OPEN ? m.node() : new IR.UnknownNode(line);
+    }
+
+    /** Matches {@code line} and builds its object node. */
+    BlockAssembler.Matched<IR.Node> match(CompiledRules rules, String line, boolean continuable) {
+        Hit h = find(rules, line, continuable);
+        if (h == null) return new BlockAssembler.Matched<>(new IR.UnknownNode(line), null, null);
+        CompiledRules.CompiledRule cr = h.rule();
+        if (cr.role == BlockRole.CONTINUE) return new BlockAssembler.Matched<>(null, cr, h.m().group(cr.carryGroup));
+        return new BlockAssembler.Matched<>(cr.factory.build(h.m()), cr, null);
+    }
+
+    /** The first rule that matched a line, with its matcher still holding the groups. */
+    record Hit(CompiledRules.CompiledRule rule, Matcher m) {}
+
+    /** Tries the rules in order, continuation rules only if {@code continuable}; null if none matches. */
+    Hit find(CompiledRules rules, String line, boolean continuable) {
+        long lineNo = store.countLine();
+        int[] candidates = rules.index.candidates(line);
+        BudgetedCharSequence text = null;
+        boolean timed = (lineNo & TIMING_SAMPLE_MASK) == 0;
+        for (int k = 0; k < candidates.length; k++) {
+            CompiledRules.CompiledRule cr = rules.rules.get(candidates[k]);
+            if (cr.tripped || (!continuable && cr.role == BlockRole.CONTINUE)) continue;
+            if (text == null) text = new BudgetedCharSequence(line, budgetBase + budgetPerChar * line.length());
+            Matcher m = cr.p.matcher(text.reset());
+            long t0 = timed ? System.nanoTime() : 0;
+            boolean hit = matches(cr, m, line);
+            long dt = timed ? (System.nanoTime() - t0) * (TIMING_SAMPLE_MASK + 1) : 0;
+            if (hit) {
+                cr.stats.hit(lineNo, dt);
+                if ((lineNo & SHADOW_PROBE_MASK) == 0) probeShadowed(rules, candidates, k, text, line);
+                return new Hit(cr, m);
             }
-            Object node = ctor.newInstance(args);
-            return (IR.Node) node;
-        } catch (Throwable t) {
-            return new IR.UnknownNode(fallbackRaw);
+            cr.stats.miss(dt);
+        }
+        return null;
+    }
+
+    /** Counts a line served from a cache of earlier parses, so rule usage does not look idle. */
+    void recordCachedHit(String ruleId) {
+        long lineNo = store.countLine();
+        if (ruleId != null) store.usage(ruleId).hit(lineNo, 0);
+    }
+
+    private boolean matches(CompiledRules.CompiledRule cr, Matcher m, String line) {
+        String reason;
+        try {
+            return m.matches();
+        } catch (BudgetedCharSequence.Exceeded e) {
+            reason = e.getMessage();
+        } catch (StackOverflowError e) {
+            // java.util.regex recurses per repetition of a group, so a long line can overflow before the budget trips
+            reason = "regex overflowed the stack";
         }
+        if (cr.stats.trip() >= QUARANTINE_TRIPS) {
+            cr.tripped = true;
+            store.quarantine(cr.r.id, reason + " (" + cr.stats.trips() + " lines)", line);
+        }
+        return false;
     }
 
-    private String safeGroup(Matcher m, int idx) {
-        try { return m.group(idx); } catch (Exception e) { return null; }
+    /** Tries the candidates after the winner {@code k} that have never matched; a match means they are shadowed. */
+    private void probeShadowed(CompiledRules rules, int[] candidates, int k, BudgetedCharSequence text, String line) {
+        String winner = rules.rules.get(candidates[k]).r.id;
+        for (int later = k + 1; later < candidates.length; later++) {
+            CompiledRules.CompiledRule cr = rules.rules.get(candidates[later]);
+            if (cr.tripped || cr.stats.lastHitLine() != 0) continue;
+            if (matches(cr, cr.p.matcher(text.reset()), line)) cr.stats.shadowedBy(winner);
+        }
     }
 }
@@ -1,42 +1,229 @@
 package com.example.agent.translate;
 
+import com.example.agent.model.ir.CompactIR;
 import com.example.agent.model.ir.IR;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 public class IRToJava {
 
+    private static final String BODY_INDENT = "    ";
+    // loop headers as the usual rules capture them: "i := 1 TO 10 [STEP 2]" and "WHILE cond"
+    private static final Pattern FOR_TO = Pattern.compile(
+            "^\\s*([A-Za-z_]\\w*)\\s*:?=\\s*(.+?)\\s+to\\s+(.+?)(?:\\s+step\\s+(.+?))?\\s*$", Pattern.CASE_INSENSITIVE);
+    private static final Pattern WHILE = Pattern.compile("^\\s*while\\s+(.+?)\\s*$", Pattern.CASE_INSENSITIVE);
+    private static final Pattern NUMBER = Pattern.compile("-?(\\d+\\.?\\d*|\\.\\d+)([eE][-+]?\\d+)?[lLdD]?");
+
     public String generate(IR ir, String className) {
         StringBuilder sb = new StringBuilder();
-        sb.append("public class ").append(className).append(" {\n");
-        sb.append("  public static void main(String[] args) {\n");
-        for (IR.Node n : ir.nodes) {
-            sb.append("    ").append(genStmt(n)).append("\n");
+        try {
+            generate(ir.nodes.iterator(), className, sb);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // StringBuilder does not throw
         }
-        sb.append("  }\n");
-        sb.append("}\n");
         return sb.toString();
     }
 
-    private String genStmt(IR.Node n) {
+    /** Writes the class statement by statement, so output size does not bound memory. */
+    public void generate(Iterator<IR.Node> nodes, String className, Appendable out) throws IOException {
+        header(className, out);
+        while (nodes.hasNext()) {
+            out.append(BODY_INDENT).append(statement(nodes.next())).append("\n");
+        }
+        footer(out);
+    }
+
+    /** Same output as {@link #generate(IR, String)}, written straight from the columnar form. */
+    public String generate(CompactIR ir, String className) {
+        StringBuilder sb = new StringBuilder();
+        try {
+            generate(ir, className, sb);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // StringBuilder does not throw
+        }
+        return sb.toString();
+    }
+
+    /** Fields are copied from the source into {@code out}; no node objects are created. */
+    public void generate(CompactIR ir, String className, Appendable out) throws IOException {
+        header(className, out);
+        for (int n = ir.first(); n != CompactIR.NONE; n = ir.next(n)) {
+            out.append(BODY_INDENT);
+            genStmt(ir, n, BODY_INDENT, out);
+            out.append("\n");
+        }
+        footer(out);
+    }
+
+    /**
+     * Java for one top-level node; {@link #generate} emits these between header and footer.
+     * The first line carries no indentation; nested lines of a block are indented for main's body.
+     */
+    public String statement(IR.Node n) {
+        StringBuilder sb = new StringBuilder();
+        genStmt(n, BODY_INDENT, sb);
+        return sb.toString();
+    }
+
+    public void header(String className, Appendable out) throws IOException {
+        out.append("public class ").append(className).append(" {\n");
+        out.append("  public static void main(String[] args) {\n");
+    }
+
+    public void footer(Appendable out) throws IOException {
+        out.append("  }\n");
+        out.append("}\n");
+    }
+
+    private void genStmt(IR.Node n, String indent, StringBuilder sb) {
         if (n instanceof IR.Assign a) {
-            return "var " + a.name + " = " + sanitize(a.expr) + ";";
+            sb.append("var ").append(a.name).append(" = ").append(sanitize(a.expr)).append(";");
+        } else if (n instanceof IR.Call c) {
+            sb.append(c.callee).append("(").append(String.join(", ", c.args)).append(");");
+        } else if (n instanceof IR.Decl d) {
+            sb.append(d.type).append(" ").append(d.name).append(";");
+        } else if (n instanceof IR.If i) {
+            sb.append("if (").append(sanitize(i.cond)).append(") {\n");
+            body(i.thenBody, indent, sb);
+            // an ELSIF chain comes back as "} else if"
+            while (i.elseBody.size() == 1 && i.elseBody.get(0) instanceof IR.If nested) {
+                i = nested;
+                sb.append(indent).append("} else if (").append(sanitize(i.cond)).append(") {\n");
+                body(i.thenBody, indent, sb);
+            }
+            if (!i.elseBody.isEmpty()) {
+                sb.append(indent).append("} else {\n");
+                body(i.elseBody, indent, sb);
+            }
+            sb.append(indent).append("}");
+        } else if (n instanceof IR.Loop l) {
+            sb.append(loopHeader(l.header)).append("\n");
+            body(l.body, indent, sb);
+            sb.append(indent).append("}");
+        } else if (n instanceof IR.UnknownNode u) {
+            sb.append("/* UNKNOWN: ").append(escape(u.raw)).append(" */");
+        } else {
+            sb.append("/* TODO */");
         }
-        if (n instanceof IR.Call c) {
-            String args = String.join(", ", c.args);
-            return c.callee + "(" + args + ");";
+    }
+
+    private void body(List<IR.Node> nodes, String indent, StringBuilder sb) {
+        String inner = indent + "  ";
+        for (IR.Node n : nodes) {
+            sb.append(inner);
+            genStmt(n, inner, sb);
+            sb.append("\n");
         }
-        if (n instanceof IR.Decl d) {
-            return d.type + " " + d.name + ";";
+    }
+
+    private void genStmt(CompactIR ir, int n, String indent, Appendable out) throws IOException {
+        switch (ir.op(n)) {
+            case CompactIR.ASSIGN -> {
+                out.append("var ");
+                ir.appendField(n, 0, out);
+                out.append(" = ");
+                appendSanitized(ir, n, 1, out);
+                out.append(";");
+            }
+            case CompactIR.CALL -> {
+                ir.appendField(n, 0, out);
+                out.append("(");
+                int[] spans = ir.argSpans(n);
+                for (int k = 0; k < spans.length; k += 2) {
+                    if (k > 0) out.append(", ");
+                    ir.appendField(n, 1, spans[k], spans[k + 1], out);
+                }
+                out.append(");");
+            }
+            case CompactIR.DECL -> {
+                ir.appendField(n, 1, out);
+                out.append(" ");
+                ir.appendField(n, 0, out);
+                out.append(";");
+            }
+            case CompactIR.IF -> {
+                out.append("if (");
+                appendSanitized(ir, n, 0, out);
+                out.append(") {\n");
+                body(ir, ir.child(n), indent, out);
+                // an ELSIF chain comes back as "} else if"
+                int els = ir.alt(n);
+                while (els != CompactIR.NONE && ir.next(els) == CompactIR.NONE && ir.op(els) == CompactIR.IF) {
+                    out.append(indent).append("} else if (");
+                    appendSanitized(ir, els, 0, out);
+                    out.append(") {\n");
+                    body(ir, ir.child(els), indent, out);
+                    els = ir.alt(els);
+                }
+                if (els != CompactIR.NONE) {
+                    out.append(indent).append("} else {\n");
+                    body(ir, els, indent, out);
+                }
+                out.append(indent).append("}");
+            }
+            case CompactIR.LOOP -> {
+                out.append(loopHeader(ir.field(n, 0).toString())).append("\n");
+                body(ir, ir.child(n), indent, out);
+                out.append(indent).append("}");
+            }
+            case CompactIR.UNKNOWN -> {
+                CharSequence raw = ir.field(n, 0);
+                out.append("/* UNKNOWN: ");
+                if (contains(raw, "*/") || contains(raw, "\n")) out.append(escape(raw.toString()));
+                else ir.appendField(n, 0, out);
+                out.append(" */");
+            }
+            default -> out.append("/* TODO */");
         }
-        if (n instanceof IR.If i) {
-            return "if (" + sanitize(i.cond) + ") { /* TODO then */ } else { /* TODO else */ }";
+    }
+
+    private void body(CompactIR ir, int first, String indent, Appendable out) throws IOException {
+        String inner = indent + "  ";
+        for (int c = first; c != CompactIR.NONE; c = ir.next(c)) {
+            out.append(inner);
+            genStmt(ir, c, inner, out);
+            out.append("\n");
         }
-        if (n instanceof IR.Loop l) {
-            return "// loop " + l.header + "\n    /* TODO convert loop body */";
+    }
+
+    // copies only text that sanitize() would change
+    private void appendSanitized(CompactIR ir, int n, int f, Appendable out) throws IOException {
+        CharSequence s = ir.field(n, f);
+        if (contains(s, ":=") || contains(s, "<>") || contains(s, " and ") || contains(s, " or ")) out.append(sanitize(s.toString()));
+        else ir.appendField(n, f, out);
+    }
+
+    private static boolean contains(CharSequence s, String part) {
+        outer:
+        for (int i = 0, last = s.length() - part.length(); i <= last; i++) {
+            for (int j = 0; j < part.length(); j++) {
+                if (s.charAt(i + j) != part.charAt(j)) continue outer;
+            }
+            return true;
         }
-        if (n instanceof IR.UnknownNode u) {
-            return "/* UNKNOWN: " + escape(u.raw) + " */";
+        return false;
+    }
+
+    private String loopHeader(String header) {
+        Matcher m = FOR_TO.matcher(header);
+        if (m.matches()) {
+            String v = m.group(1);
+            String to = sanitize(m.group(3));
+            if (m.group(4) == null) return "for (int " + v + " = " + sanitize(m.group(2)) + "; " + v + " <= " + to + "; " + v + "++) {";
+            String step = sanitize(m.group(4)).strip();
+            // a negative STEP counts down; one only known at run time picks the bound by its sign
+            String cond = NUMBER.matcher(step).matches() ? v + (step.startsWith("-") ? " >= " : " <= ") + to
+                    : "(" + step + ") > 0 ? " + v + " <= " + to + " : " + v + " >= " + to;
+            return "for (int " + v + " = " + sanitize(m.group(2)) + "; " + cond + "; " + v + " += " + step + ") {";
         }
-        return "/* TODO */";
+        m = WHILE.matcher(header);
+        if (m.matches()) return "while (" + sanitize(m.group(1)) + ") {";
+        return "{ /* UNKNOWN: loop " + escape(header) + " */";
     }
 
     private String sanitize(String s) {
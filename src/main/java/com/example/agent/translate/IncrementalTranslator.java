@@ -0,0 +1,334 @@
+package com.example.agent.translate;
+
+import com.example.agent.model.ir.IR;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Rules-only file translation that reuses the previous run over the same file, at two levels.
+ * The regex match of every logical line is kept, keyed by a hash of the line, so a re-run
+ * matches only lines it has not seen; block structure is then rebuilt from the matches, which is
+ * cheap. The Java of every top-level statement (a whole block counts as one) that passed the
+ * syntax check is remembered by a hash of its text, so only new or changed statements are
+ * checked again ({@link JavaVerifier#checkStatements}). That check only parses, so a cold run (no
+ * usable cache, e.g. after a rule change) also compiles the assembled class in full; the output
+ * counts as compiled only then, or when it is identical to the last class that compiled, and as
+ * syntax-checked otherwise. The cache is tied to {@link DynamicDialectParser#rulesFingerprint()},
+ * so a rule change starts over.
+ * <p>
+ * State lives in {@code stateDir/<hash of the source path>.bin}, written to a temp file and renamed
+ * into place; a state file that cannot be decoded only means a cold run. Thread-safe for distinct files.
+ */
+public class IncrementalTranslator {
+
+    private static final int MAGIC = 0x44495443; // "DITC"
+    private static final int FORMAT = 4;
+
+    private final DynamicDialectParser parser;
+    private final IRToJava generator;
+    private final JavaVerifier verifier;
+    private final Path stateDir;
+
+    public IncrementalTranslator(DynamicDialectParser parser, IRToJava generator, JavaVerifier verifier, Path stateDir) {
+        this.parser = parser;
+        this.generator = generator;
+        this.verifier = verifier;
+        this.stateDir = stateDir;
+    }
+
+    public static class Result {
+        /** Top-level statements in the file; a block is one statement. */
+        public final int statements;
+        /** Statements whose Java passed the syntax check in an earlier run. */
+        public final int reused;
+        /** Statements checked in this run. */
+        public final int translated;
+        /** Checked statements of the previous run that are gone. */
+        public final int removed;
+        /** Logical lines matched against the rules in this run (the rest came from the cache). */
+        public final int parsedLines;
+        /** Whether the cache was usable at all (same rules, readable state). */
+        public final boolean warm;
+        /**
+         * Whether the written class is known to compile: it was compiled in full in this run, or is
+         * identical to the last class that was. Otherwise only its changed statements were parsed.
+         */
+        public final boolean compiled;
+        /**
+         * Syntax problems in the checked statements, where {@code line} is the statement's first
+         * source line; then errors of a full compile, at {@code line} -1 with the class line in the message.
+         */
+        public final List<JavaVerifier.Diagnostic> problems;
+        public final long millis;
+
+        Result(int statements, int reused, int translated, int removed, int parsedLines, boolean warm, boolean compiled,
+               List<JavaVerifier.Diagnostic> problems, long millis) {
+            this.statements = statements; this.reused = reused; this.translated = translated; this.removed = removed;
+            this.parsedLines = parsedLines; this.warm = warm; this.compiled = compiled; this.problems = problems; this.millis = millis;
+        }
+
+        @Override
+        public String toString() {
+            return "statements=" + statements + " reused=" + reused + " translated=" + translated + " removed=" + removed
+                    + " parsedLines=" + parsedLines + " warm=" + warm + " check=" + (compiled ? "compiled" : "syntax-only")
+                    + " problems=" + problems.size() + " ms=" + millis;
+        }
+    }
+
+    /**
+     * Match of one logical line: the node as the rule built it (null for ELSE and block ends),
+     * the rule's id (null if no rule matched) and a continuation's carried text. Blocks get their
+     * bodies after matching, so the node is copied on every use.
+     */
+    private record Line(IR.Node node, String ruleId, String carry) {}
+
+    private record Key(long hi, long lo) {}
+
+    private static final class State {
+        final Map<Key, Line> lines = new HashMap<>();
+        final Set<Key> checked = new HashSet<>();
+        Key compiledClass; // hash of the last class that compiled in full, or null
+
+        boolean isEmpty() {
+            return lines.isEmpty() && checked.isEmpty();
+        }
+    }
+
+    public Result translate(Path dialectFile, Path javaFile) throws IOException {
+        long start = System.nanoTime();
+        String fileName = javaFile.getFileName().toString();
+        String className = fileName.endsWith(".java") ? fileName.substring(0, fileName.length() - 5) : fileName;
+        Path stateFile = stateDir.resolve(hex(digest(dialectFile.toAbsolutePath().normalize().toString())).substring(0, 32) + ".bin");
+
+        CompiledRules rules = parser.snapshot();
+        String fingerprint = rules.fingerprint();
+        State previous = load(stateFile, fingerprint);
+        State next = new State();
+        MessageDigest md = sha256();
+        int[] parsed = {0};
+
+        BlockAssembler.LineMatcher<IR.Node> matcher = (text, offset, continuable) -> {
+            // the same text may match differently once continuation rules are off
+            Key key = key(md, continuable ? text : text + '\0');
+            Line cached = previous.lines.get(key);
+            if (cached != null && (cached.ruleId == null || rules.byId(cached.ruleId) != null)) {
+                next.lines.put(key, cached);
+                parser.recordCachedHit(cached.ruleId);
+                return new BlockAssembler.Matched<>(copy(cached.node), rules.byId(cached.ruleId), cached.carry);
+            }
+            parsed[0]++;
+            var m = parser.match(rules, text, continuable);
+            next.lines.put(key, new Line(copy(m.node()), m.ruleId(), m.carry()));
+            return m;
+        };
+        List<IR.Node> nodes = new ArrayList<>();
+        List<Integer> firstLines = new ArrayList<>();
+        var blocks = BlockAssembler.objects(matcher, rules.closesBlocks, (n, line) -> {
+            nodes.add(n);
+            firstLines.add(line);
+        });
+        try (BufferedReader in = Files.newBufferedReader(dialectFile, StandardCharsets.UTF_8)) {
+            int lineNo = 0;
+            for (String line; (line = in.readLine()) != null; ) blocks.line(line, ++lineNo);
+        }
+        blocks.finish();
+
+        List<String> java = new ArrayList<>(nodes.size());
+        List<Key> javaKeys = new ArrayList<>(nodes.size());
+        List<Integer> fresh = new ArrayList<>();
+        Set<Key> kept = new HashSet<>();
+        for (int i = 0; i < nodes.size(); i++) {
+            String stmt = generator.statement(nodes.get(i));
+            Key key = key(md, stmt);
+            java.add(stmt);
+            javaKeys.add(key);
+            if (previous.checked.contains(key)) kept.add(key);
+            else fresh.add(i);
+        }
+
+        List<String> changed = new ArrayList<>(fresh.size());
+        for (int i : fresh) changed.add(java.get(i));
+        JavaVerifier.Result check = verifier.checkStatements(changed);
+        Set<Integer> failed = new HashSet<>();
+        List<JavaVerifier.Diagnostic> problems = new ArrayList<>(check.problems.size());
+        for (JavaVerifier.Diagnostic d : check.problems) {
+            int i = fresh.get((int) d.line - 1);
+            failed.add(i);
+            // report in source terms: where the statement starts in the file
+            problems.add(new JavaVerifier.Diagnostic(d.kind, firstLines.get(i), -1, d.message));
+        }
+        // a statement that failed its check is checked again next time rather than trusted
+        for (int i = 0; i < nodes.size(); i++) if (!failed.contains(i)) next.checked.add(javaKeys.get(i));
+
+        StringBuilder code = new StringBuilder();
+        generator.header(className, code);
+        for (String stmt : java) code.append("    ").append(stmt).append('\n');
+        generator.footer(code);
+        Files.writeString(javaFile, code, StandardCharsets.UTF_8);
+
+        Key classKey = key(md, code.toString());
+        boolean compiled = classKey.equals(previous.compiledClass);
+        if (!compiled && previous.isEmpty()) {
+            JavaVerifier.Result full = verifier.compile(className, code.toString());
+            compiled = full.ok;
+            for (JavaVerifier.Diagnostic d : full.problems) {
+                if (d.kind.equals("ERROR")) problems.add(new JavaVerifier.Diagnostic(d.kind, -1, -1, className + ".java:" + d.line + ": " + d.message));
+            }
+        }
+        next.compiledClass = compiled ? classKey : previous.compiledClass;
+        save(stateFile, fingerprint, next);
+
+        return new Result(nodes.size(), nodes.size() - fresh.size(), fresh.size(), previous.checked.size() - kept.size(),
+                parsed[0], !previous.isEmpty(), compiled, problems, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private static IR.Node copy(IR.Node n) {
+        if (n instanceof IR.If i) return new IR.If(i.cond);
+        if (n instanceof IR.Loop l) return new IR.Loop(l.header);
+        return n;
+    }
+
+    private State load(Path stateFile, String fingerprint) {
+        State state = new State();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(stateFile), 1 << 16))) {
+            // no count or length can exceed the file; checked before anything is allocated
+            long limit = Files.size(stateFile);
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT || !in.readUTF().equals(fingerprint)) return state;
+            int n = length(in, limit);
+            for (int i = 0; i < n; i++) {
+                Key key = new Key(in.readLong(), in.readLong());
+                String ruleId = in.readBoolean() ? readString(in, limit) : null;
+                String carry = in.readBoolean() ? readString(in, limit) : null;
+                state.lines.put(key, new Line(readNode(in, limit), ruleId, carry));
+            }
+            int v = length(in, limit);
+            for (int i = 0; i < v; i++) state.checked.add(new Key(in.readLong(), in.readLong()));
+            if (in.readBoolean()) state.compiledClass = new Key(in.readLong(), in.readLong());
+        } catch (IOException | RuntimeException e) {
+            // no previous run, a torn file from a crash or a corrupt one: start cold, save() replaces it
+            return new State();
+        }
+        return state;
+    }
+
+    private static void save(Path stateFile, String fingerprint, State state) throws IOException {
+        Files.createDirectories(stateFile.getParent());
+        Path tmp = stateFile.resolveSibling(stateFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            out.writeUTF(fingerprint);
+            out.writeInt(state.lines.size());
+            for (var e : state.lines.entrySet()) {
+                out.writeLong(e.getKey().hi);
+                out.writeLong(e.getKey().lo);
+                Line line = e.getValue();
+                out.writeBoolean(line.ruleId != null);
+                if (line.ruleId != null) writeString(out, line.ruleId);
+                out.writeBoolean(line.carry != null);
+                if (line.carry != null) writeString(out, line.carry);
+                writeNode(out, line.node);
+            }
+            out.writeInt(state.checked.size());
+            for (Key k : state.checked) {
+                out.writeLong(k.hi);
+                out.writeLong(k.lo);
+            }
+            out.writeBoolean(state.compiledClass != null);
+            if (state.compiledClass != null) {
+                out.writeLong(state.compiledClass.hi);
+                out.writeLong(state.compiledClass.lo);
+            }
+        }
+        Files.move(tmp, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeNode(DataOutputStream out, IR.Node n) throws IOException {
+        if (n == null) {
+            out.writeByte(0);
+        } else if (n instanceof IR.Assign a) {
+            out.writeByte(1); writeString(out, a.name); writeString(out, a.expr);
+        } else if (n instanceof IR.Call c) {
+            out.writeByte(2); writeString(out, c.callee);
+            out.writeInt(c.args.size());
+            for (String arg : c.args) writeString(out, arg);
+        } else if (n instanceof IR.Decl d) {
+            out.writeByte(3); writeString(out, d.name); writeString(out, d.type);
+        } else if (n instanceof IR.If i) {
+            out.writeByte(4); writeString(out, i.cond);
+        } else if (n instanceof IR.Loop l) {
+            out.writeByte(5); writeString(out, l.header);
+        } else if (n instanceof IR.UnknownNode u) {
+            out.writeByte(6); writeString(out, u.raw);
+        }
+    }
+
+    private static IR.Node readNode(DataInputStream in, long limit) throws IOException {
+        return switch (in.readByte()) {
+            case 0 -> null;
+            case 1 -> new IR.Assign(readString(in, limit), readString(in, limit));
+            case 2 -> {
+                String callee = readString(in, limit);
+                int n = length(in, limit);
+                List<String> args = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) args.add(readString(in, limit));
+                yield new IR.Call(callee, args);
+            }
+            case 3 -> new IR.Decl(readString(in, limit), readString(in, limit));
+            case 4 -> new IR.If(readString(in, limit));
+            case 5 -> new IR.Loop(readString(in, limit));
+            case 6 -> new IR.UnknownNode(readString(in, limit));
+            default -> throw new StreamCorruptedException("corrupt incremental state: node tag");
+        };
+    }
+
+    private static int length(DataInputStream in, long limit) throws IOException {
+        int n = in.readInt();
+        if (n < 0 || n > limit) throw new StreamCorruptedException("corrupt incremental state: length " + n);
+        return n;
+    }
+
+    // writeUTF caps strings at 64 KB; lines can be longer
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String readString(DataInputStream in, long limit) throws IOException {
+        byte[] b = new byte[length(in, limit)];
+        in.readFully(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    private static Key key(MessageDigest md, String line) {
+        byte[] h = md.digest(line.getBytes(StandardCharsets.UTF_8));
+        long hi = 0, lo = 0;
+        for (int i = 0; i < 8; i++) hi = (hi << 8) | (h[i] & 0xFF);
+        for (int i = 8; i < 16; i++) lo = (lo << 8) | (h[i] & 0xFF);
+        return new Key(hi, lo);
+    }
+
+    private static byte[] digest(String s) {
+        return sha256().digest(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String hex(byte[] b) {
+        return HexFormat.of().formatHex(b);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
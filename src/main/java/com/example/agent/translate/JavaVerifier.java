@@ -1,32 +1,234 @@
 package com.example.agent.translate;
 
+import com.sun.source.util.JavacTask;
+
+import javax.tools.*;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+public class JavaVerifier implements AutoCloseable {
+
+    public enum Mode {
+        /** javax.tools compiler in this JVM; sources and classes stay in memory. */
+        IN_PROCESS,
+        /** Forks {@code javac} on a temp directory (used when no system compiler is available). */
+        EXTERNAL_JAVAC
+    }
 
-public class JavaVerifier {
+    public static class Diagnostic {
+        public final String kind;     // ERROR, WARNING, ...
+        public final long line;       // 1-based, -1 if unknown
+        public final long column;     // 1-based, -1 if unknown
+        public final String message;
+        public Diagnostic(String kind, long line, long column, String message) {
+            this.kind = kind; this.line = line; this.column = column; this.message = message;
+        }
+        @Override
+        public String toString() {
+            return line + ":" + column + ": " + kind.toLowerCase(Locale.ROOT) + ": " + message;
+        }
+    }
 
     public static class Result {
         public final boolean ok;
         public final String diagnostics;
+        public final List<Diagnostic> problems;
         public Result(boolean ok, String diagnostics) {
-            this.ok = ok; this.diagnostics = diagnostics;
+            this(ok, diagnostics, List.of());
+        }
+        public Result(boolean ok, String diagnostics, List<Diagnostic> problems) {
+            this.ok = ok; this.diagnostics = diagnostics; this.problems = problems;
+        }
+    }
+
+    private static final List<String> OPTIONS = List.of("-proc:none", "-nowarn");
+
+    private final Mode mode;
+    private final JavaCompiler compiler;
+    // StandardJavaFileManager is not thread-safe but is expensive to open. Idle ones are pooled, one
+    // per core at most; any returned to a full pool are closed, so many virtual threads cannot pile them up.
+    private final BlockingQueue<StandardJavaFileManager> idle = new ArrayBlockingQueue<>(Math.max(1, Runtime.getRuntime().availableProcessors()));
+
+    public JavaVerifier() {
+        this(ToolProvider.getSystemJavaCompiler() != null ? Mode.IN_PROCESS : Mode.EXTERNAL_JAVAC);
+    }
+
+    public JavaVerifier(Mode mode) {
+        this.mode = mode;
+        this.compiler = mode == Mode.IN_PROCESS ? ToolProvider.getSystemJavaCompiler() : null;
+        if (mode == Mode.IN_PROCESS && compiler == null) {
+            throw new IllegalStateException("No system Java compiler; run on a JDK or use Mode.EXTERNAL_JAVAC");
         }
     }
 
+    public Mode mode() { return mode; }
+
     public Result compile(String className, String code) {
+        return mode == Mode.IN_PROCESS ? compileInProcess(className, code) : compileExternal(className, code);
+    }
+
+    private Result compileInProcess(String className, String code) {
+        var collector = new DiagnosticCollector<JavaFileObject>();
+        var out = new StringWriter();
+        boolean ok;
+        StandardJavaFileManager std = borrow();
+        try {
+            var task = compiler.getTask(out, new InMemoryFileManager(std), collector, OPTIONS, null, List.of(new SourceFile(className, code)));
+            ok = Boolean.TRUE.equals(task.call());
+        } finally {
+            release(std);
+        }
+
+        List<Diagnostic> problems = new ArrayList<>();
+        StringBuilder text = new StringBuilder(out.toString());
+        for (var d : collector.getDiagnostics()) {
+            String msg = d.getMessage(Locale.ROOT);
+            problems.add(new Diagnostic(d.getKind().name(), d.getLineNumber(), d.getColumnNumber(), msg));
+            text.append(className).append(".java:").append(d.getLineNumber()).append(": ")
+                .append(d.getKind().name().toLowerCase(Locale.ROOT)).append(": ").append(msg).append('\n');
+        }
+        return new Result(ok, text.toString(), problems);
+    }
+
+    /**
+     * Syntax-only check of standalone statements: each is parsed in its own block, without
+     * resolving names or types, so it needs no surrounding program and costs little. Problem
+     * {@code line}s are 1-based indices into {@code statements}. Needs the in-process compiler;
+     * in {@link Mode#EXTERNAL_JAVAC} mode nothing is checked and the result is ok.
+     */
+    public Result checkStatements(List<String> statements) {
+        if (statements.isEmpty() || mode != Mode.IN_PROCESS) return new Result(true, "");
+        StringBuilder code = new StringBuilder("class Fragments {\n  void check() {\n");
+        int[] firstLine = new int[statements.size() + 1];
+        int line = 3;
+        for (int i = 0; i < statements.size(); i++) {
+            firstLine[i] = line;
+            String stmt = statements.get(i);
+            code.append("{\n").append(stmt).append("\n}\n");
+            line += 3 + (int) stmt.chars().filter(c -> c == '\n').count();
+        }
+        firstLine[statements.size()] = line;
+        code.append("  }\n}\n");
+
+        var collector = new DiagnosticCollector<JavaFileObject>();
+        var out = new StringWriter();
+        StandardJavaFileManager std = borrow();
+        try {
+            var task = (JavacTask) compiler.getTask(out, new InMemoryFileManager(std), collector, OPTIONS, null,
+                    List.of(new SourceFile("Fragments", code.toString())));
+            task.parse();
+        } catch (IOException e) {
+            return new Result(false, e.toString());
+        } finally {
+            release(std);
+        }
+        List<Diagnostic> problems = new ArrayList<>();
+        StringBuilder text = new StringBuilder();
+        for (var d : collector.getDiagnostics()) {
+            if (d.getKind() != javax.tools.Diagnostic.Kind.ERROR) continue;
+            int stmt = 0;
+            while (stmt < statements.size() - 1 && firstLine[stmt + 1] <= d.getLineNumber()) stmt++;
+            String msg = d.getMessage(Locale.ROOT);
+            problems.add(new Diagnostic(d.getKind().name(), stmt + 1, -1, msg));
+            text.append("statement ").append(stmt + 1).append(": error: ").append(msg).append('\n');
+        }
+        return new Result(problems.isEmpty(), text.toString(), problems);
+    }
+
+    private Result compileExternal(String className, String code) {
+        Path tmp = null;
         try {
-            Path tmp = Files.createTempDirectory("java-verify");
+            tmp = Files.createTempDirectory("java-verify");
             Path file = tmp.resolve(className + ".java");
-            Files.writeString(file, code);
-            var pb = new ProcessBuilder("javac", file.toString());
+            Files.writeString(file, code, StandardCharsets.UTF_8);
+            // javac before 18 reads sources in the platform charset, which need not be UTF-8
+            var pb = new ProcessBuilder("javac", "-encoding", "UTF-8", file.toString());
             pb.redirectErrorStream(true);
             var proc = pb.start();
             String out = new String(proc.getInputStream().readAllBytes());
             int ec = proc.waitFor();
             return new Result(ec == 0, out);
         } catch (IOException | InterruptedException e) {
+            if (e instanceof InterruptedException) Thread.currentThread().interrupt();
             return new Result(false, e.toString());
+        } finally {
+            if (tmp != null) deleteRecursively(tmp);
+        }
+    }
+
+    private StandardJavaFileManager borrow() {
+        StandardJavaFileManager fm = idle.poll();
+        return fm != null ? fm : compiler.getStandardFileManager(null, Locale.ROOT, StandardCharsets.UTF_8);
+    }
+
+    private void release(StandardJavaFileManager fm) {
+        if (!idle.offer(fm)) closeQuietly(fm);
+    }
+
+    /** Number of pooled file managers; for tests. */
+    int idleFileManagers() {
+        return idle.size();
+    }
+
+    /** Closes the pooled file managers. The verifier stays usable and opens new ones as needed. */
+    @Override
+    public void close() {
+        for (StandardJavaFileManager fm; (fm = idle.poll()) != null; ) closeQuietly(fm);
+    }
+
+    private static void closeQuietly(StandardJavaFileManager fm) {
+        try {
+            fm.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static void deleteRecursively(Path dir) {
+        try (var walk = Files.walk(dir)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(p -> {
+                try { Files.deleteIfExists(p); } catch (IOException ignored) {}
+            });
+        } catch (IOException ignored) {}
+    }
+
+    private static final class SourceFile extends SimpleJavaFileObject {
+        private final String code;
+        SourceFile(String className, String code) {
+            super(URI.create("string:///" + className.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE);
+            this.code = code;
+        }
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) { return code; }
+    }
+
+    /** Class files are only needed to prove the code compiles, so their bytes are dropped. */
+    private static final class DiscardedOutput extends SimpleJavaFileObject {
+        DiscardedOutput(String className, Kind kind) {
+            super(URI.create("mem:///" + className.replace('.', '/') + kind.extension), kind);
+        }
+        @Override
+        public OutputStream openOutputStream() { return OutputStream.nullOutputStream(); }
+    }
+
+    private static final class InMemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+        InMemoryFileManager(StandardJavaFileManager delegate) { super(delegate); }
+        @Override
+        public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind, FileObject sibling) {
+            return new DiscardedOutput(className, kind);
+        }
+        @Override
+        public void close() {
+            // the shared standard file manager outlives a single compilation
         }
     }
 }
@@ -0,0 +1,79 @@
+package com.example.agent.translate;
+
+import com.example.agent.knowledge.Rule;
+import com.example.agent.model.ir.IR;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+
+/**
+ * Builds an IR node from a successful match. Resolved once per rule when the
+ * rule is compiled, so the per-line path is a plain constructor call.
+ * Constructor arguments are taken positionally: argument {@code i} comes from group {@code i + 1},
+ * which is how {@link Rule#fields} is documented.
+ */
+@FunctionalInterface
+interface NodeFactory {
+
+    IR.Node build(Matcher m);
+
+    /**
+     * @throws IllegalArgumentException if the rule names an unknown IR type or its
+     *         regex does not capture the groups the node needs
+     */
+    static NodeFactory forRule(Rule r, int groupCount) {
+        if (r.irType == null) throw new IllegalArgumentException("missing irType");
+        if (r.fields != null) {
+            for (int i = 0; i < r.fields.length; i++) {
+                for (int j = 0; j < i; j++) {
+                    if (r.fields[i] != null && r.fields[i].equalsIgnoreCase(r.fields[j])) {
+                        throw new IllegalArgumentException("duplicate field '" + r.fields[i] + "'");
+                    }
+                }
+            }
+        }
+        return switch (r.irType) {
+            case "Assign" -> {
+                require(r, groupCount, 2);
+                yield m -> new IR.Assign(m.group(1), m.group(2));
+            }
+            case "Call" -> {
+                require(r, groupCount, 1);
+                if (groupCount < 2) yield m -> new IR.Call(m.group(1), List.of());
+                yield m -> new IR.Call(m.group(1), splitArgs(m.group(2)));
+            }
+            case "Decl" -> {
+                require(r, groupCount, 2);
+                yield m -> new IR.Decl(m.group(1), m.group(2));
+            }
+            case "If" -> {
+                require(r, groupCount, 1);
+                yield m -> new IR.If(m.group(1));
+            }
+            case "Loop" -> {
+                require(r, groupCount, 1);
+                yield m -> new IR.Loop(m.group(1));
+            }
+            case "UnknownNode" -> {
+                if (groupCount < 1) yield m -> new IR.UnknownNode(m.group());
+                yield m -> new IR.UnknownNode(m.group(1));
+            }
+            default -> throw new IllegalArgumentException("unknown irType '" + r.irType + "'");
+        };
+    }
+
+    private static void require(Rule r, int groupCount, int needed) {
+        if (groupCount < needed) {
+            throw new IllegalArgumentException(r.irType + " needs " + needed + " capture groups, regex has " + groupCount);
+        }
+    }
+
+    /** CSV -> trimmed list, same splitting as the rule format has always used. */
+    static List<String> splitArgs(String value) {
+        if (value == null || value.isBlank()) return List.of();
+        List<String> out = new ArrayList<>();
+        for (String a : value.split(",")) out.add(a.trim());
+        return out;
+    }
+}
@@ -0,0 +1,226 @@
+package com.example.agent.translate;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Load-time screen for rule regexes that can backtrack catastrophically.
+ * Flags an unbounded quantifier applied to a group that itself contains one, e.g. {@code (a+)+},
+ * {@code (\w+\s?)*}, {@code (.*,)+}, unless every repetition must consume a literal and the inner
+ * quantifiers are over classes rather than wildcards (as in {@code (?:\w+\s*,\s*)*}), or the outer
+ * repetition is possessive or atomic.
+ * Also flags a repeated alternation whose branches can start matching the same text, e.g.
+ * {@code (a|aa)+} or {@code (\w|\d)+x}, judged by the branches' {@link RuleOverlap} heads.
+ * This is a heuristic; the per-match step budget in {@link BudgetedCharSequence} catches the rest.
+ */
+final class RegexGuard {
+
+    private RegexGuard() {}
+
+    private static final class Frame {
+        boolean unbounded;      // contains an unbounded quantifier
+        boolean wildcard;       // ... applied to something that matches almost anything (., \S, \W, \D)
+        boolean literal;        // every match consumes at least one literal character
+        boolean alternation;
+        boolean atomic;
+        int start;              // where the group's body begins
+        String body;            // set once the group is closed
+    }
+
+    private enum Atom { NONE, LITERAL, CLASS, WILDCARD, GROUP }
+
+    /** Reason the regex is rejected, or null if it passes. Assumes the regex compiles. */
+    static String screen(String regex) {
+        Deque<Frame> stack = new ArrayDeque<>();
+        Frame cur = new Frame();
+        Atom atom = Atom.NONE;
+        Frame group = null;
+        int i = 0, n = regex.length();
+        while (i < n) {
+            char c = regex.charAt(i);
+            if (c == '*' || c == '+' || c == '?' || c == '{') {
+                int at = i;
+                boolean unbounded;
+                int min;
+                if (c == '{') {
+                    int close = regex.indexOf('}', i);
+                    if (close < 0) return null;
+                    String body = regex.substring(i + 1, close);
+                    int comma = body.indexOf(',');
+                    min = parseInt(comma < 0 ? body : body.substring(0, comma));
+                    unbounded = comma >= 0 && body.substring(comma + 1).isBlank();
+                    i = close + 1;
+                } else {
+                    unbounded = c != '?';
+                    min = c == '+' ? 1 : 0;
+                    i++;
+                }
+                boolean possessive = i < n && regex.charAt(i) == '+';
+                if (i < n && (regex.charAt(i) == '+' || regex.charAt(i) == '?')) i++;
+                if (atom == Atom.GROUP) {
+                    if (unbounded && !possessive && !group.atomic && group.unbounded && (!group.literal || group.wildcard)) {
+                        return "nested quantifier at " + at + " may backtrack exponentially";
+                    }
+                    if (unbounded && !possessive && !group.atomic && group.alternation && branchesOverlap(group.body)) {
+                        return "repeated alternation at " + at + " has overlapping branches and may backtrack exponentially";
+                    }
+                    cur.unbounded |= unbounded || group.unbounded;
+                    cur.wildcard |= group.wildcard;
+                    if (min > 0 && group.literal) cur.literal = true;
+                } else if (atom != Atom.NONE) {
+                    if (unbounded && !possessive) {
+                        cur.unbounded = true;
+                        if (atom == Atom.WILDCARD) cur.wildcard = true;
+                    }
+                    // a+ can split its run in many ways, so only a fixed count makes a literal a separator
+                    if (min > 0 && !unbounded && atom == Atom.LITERAL) cur.literal = true;
+                }
+                atom = Atom.NONE;
+                group = null;
+                continue;
+            }
+
+            commit(cur, atom, group);
+            atom = Atom.NONE;
+            group = null;
+            switch (c) {
+                case '\\' -> {
+                    char e = i + 1 < n ? regex.charAt(i + 1) : '\\';
+                    i += 2;
+                    if (e == 'Q') {
+                        int end = regex.indexOf("\\E", i);
+                        if (end < 0) end = n;
+                        if (end > i) atom = Atom.LITERAL;
+                        i = Math.min(n, end + 2);
+                    } else if (e == 'S' || e == 'W' || e == 'D') {
+                        atom = Atom.WILDCARD;
+                    } else if ("bBAzZG".indexOf(e) >= 0) {
+                        atom = Atom.NONE; // anchors
+                    } else if (Character.isLetterOrDigit(e)) {
+                        atom = Atom.CLASS;
+                    } else {
+                        atom = Atom.LITERAL;
+                    }
+                }
+                case '[' -> {
+                    i = skipClass(regex, i);
+                    atom = Atom.CLASS;
+                }
+                case '(' -> {
+                    stack.push(cur);
+                    cur = new Frame();
+                    i++;
+                    if (i < n && regex.charAt(i) == '?') {
+                        cur.atomic = i + 1 < n && regex.charAt(i + 1) == '>';
+                        // group prefix: ?: ?= ?! ?<= ?<! ?<name> ?> or inline flags (?i) / (?i:
+                        while (i < n && ":)=!>".indexOf(regex.charAt(i)) < 0) i++;
+                        if (i < n && regex.charAt(i) != ')') i++;
+                    }
+                    cur.start = i;
+                }
+                case ')' -> {
+                    cur.body = regex.substring(Math.min(cur.start, i), i);
+                    group = cur;
+                    if (group.alternation) group.literal = false;
+                    cur = stack.isEmpty() ? new Frame() : stack.pop();
+                    atom = Atom.GROUP;
+                    i++;
+                }
+                case '|' -> {
+                    cur.alternation = true;
+                    i++;
+                }
+                case '^', '$' -> i++;
+                case '.' -> {
+                    atom = Atom.WILDCARD;
+                    i++;
+                }
+                default -> {
+                    atom = Atom.LITERAL;
+                    i++;
+                }
+            }
+        }
+        commit(cur, atom, group);
+        return null;
+    }
+
+    /**
+     * True if two top-level branches of {@code body} may start matching at the same text: one is
+     * a prefix of the other's match or their leading atoms intersect. Branches whose head is not
+     * understood at all are left to the step budget.
+     */
+    private static boolean branchesOverlap(String body) {
+        List<RuleOverlap.Head> heads = new ArrayList<>();
+        for (String branch : branches(body)) {
+            RuleOverlap.Head h = RuleOverlap.head(branch);
+            if (h.length() == 0 && !h.full) continue;
+            heads.add(h.prefix()); // the next repetition follows the branch, so anything may come after it
+        }
+        for (int a = 0; a < heads.size(); a++) {
+            for (int b = a + 1; b < heads.size(); b++) {
+                if (!RuleOverlap.disjoint(heads.get(a), heads.get(b))) return true;
+            }
+        }
+        return false;
+    }
+
+    /** Splits at the '|' that are not inside a nested group or a character class. */
+    private static List<String> branches(String body) {
+        List<String> out = new ArrayList<>();
+        int depth = 0, from = 0;
+        for (int i = 0; i < body.length(); i++) {
+            char c = body.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '[') {
+                i = skipClass(body, i) - 1;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == '|' && depth == 0) {
+                out.add(body.substring(from, i));
+                from = i + 1;
+            }
+        }
+        out.add(body.substring(from));
+        return out;
+    }
+
+    /** Folds an atom that turned out to have no quantifier into the enclosing frame. */
+    private static void commit(Frame cur, Atom atom, Frame group) {
+        if (atom == Atom.LITERAL) cur.literal = true;
+        if (atom == Atom.GROUP) {
+            cur.unbounded |= group.unbounded;
+            cur.wildcard |= group.wildcard;
+            cur.literal |= group.literal;
+        }
+    }
+
+    private static int skipClass(String regex, int i) {
+        int depth = 0;
+        int n = regex.length();
+        while (i < n) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                continue;
+            }
+            if (c == '[') depth++;
+            else if (c == ']' && --depth == 0) return i + 1;
+            i++;
+        }
+        return n;
+    }
+
+    private static int parseInt(String s) {
+        try {
+            return Integer.parseInt(s.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package com.example.agent.translate;
+
+import java.util.*;
+
+/**
+ * Prefilter that narrows the rules worth trying on a line.
+ * Each rule regex is analysed once for its leading keyword (literal prefix after
+ * optional whitespace) and for literals every match must contain (":=", "(", "THEN", ...).
+ * {@link #candidates(String)} returns a superset of the rules that can match a line,
+ * in original rule order, so first-match-wins semantics are unchanged.
+ */
+final class RuleDispatchIndex {
+
+    private static final int[] NONE = new int[0];
+
+    private final Map<String, int[]> byPrefix = new HashMap<>();
+    private final boolean[] prefixLengths;
+    private final String[] literalKeys;
+    private final int[][] byLiteral;
+    private final int[] always;
+    private final String[][] required;
+
+    RuleDispatchIndex(List<String> regexes) {
+        int n = regexes.size();
+        required = new String[n][];
+        Map<String, List<Integer>> prefixBuckets = new HashMap<>();
+        Map<String, List<Integer>> literalBuckets = new LinkedHashMap<>();
+        List<Integer> alwaysList = new ArrayList<>();
+        int maxPrefix = 0;
+
+        for (int i = 0; i < n; i++) {
+            Shape s = Shape.of(regexes.get(i));
+            if (s == null) {
+                required[i] = new String[0];
+                alwaysList.add(i);
+                continue;
+            }
+            required[i] = s.literals.toArray(new String[0]);
+            if (!s.prefix.isEmpty()) {
+                prefixBuckets.computeIfAbsent(s.prefix, k -> new ArrayList<>()).add(i);
+                maxPrefix = Math.max(maxPrefix, s.prefix.length());
+            } else if (!s.literals.isEmpty()) {
+                literalBuckets.computeIfAbsent(s.longestLiteral(), k -> new ArrayList<>()).add(i);
+            } else {
+                alwaysList.add(i);
+            }
+        }
+
+        prefixLengths = new boolean[maxPrefix + 1];
+        for (var e : prefixBuckets.entrySet()) {
+            byPrefix.put(e.getKey(), toArray(e.getValue()));
+            prefixLengths[e.getKey().length()] = true;
+        }
+        literalKeys = literalBuckets.keySet().toArray(new String[0]);
+        byLiteral = new int[literalKeys.length][];
+        for (int i = 0; i < literalKeys.length; i++) byLiteral[i] = toArray(literalBuckets.get(literalKeys[i]));
+        always = toArray(alwaysList);
+    }
+
+    /** Indices of rules that may match {@code line}, ascending. */
+    int[] candidates(String line) {
+        int[] acc = new int[8];
+        int size = 0;
+        for (int idx : always) acc = push(acc, size++, idx);
+
+        int start = 0, len = line.length();
+        while (start < len && isRegexSpace(line.charAt(start))) start++;
+        int end = start;
+        while (end < len && end - start < prefixLengths.length - 1 && isWordChar(line.charAt(end))) end++;
+        if (end > start) {
+            String token = line.substring(start, end).toLowerCase(Locale.ROOT);
+            for (int l = 1; l <= token.length(); l++) {
+                if (!prefixLengths[l]) continue;
+                int[] bucket = byPrefix.get(token.substring(0, l));
+                if (bucket == null) continue;
+                for (int idx : bucket) acc = push(acc, size++, idx);
+            }
+        }
+
+        String lower = null;
+        if (literalKeys.length > 0) {
+            lower = line.toLowerCase(Locale.ROOT);
+            for (int k = 0; k < literalKeys.length; k++) {
+                if (!lower.contains(literalKeys[k])) continue;
+                for (int idx : byLiteral[k]) acc = push(acc, size++, idx);
+            }
+        }
+        if (size == 0) return NONE;
+        Arrays.sort(acc, 0, size);
+
+        int out = 0;
+        for (int i = 0; i < size; i++) {
+            int idx = acc[i];
+            String[] req = required[idx];
+            if (req.length > 0) {
+                if (lower == null) lower = line.toLowerCase(Locale.ROOT);
+                if (!containsAll(lower, req)) continue;
+            }
+            acc[out++] = idx;
+        }
+        return out == acc.length ? acc : Arrays.copyOf(acc, out);
+    }
+
+    private static boolean containsAll(String s, String[] parts) {
+        for (String p : parts) if (!s.contains(p)) return false;
+        return true;
+    }
+
+    private static int[] push(int[] a, int size, int v) {
+        if (size == a.length) a = Arrays.copyOf(a, size * 2);
+        a[size] = v;
+        return a;
+    }
+
+    private static int[] toArray(List<Integer> l) {
+        int[] a = new int[l.size()];
+        for (int i = 0; i < a.length; i++) a[i] = l.get(i);
+        return a;
+    }
+
+    static boolean isWordChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+
+    /** Characters matched by {@code \s} without UNICODE_CHARACTER_CLASS. */
+    static boolean isRegexSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+    }
+
+    /**
+     * Conservative static summary of a regex: its leading keyword and the literal runs
+     * every match must contain. Only top-level atoms are inspected; groups, classes and
+     * escapes other than {@code \s} and escaped punctuation end a literal run.
+     * {@link #of} returns null when the regex uses constructs it cannot reason about.
+     */
+    static final class Shape {
+        final String prefix;
+        final List<String> literals;
+
+        private Shape(String prefix, List<String> literals) {
+            this.prefix = prefix;
+            this.literals = literals;
+        }
+
+        String longestLiteral() {
+            String best = literals.get(0);
+            for (String l : literals) if (l.length() > best.length()) best = l;
+            return best;
+        }
+
+        static Shape of(String regex) {
+            List<Atom> atoms = Atom.parse(regex);
+            if (atoms == null) return null;
+
+            StringBuilder prefix = new StringBuilder();
+            int i = 0;
+            while (i < atoms.size()) {
+                Atom a = atoms.get(i);
+                if (a.kind == Atom.ANCHOR || a.kind == Atom.SPACE || (a.kind == Atom.LIT && a.c == ' ')) i++;
+                else break;
+            }
+            for (; i < atoms.size(); i++) {
+                Atom a = atoms.get(i);
+                if (a.kind != Atom.LIT || a.min == 0 || !isWordChar(a.c)) break;
+                prefix.append(a.c);
+                if (!a.exact) break;
+            }
+
+            List<String> literals = new ArrayList<>();
+            StringBuilder run = new StringBuilder();
+            for (Atom a : atoms) {
+                if (a.kind == Atom.LIT && a.min > 0) {
+                    run.append(a.c);
+                    if (a.exact) continue;
+                }
+                if (!run.isEmpty()) {
+                    literals.add(run.toString().toLowerCase(Locale.ROOT));
+                    run.setLength(0);
+                }
+            }
+            if (!run.isEmpty()) literals.add(run.toString().toLowerCase(Locale.ROOT));
+            return new Shape(prefix.toString().toLowerCase(Locale.ROOT), literals);
+        }
+    }
+
+    /** One top-level regex element with its quantifier folded in. */
+    static final class Atom {
+        static final int LIT = 0, SPACE = 1, ANCHOR = 2, OTHER = 3;
+
+        final int kind;
+        final char c;
+        int min = 1;
+        boolean exact = true;
+
+        Atom(int kind, char c) { this.kind = kind; this.c = c; }
+
+        static List<Atom> parse(String re) {
+            List<Atom> out = new ArrayList<>();
+            int i = 0, n = re.length();
+            while (i < n) {
+                char ch = re.charAt(i);
+                Atom a;
+                switch (ch) {
+                    case '|' -> { return null; }
+                    case '^', '$' -> { out.add(new Atom(ANCHOR, ch)); i++; continue; }
+                    case '.' -> { a = new Atom(OTHER, ch); i++; }
+                    case '[' -> {
+                        i = skipClass(re, i);
+                        if (i < 0) return null;
+                        a = new Atom(OTHER, ch);
+                    }
+                    case '(' -> {
+                        if (re.startsWith("(?", i) && flagGroupHasComments(re, i + 2)) return null;
+                        i = skipGroup(re, i);
+                        if (i < 0) return null;
+                        a = new Atom(OTHER, ch);
+                    }
+                    case '\\' -> {
+                        if (i + 1 >= n) return null;
+                        char e = re.charAt(i + 1);
+                        i += 2;
+                        if (e == 'Q') return null;
+                        if (e == 'b' || e == 'B' || e == 'A' || e == 'G' || e == 'z' || e == 'Z') {
+                            out.add(new Atom(ANCHOR, e));
+                            continue;
+                        }
+                        if (e == 's') a = new Atom(SPACE, e);
+                        else if (!Character.isLetterOrDigit(e)) a = new Atom(LIT, e);
+                        else {
+                            i = skipEscapeTail(re, i, e);
+                            if (i < 0) return null;
+                            a = new Atom(OTHER, e);
+                        }
+                    }
+                    case '?', '*', '+', '{', ')', ']', '}' -> { return null; }
+                    default -> { a = new Atom(LIT, ch); i++; }
+                }
+                i = quantifier(re, i, a);
+                out.add(a);
+            }
+            return out;
+        }
+
+        private static int quantifier(String re, int i, Atom a) {
+            int n = re.length();
+            if (i >= n) return i;
+            char q = re.charAt(i);
+            if (q == '?' || q == '*') { a.min = 0; a.exact = false; i++; }
+            else if (q == '+') { a.exact = false; i++; }
+            else if (q == '{') {
+                int j = re.indexOf('}', i);
+                if (j < 0) return i;
+                String body = re.substring(i + 1, j);
+                int comma = body.indexOf(',');
+                String lo = comma < 0 ? body : body.substring(0, comma);
+                try {
+                    a.min = Integer.parseInt(lo.trim());
+                } catch (NumberFormatException e) {
+                    a.min = 0;
+                }
+                a.exact = comma < 0 && a.min == 1;
+                if (a.min > 1) a.min = 1;
+                i = j + 1;
+            } else {
+                return i;
+            }
+            if (i < n && (re.charAt(i) == '?' || re.charAt(i) == '+')) i++;
+            return i;
+        }
+
+        /** Skips the operand of escapes such as {@code \x41}, {@code \p{L}} or {@code \k<n>}. */
+        private static int skipEscapeTail(String re, int i, char e) {
+            int n = re.length();
+            if (i < n && (re.charAt(i) == '{' || (e == 'k' && re.charAt(i) == '<'))) {
+                int j = re.indexOf(re.charAt(i) == '{' ? '}' : '>', i);
+                return j < 0 ? -1 : j + 1;
+            }
+            int max = switch (e) {
+                case 'x' -> 2;
+                case 'u' -> 4;
+                case '0' -> 3;
+                case 'c' -> 1;
+                default -> Character.isDigit(e) ? Integer.MAX_VALUE : 0;
+            };
+            for (int k = 0; k < max && i < n && (e == 'c' || Character.isLetterOrDigit(re.charAt(i))); k++) i++;
+            return i;
+        }
+
+        private static boolean flagGroupHasComments(String re, int i) {
+            for (; i < re.length(); i++) {
+                char c = re.charAt(i);
+                if (c == ')' || c == ':') return false;
+                if (c == 'x') return true;
+                if (!Character.isLetter(c) && c != '-') return false;
+            }
+            return false;
+        }
+
+        /** Returns the index just past the class that starts at {@code i}, or -1. */
+        private static int skipClass(String re, int i) {
+            int n = re.length(), depth = 0;
+            i++;
+            if (i < n && re.charAt(i) == '^') i++;
+            if (i < n && re.charAt(i) == ']') i++;
+            for (; i < n; i++) {
+                char c = re.charAt(i);
+                if (c == '\\') i++;
+                else if (c == '[') depth++;
+                else if (c == ']') {
+                    if (depth == 0) return i + 1;
+                    depth--;
+                }
+            }
+            return -1;
+        }
+
+        /** Returns the index just past the group that starts at {@code i}, or -1. */
+        private static int skipGroup(String re, int i) {
+            int n = re.length(), depth = 0;
+            while (i < n) {
+                char c = re.charAt(i);
+                if (c == '\\') { i += 2; continue; }
+                if (c == '[') {
+                    i = skipClass(re, i);
+                    if (i < 0) return -1;
+                    continue;
+                }
+                if (c == '(') depth++;
+                else if (c == ')' && --depth == 0) return i + 1;
+                i++;
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package com.example.agent.translate;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Proves that two rule regexes cannot match the same line, so the parser may try them in either
+ * order. Each regex is summarised by its {@link Head}: the run of simple atoms (characters, classes,
+ * {@code \s}/{@code \w}/{@code \d}, {@code .}, unquantified plain groups) it starts with, read
+ * case-insensitively like the parser compiles them. Two heads are disjoint when no string can
+ * start with a match of both; a head that spans the whole regex also pins where the line ends.
+ * Anything the summary does not understand shortens the head, which only makes the answer
+ * "may overlap" more often, never wrong. Inline flags other than a leading {@code (?i)} (the
+ * parser's own mode) change how the rest reads, so they leave the head empty; non-ASCII
+ * characters are only tracked as one conservative flag, which {@code \w}, {@code \d} and
+ * {@code \s} also carry in case they are read as Unicode classes.
+ */
+final class RuleOverlap {
+
+    private RuleOverlap() {}
+
+    /** Set of chars: ASCII as a bitmap, everything else as one conservative flag. */
+    static final class CharSet {
+        final long lo, hi;
+        final boolean other;
+
+        CharSet(long lo, long hi, boolean other) {
+            this.lo = lo; this.hi = hi; this.other = other;
+        }
+
+        static final CharSet ALL = new CharSet(-1L, -1L, true);
+
+        boolean intersects(CharSet o) {
+            return (lo & o.lo) != 0 || (hi & o.hi) != 0 || (other && o.other);
+        }
+
+        CharSet union(CharSet o) {
+            return new CharSet(lo | o.lo, hi | o.hi, other || o.other);
+        }
+
+        CharSet negate() {
+            return new CharSet(~lo, ~hi, true);
+        }
+
+        static CharSet of(char c) {
+            if (c >= 128) return new CharSet(0, 0, true);
+            CharSet s = bit(c);
+            if (c >= 'a' && c <= 'z') s = s.union(bit((char) (c - 32)));
+            else if (c >= 'A' && c <= 'Z') s = s.union(bit((char) (c + 32)));
+            return s;
+        }
+
+        static CharSet range(char from, char to) {
+            CharSet s = new CharSet(0, 0, to >= 128);
+            for (int c = from; c <= Math.min(to, 127); c++) s = s.union(of((char) c));
+            return s;
+        }
+
+        private static CharSet bit(char c) {
+            return c < 64 ? new CharSet(1L << c, 0, false) : new CharSet(0, 1L << (c - 64), false);
+        }
+    }
+
+    private static final CharSet NON_ASCII = new CharSet(0, 0, true);
+    static final CharSet SPACE = CharSet.of(' ').union(CharSet.of('\t')).union(CharSet.of('\n'))
+            .union(CharSet.of((char) 0x0B)).union(CharSet.of('\f')).union(CharSet.of('\r')).union(NON_ASCII);
+    static final CharSet DIGIT = CharSet.range('0', '9').union(NON_ASCII);
+    static final CharSet WORD = CharSet.range('a', 'z').union(DIGIT).union(CharSet.of('_'));
+
+    private static final int ONE = 0, OPTIONAL = 1, STAR = 2;
+
+    /** Leading atoms of a regex as NFA steps; {@code full} if they cover the whole regex. */
+    static final class Head {
+        final CharSet[] sets;
+        final int[] kinds;
+        final boolean full;
+
+        Head(List<CharSet> sets, List<Integer> kinds, boolean full) {
+            this.sets = sets.toArray(new CharSet[0]);
+            this.kinds = kinds.stream().mapToInt(Integer::intValue).toArray();
+            this.full = full;
+        }
+
+        Head(CharSet[] sets, int[] kinds, boolean full) {
+            this.sets = sets;
+            this.kinds = kinds;
+            this.full = full;
+        }
+
+        int length() {
+            return sets.length;
+        }
+
+        /** The same steps with anything allowed after them, for matches that are followed by more text. */
+        Head prefix() {
+            return new Head(sets, kinds, false);
+        }
+    }
+
+    static Head head(String regex) {
+        List<CharSet> sets = new ArrayList<>();
+        List<Integer> kinds = new ArrayList<>();
+        if (hasTopLevelAlternation(regex)) return new Head(sets, kinds, false);
+        boolean full = new Reader(regex).read(sets, kinds);
+        return new Head(sets, kinds, full);
+    }
+
+    /** True only if no line can match both regexes. */
+    static boolean disjoint(Head a, Head b) {
+        int la = a.length(), lb = b.length();
+        if ((la == 0 && !a.full) || (lb == 0 && !b.full)) return false;
+        boolean[] seen = new boolean[(la + 1) * (lb + 1)];
+        ArrayDeque<int[]> queue = new ArrayDeque<>();
+        queue.add(new int[]{0, 0});
+        seen[0] = true;
+        while (!queue.isEmpty()) {
+            int[] st = queue.poll();
+            for (int i = st[0]; ; i++) {
+                for (int j = st[1]; ; j++) {
+                    if (i == la || j == lb) {
+                        // one head is complete here; a full head means the line ends too
+                        boolean aEnds = i == la && a.full, bEnds = j == lb && b.full;
+                        if (!(aEnds && j < lb) && !(bEnds && i < la)) return false;
+                    } else if (a.sets[i].intersects(b.sets[j])) {
+                        int ni = a.kinds[i] == STAR ? i : i + 1;
+                        int nj = b.kinds[j] == STAR ? j : j + 1;
+                        int key = ni * (lb + 1) + nj;
+                        if (!seen[key]) {
+                            seen[key] = true;
+                            queue.add(new int[]{ni, nj});
+                        }
+                    }
+                    if (j == lb || b.kinds[j] == ONE) break;
+                }
+                if (i == la || a.kinds[i] == ONE) break;
+            }
+        }
+        return true;
+    }
+
+    private static boolean hasTopLevelAlternation(String regex) {
+        int depth = 0;
+        boolean inClass = false;
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') i++;
+            else if (inClass) { if (c == ']') inClass = false; }
+            else if (c == '[') inClass = true;
+            else if (c == '(') depth++;
+            else if (c == ')') depth--;
+            else if (c == '|' && depth == 0) return true;
+        }
+        return false;
+    }
+
+    private static final class Reader {
+        private final String re;
+        private int i;
+
+        Reader(String re) {
+            this.re = re;
+        }
+
+        /** Appends steps while atoms are understood; true if the whole regex was consumed. */
+        boolean read(List<CharSet> sets, List<Integer> kinds) {
+            if (!skipFlags()) return false;
+            if (i < re.length() && re.charAt(i) == '^') i++;
+            while (i < re.length()) {
+                char c = re.charAt(i);
+                if (c == '$') return i == re.length() - 1;
+                if (c == '(') {
+                    int close = plainGroupEnd();
+                    if (close < 0 || (close + 1 < re.length() && "*+?{".indexOf(re.charAt(close + 1)) >= 0)) return false;
+                    i = re.startsWith("(?:", i) ? i + 3 : i + 1;
+                    while (i < close) {
+                        if (!atom(sets, kinds)) return false;
+                    }
+                    i = close + 1;
+                    continue;
+                }
+                if (!atom(sets, kinds)) return false;
+            }
+            return true;
+        }
+
+        /** Skips leading {@code (?i)} groups; false at any other flag group, whose effect is not modelled. */
+        private boolean skipFlags() {
+            while (re.startsWith("(?", i) && i + 2 < re.length() && (Character.isLetter(re.charAt(i + 2)) || re.charAt(i + 2) == '-')) {
+                int close = re.indexOf(')', i);
+                if (close < 0 || !re.substring(i + 2, close).chars().allMatch(ch -> ch == 'i')) return false;
+                i = close + 1;
+            }
+            return true;
+        }
+
+        /** Index of the ')' closing a capturing or (?: group with no nested groups or '|', else -1. */
+        private int plainGroupEnd() {
+            int j = i + 1;
+            if (re.startsWith("?", j)) {
+                if (!re.startsWith("?:", j)) return -1;
+                j += 2;
+            }
+            boolean inClass = false;
+            for (; j < re.length(); j++) {
+                char c = re.charAt(j);
+                if (c == '\\') j++;
+                else if (inClass) { if (c == ']') inClass = false; }
+                else if (c == '[') inClass = true;
+                else if (c == '(' || c == '|') return -1;
+                else if (c == ')') return j;
+            }
+            return -1;
+        }
+
+        /** Reads one atom and its quantifier into steps; false if it is not understood. */
+        private boolean atom(List<CharSet> sets, List<Integer> kinds) {
+            CharSet set;
+            char c = re.charAt(i);
+            if (c == '\\') {
+                if (i + 1 >= re.length()) return false;
+                char e = re.charAt(i + 1);
+                i += 2;
+                set = switch (e) {
+                    case 's' -> SPACE;
+                    case 'S' -> SPACE.negate();
+                    case 'd' -> DIGIT;
+                    case 'D' -> DIGIT.negate();
+                    case 'w' -> WORD;
+                    case 'W' -> WORD.negate();
+                    case 't' -> CharSet.of('\t');
+                    case 'n' -> CharSet.of('\n');
+                    case 'r' -> CharSet.of('\r');
+                    case 'f' -> CharSet.of('\f');
+                    default -> Character.isLetterOrDigit(e) ? null : CharSet.of(e);
+                };
+                if (set == null) return false;
+            } else if (c == '[') {
+                set = charClass();
+                if (set == null) return false;
+            } else if (c == '.') {
+                set = CharSet.ALL;
+                i++;
+            } else if ("()|*+?{}^$".indexOf(c) >= 0) {
+                return false;
+            } else {
+                set = CharSet.of(c);
+                i++;
+            }
+            int min = 1, max = 1;
+            if (i < re.length()) {
+                char q = re.charAt(i);
+                if (q == '*') { min = 0; max = -1; i++; }
+                else if (q == '+') { max = -1; i++; }
+                else if (q == '?') { min = 0; i++; }
+                else if (q == '{') {
+                    int close = re.indexOf('}', i);
+                    if (close < 0) return false;
+                    String[] mm = re.substring(i + 1, close).split(",", -1);
+                    try {
+                        min = Integer.parseInt(mm[0].trim());
+                        max = mm.length == 1 ? min : mm[1].isBlank() ? -1 : Integer.parseInt(mm[1].trim());
+                    } catch (NumberFormatException ex) {
+                        return false;
+                    }
+                    if (min > 64 || max > 64) return false;
+                    i = close + 1;
+                }
+                // lazy and possessive variants match the same set of strings
+                if (i < re.length() && (re.charAt(i) == '?' || re.charAt(i) == '+')) i++;
+            }
+            for (int k = 0; k < min; k++) { sets.add(set); kinds.add(ONE); }
+            if (max < 0) { sets.add(set); kinds.add(STAR); }
+            else for (int k = min; k < max; k++) { sets.add(set); kinds.add(OPTIONAL); }
+            return true;
+        }
+
+        private CharSet charClass() {
+            int j = i + 1;
+            boolean negate = j < re.length() && re.charAt(j) == '^';
+            if (negate) j++;
+            CharSet set = new CharSet(0, 0, false);
+            boolean first = true;
+            while (j < re.length()) {
+                char c = re.charAt(j);
+                if (c == ']' && !first) {
+                    i = j + 1;
+                    return negate ? set.negate() : set;
+                }
+                first = false;
+                if (c == '[' || (c == '&' && re.startsWith("&&", j))) return null;
+                char from;
+                if (c == '\\') {
+                    if (j + 1 >= re.length()) return null;
+                    char e = re.charAt(j + 1);
+                    j += 2;
+                    CharSet named = switch (e) {
+                        case 's' -> SPACE;
+                        case 'S' -> SPACE.negate();
+                        case 'd' -> DIGIT;
+                        case 'D' -> DIGIT.negate();
+                        case 'w' -> WORD;
+                        case 'W' -> WORD.negate();
+                        default -> null;
+                    };
+                    if (named != null) {
+                        set = set.union(named);
+                        continue;
+                    }
+                    if (Character.isLetterOrDigit(e) && "tnrf".indexOf(e) < 0) return null;
+                    from = switch (e) { case 't' -> '\t'; case 'n' -> '\n'; case 'r' -> '\r'; case 'f' -> '\f'; default -> e; };
+                } else {
+                    from = c;
+                    j++;
+                }
+                if (j + 1 < re.length() && re.charAt(j) == '-' && re.charAt(j + 1) != ']') {
+                    char to = re.charAt(j + 1);
+                    if (to == '\\' || to == '[') return null;
+                    j += 2;
+                    set = set.union(CharSet.range(from, to));
+                } else {
+                    set = set.union(CharSet.of(from));
+                }
+            }
+            return null;
+        }
+    }
+}
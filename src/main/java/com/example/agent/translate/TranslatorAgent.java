@@ -1,74 +1,196 @@
 package com.example.agent.translate;
 
 import com.example.agent.bootstrap.Improver;
+import com.example.agent.bootstrap.RefinementQueue;
 import com.example.agent.knowledge.RuleStore;
+import com.example.agent.metrics.MetricsRegistry;
+import com.example.agent.model.ir.CompactIR;
 import com.example.agent.model.ir.IR;
-import com.example.agent.providers.GigaChatOpenAIClient;
+import com.example.agent.providers.ChatClient;
 import com.example.agent.rag.SimpleIndexer;
 
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 
+/** Thread-safe; one instance can serve concurrent translations. */
 public class TranslatorAgent {
 
-    private final GigaChatOpenAIClient llm;
+    private final ChatClient llm;
     private final SimpleIndexer indexer;
     private final RuleStore ruleStore;
     private final DynamicDialectParser parser;
     private final IRToJava generator = new IRToJava();
     private final JavaVerifier verifier = new JavaVerifier();
     private final Improver improver;
+    private final RefinementQueue refinement;
+    private volatile MetricsRegistry metrics = MetricsRegistry.noop();
 
-    public TranslatorAgent(GigaChatOpenAIClient llm, SimpleIndexer indexer, RuleStore ruleStore) {
+    public TranslatorAgent(ChatClient llm, SimpleIndexer indexer, RuleStore ruleStore) {
+        this(llm, indexer, ruleStore, new DynamicDialectParser(ruleStore), null);
+    }
+
+    /**
+     * Shares {@code parser} (built over the same store) with other users of its compiled rules.
+     * With a {@code refinement} queue, rule refinement happens in the background instead of
+     * before translate/applyUserFix return; null keeps it synchronous.
+     */
+    public TranslatorAgent(ChatClient llm, SimpleIndexer indexer, RuleStore ruleStore, DynamicDialectParser parser,
+                           RefinementQueue refinement) {
         this.llm = llm;
         this.indexer = indexer;
         this.ruleStore = ruleStore;
-        this.parser = new DynamicDialectParser(ruleStore);
+        this.parser = parser;
         this.improver = new Improver(llm, ruleStore);
+        this.refinement = refinement;
     }
 
     public String translate(String source) throws IOException {
-        List<String> neighbors = indexer.topKSimilar(source, 5);
-        IR ir = parser.parse(source);
-        long unknowns = ir.nodes.stream().filter(n -> n instanceof IR.UnknownNode).count();
+        try (var total = metrics.time("translate")) {
+            List<String> neighbors;
+            try (var t = metrics.time("topK")) {
+                neighbors = indexer.topKSimilar(source, 5);
+            }
+            IR ir = parse(source);
+            long[] tally = tally(ir.nodes, new long[2]);
+
+            if (tally[1] > Math.max(2, tally[0] / 3)) {
+                String hint = askForIRHints(source, neighbors);
+                ir.nodes.add(new IR.UnknownNode("LLM_HINT: " + hint.replaceAll("\n", " ")));
+            }
+
+            String className = "TranslatedProgram";
+            String java = generate(ir, className);
 
-        if (unknowns > Math.max(2, ir.nodes.size()/3)) {
-            String hint = askForIRHints(source, neighbors);
-            ir.nodes.add(new IR.UnknownNode("LLM_HINT: " + hint.replaceAll("\n", " ")));
+            var res = verify(className, java);
+            if (!res.ok) {
+                String repaired = repair(java, res.diagnostics);
+                if (repaired != null) {
+                    refine(source, repaired, res.diagnostics);
+                    return repaired;
+                }
+            } else {
+                refine(source, java, "OK");
+            }
+            return java;
         }
+    }
+
+    /** Stage timings, counters and JFR events go here; also used by the agent's {@link Improver}. */
+    public void setMetrics(MetricsRegistry metrics) {
+        this.metrics = metrics;
+        improver.setMetrics(metrics);
+    }
+
+    /** See {@link DynamicDialectParser#rulesFingerprint()}. */
+    public String rulesFingerprint() {
+        return parser.rulesFingerprint();
+    }
 
-        String className = "TranslatedProgram";
-        String java = generator.generate(ir, className);
+    // Single stages of translate(), for pipelines that schedule them separately. All are thread-safe.
 
-        var res = verifier.compile(className, java);
-        if (!res.ok) {
-            String repaired = tryRepair(java, res.diagnostics);
-            if (repaired != null) {
-                improver.refineRules(source, repaired, res.diagnostics);
-                ruleStore.save();
-                return repaired;
+    /** Rules-only parse; no LLM hints. */
+    public IR parse(String source) {
+        IR ir;
+        try (var t = metrics.time("parse")) {
+            ir = parser.parse(source);
+        }
+        long[] tally = tally(ir.nodes, new long[2]);
+        metrics.increment("parse.lines", tally[0]);
+        metrics.increment("parse.unknown", tally[1]);
+        return ir;
+    }
+
+    /** Adds {nodes, unknown nodes} over {@code nodes} and all nested bodies to {@code acc}. */
+    private static long[] tally(List<IR.Node> nodes, long[] acc) {
+        for (IR.Node n : nodes) {
+            acc[0]++;
+            if (n instanceof IR.UnknownNode) acc[1]++;
+            else if (n instanceof IR.If i) {
+                tally(i.thenBody, acc);
+                tally(i.elseBody, acc);
+            } else if (n instanceof IR.Loop l) {
+                tally(l.body, acc);
             }
-        } else {
-            improver.refineRules(source, java, "OK");
-            ruleStore.save();
         }
-        return java;
+        return acc;
+    }
+
+    /** Rules-only parse into the columnar form; same counters as {@link #parse}. */
+    public CompactIR parseCompact(String source) {
+        CompactIR ir;
+        try (var t = metrics.time("parse")) {
+            ir = parser.parseCompact(source);
+        }
+        long unknowns = 0;
+        for (int n = 0; n < ir.size(); n++) if (ir.op(n) == CompactIR.UNKNOWN) unknowns++;
+        metrics.increment("parse.lines", ir.size());
+        metrics.increment("parse.unknown", unknowns);
+        return ir;
+    }
+
+    public String generate(CompactIR ir, String className) {
+        try (var t = metrics.time("generate")) {
+            return generator.generate(ir, className);
+        }
+    }
+
+    public String generate(IR ir, String className) {
+        try (var t = metrics.time("generate")) {
+            return generator.generate(ir, className);
+        }
+    }
+
+    public JavaVerifier.Result verify(String className, String java) {
+        JavaVerifier.Result res;
+        try (var t = metrics.time("verify")) {
+            res = verifier.compile(className, java);
+        }
+        if (!res.ok) metrics.increment("verify.failures");
+        return res;
+    }
+
+    /** One LLM repair attempt for code that failed to compile; null if the reply is not usable. */
+    public String repair(String java, String diagnostics) throws IOException {
+        try (var t = metrics.time("llm.repair")) {
+            return tryRepair(java, diagnostics);
+        }
     }
 
     public String applyUserFix(String source, String currentJava, String userFeedback) throws IOException {
+        try (var total = metrics.time("fix")) {
+            return applyUserFixTimed(source, currentJava, userFeedback);
+        }
+    }
+
+    private String applyUserFixTimed(String source, String currentJava, String userFeedback) throws IOException {
         String prompt = "Исправь Java-код согласно замечаниям пользователя, сохрани функциональность:\n\n" +
                 "Замечания:\n" + userFeedback + "\n\nКод:\n" + currentJava +
                 "\n\nВерни только исправленный Java.";
-        String fixed = llm.chat(List.of(
-                Map.of("role","system","content","Ты опытный Java-разработчик. Возвращай только компилируемый код."),
-                Map.of("role","user","content", prompt)
-        ), 0.2);
-        improver.refineRules(source, fixed, userFeedback);
-        ruleStore.save();
+        String fixed;
+        try (var t = metrics.time("llm.fix")) {
+            fixed = llm.chat(List.of(
+                    Map.of("role","system","content","Ты опытный Java-разработчик. Возвращай только компилируемый код."),
+                    Map.of("role","user","content", prompt)
+            ), 0.2);
+        }
+        refine(source, fixed, userFeedback);
         return fixed;
     }
 
+    private void refine(String source, String java, String feedback) throws IOException {
+        try (var t = metrics.time("refine")) {
+            if (refinement != null) {
+                if (!refinement.submit(source, java, feedback)) metrics.increment("refine.notQueued");
+                return;
+            }
+            improver.refineRules(source, java, feedback);
+        }
+        try (var t = metrics.time("save")) {
+            ruleStore.save();
+        }
+    }
+
     private String askForIRHints(String source, List<String> neighbors) throws IOException {
         StringBuilder sb = new StringBuilder();
         sb.append("По коду неизвестного диалекта дай краткие подсказки для построения IR (Assign/Call/If/Loop/Decl). ");
@@ -76,10 +198,12 @@ public class TranslatorAgent {
         sb.append("Примеры:\n");
         for (String n : neighbors) sb.append("----\n").append(n).append("\n");
         sb.append("\nАнализируемый фрагмент:\n").append(source).append("\n");
-        return llm.chat(List.of(
-                Map.of("role","system","content","Отвечай коротко и структурно."),
-                Map.of("role","user","content", sb.toString())
-        ), 0.2);
+        try (var t = metrics.time("llm.hint")) {
+            return llm.chat(List.of(
+                    Map.of("role","system","content","Отвечай коротко и структурно."),
+                    Map.of("role","user","content", sb.toString())
+            ), 0.2);
+        }
     }
 
     private String tryRepair(String java, String diagnostics) throws IOException {
@@ -6,6 +6,7 @@ import com.example.agent.knowledge.Rule;
 import com.example.agent.knowledge.RuleStore;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import java.nio.file.Path;
 
@@ -13,6 +14,9 @@ import static org.junit.jupiter.api.Assertions.*;
 
 public class ParserSmokeTest {
 
+    @TempDir
+    Path tmp;
+
     @Test
     void dynamicParserLoadsRules() throws Exception {
         var store = new RuleStore(Path.of("runtime"));
@@ -20,4 +24,89 @@ public class ParserSmokeTest {
         var parser = new DynamicDialectParser(store);
         assertNotNull(parser);
     }
+
+    @Test
+    void firstMatchingRuleWinsAcrossDispatchBuckets() throws Exception {
+        var store = new RuleStore(tmp);
+        store.addOrUpdateRule(new Rule("anyAssign", "Assign", "^\\s*(\\w+)\\s*:=\\s*(.+);\\s*$", new String[]{"name", "expr"}, null, null));
+        store.addOrUpdateRule(new Rule("decl", "Decl", "^\\s*DECLARE\\s+(\\w+)\\s*:\\s*(\\w+)\\s*;\\s*$", new String[]{"name", "type"}, null, null));
+        store.addOrUpdateRule(new Rule("ifAssign", "Call", "^\\s*(if)\\s*:=\\s*(.+);\\s*$", new String[]{"callee", "args"}, new String[]{"args"}, null));
+        for (int i = 0; i < 500; i++) {
+            store.addOrUpdateRule(new Rule("noise" + i, "Call", "^\\s*KW" + i + "\\s*\\((.*)\\)\\s*;$", new String[]{"callee"}, null, null));
+        }
+        var parser = new DynamicDialectParser(store);
+
+        IR ir = parser.parse("DECLARE x: INT;\nif := 1;\n\nx := 10;\nprint(x);");
+        assertEquals(4, ir.nodes.size());
+        assertInstanceOf(IR.Decl.class, ir.nodes.get(0));
+        assertInstanceOf(IR.Assign.class, ir.nodes.get(1));
+        assertEquals("10", ((IR.Assign) ir.nodes.get(2)).expr);
+        assertInstanceOf(IR.UnknownNode.class, ir.nodes.get(3));
+    }
+
+    @Test
+    void invalidRulesAreRejectedAtLoad() throws Exception {
+        var store = new RuleStore(tmp);
+        store.addOrUpdateRule(new Rule("call", "Call", "^\\s*(\\w+)\\((.*)\\);$", new String[]{"callee", "args"}, new String[]{"args"}, null));
+        store.addOrUpdateRule(new Rule("typo", "Assignment", "^(\\w+)=(.*)$", new String[]{"name", "expr"}, null, null));
+        store.addOrUpdateRule(new Rule("short", "Assign", "^(\\w+)=.*$", new String[]{"name", "expr"}, null, null));
+        store.addOrUpdateRule(new Rule("badRegex", "If", "^IF (.+ THEN$", new String[]{"cond"}, null, null));
+        var parser = new DynamicDialectParser(store);
+
+        assertEquals(3, parser.rejectedRules().size());
+        IR ir = parser.parse("print(a, b ,c);");
+        var call = assertInstanceOf(IR.Call.class, ir.nodes.get(0), "call node");
+        assertEquals("print", call.callee);
+        assertEquals(java.util.List.of("a", "b", "c"), call.args);
+    }
+
+    @Test
+    void streamingParseMatchesStringParse() throws Exception {
+        var store = new RuleStore(tmp);
+        store.addOrUpdateRule(new Rule("assign", "Assign", "^\\s*(\\w+)\\s*:=\\s*(.+);\\s*$", new String[]{"name", "expr"}, null, null));
+        var parser = new DynamicDialectParser(store);
+        String src = "x := 1;\r\n\n  y := x + 1;\nwhat\n";
+
+        var eager = parser.parse(src).nodes;
+        try (var nodes = parser.parse(new java.io.StringReader(src))) {
+            var lazy = nodes.toList();
+            assertEquals(eager.size(), lazy.size());
+            for (int i = 0; i < eager.size(); i++) assertEquals(eager.get(i).getClass(), lazy.get(i).getClass());
+        }
+    }
+
+    @Test
+    void parserPicksUpRuleChangesWhileOthersParse() throws Exception {
+        var store = new RuleStore(tmp);
+        store.addOrUpdateRule(new Rule("assign", "Assign", "^\\s*(\\w+)\\s*:=\\s*(.+);\\s*$", new String[]{"name", "expr"}, null, null));
+        var parser = new DynamicDialectParser(store);
+        long v0 = parser.rulesVersion();
+        assertInstanceOf(IR.UnknownNode.class, parser.parseLine("print(x);"));
+
+        var stop = new java.util.concurrent.atomic.AtomicBoolean();
+        var errors = new java.util.concurrent.ConcurrentLinkedQueue<Throwable>();
+        var readers = new java.util.ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            readers.add(Thread.ofPlatform().start(() -> {
+                try {
+                    while (!stop.get()) {
+                        if (!(parser.parseLine("x := 1;") instanceof IR.Assign)) throw new AssertionError("assign lost");
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            }));
+        }
+        for (int i = 0; i < 200; i++) {
+            store.addOrUpdateRule(new Rule("kw" + i, "Call", "^\\s*KW" + i + "\\((.*)\\);$", new String[]{"callee"}, null, null));
+        }
+        store.addOrUpdateRule(new Rule("call", "Call", "^\\s*(\\w+)\\((.*)\\);$", new String[]{"callee", "args"}, new String[]{"args"}, null));
+        stop.set(true);
+        for (Thread t : readers) t.join();
+        assertTrue(errors.isEmpty(), errors.toString());
+
+        assertInstanceOf(IR.Call.class, parser.parseLine("print(x);"));
+        assertEquals(store.rulesVersion(), parser.rulesVersion());
+        assertTrue(parser.rulesVersion() > v0);
+    }
 }
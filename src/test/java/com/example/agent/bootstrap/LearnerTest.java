@@ -0,0 +1,98 @@
+package com.example.agent.bootstrap;
+
+import com.example.agent.knowledge.RuleStore;
+import com.example.agent.providers.ChatClient;
+import com.example.agent.rag.SimpleIndexer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LearnerTest {
+
+    private static final String RULES =
+            "{\"id\":\"assign\",\"irType\":\"Assign\",\"regex\":\"^(\\\\w+) := (.*);$\",\"fields\":[\"name\",\"expr\"]}\n"
+            + "not json\n"
+            + "{\"id\":\"call\",\"irType\":\"Call\",\"regex\":\"^(\\\\w+)\\\\((.*)\\\\);$\",\"fields\":[\"callee\",\"args\"]}\n";
+
+    @TempDir
+    Path tmp;
+
+    private Path repo(int files) throws IOException {
+        Path root = tmp.resolve("repo");
+        Files.createDirectories(root.resolve("sub"));
+        for (int i = 0; i < files; i++) Files.writeString(root.resolve("sub/p" + i + ".dlx"), "x := " + i + ";\n");
+        Files.writeString(root.resolve("sub/bad.dlx"), "BOOM\n");
+        Files.writeString(root.resolve("readme.txt"), "ignored");
+        return root;
+    }
+
+    @Test
+    void countsFilesAndKeepsGoingPastAFailure() throws Exception {
+        Path root = repo(5);
+        AtomicInteger calls = new AtomicInteger();
+        ChatClient llm = (messages, temperature) -> {
+            calls.incrementAndGet();
+            if (messages.get(1).get("content").contains("BOOM")) throw new IOException("model unavailable");
+            return RULES;
+        };
+        try (var store = new RuleStore(tmp.resolve("rt"))) {
+            var learner = new Learner(llm, store, new SimpleIndexer());
+            LearnStats first = learner.learnFromRepo(root, List.of(".dlx"));
+            assertEquals(6, first.discovered());
+            assertEquals(5, first.learned());
+            assertEquals(1, first.failed());
+            assertEquals(10, first.rules(), "two valid rules per file, the junk line is skipped");
+            assertEquals(1, first.failures().size());
+            assertTrue(first.failures().get(0).contains("bad.dlx") && first.failures().get(0).contains("model unavailable"),
+                    first.failures().toString());
+            assertEquals(2, store.allRules().size());
+
+            LearnStats second = learner.learnFromRepo(root, List.of(".dlx"));
+            assertEquals(5, second.skipped(), "processed files are not sent again");
+            assertEquals(1, second.failed(), "the failed file is retried");
+            assertEquals(0, second.learned());
+            assertEquals(7, calls.get());
+        }
+    }
+
+    @Test
+    void parallelRunOverlapsCallsUpToTheLimit() throws Exception {
+        Path root = repo(12);
+        CountDownLatch together = new CountDownLatch(3);
+        AtomicInteger inFlight = new AtomicInteger(), maxInFlight = new AtomicInteger();
+        ChatClient llm = (messages, temperature) -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                together.countDown();
+                // the first three calls only return once all three are in flight at once
+                if (!together.await(10, TimeUnit.SECONDS)) throw new IOException("calls were not concurrent");
+                if (messages.get(1).get("content").contains("BOOM")) throw new IOException("model unavailable");
+                return RULES;
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        };
+        try (var store = new RuleStore(tmp.resolve("rt"))) {
+            LearnStats stats = new Learner(llm, store, new SimpleIndexer()).learnFromRepo(root, List.of(".dlx"), 3);
+            assertEquals(13, stats.discovered());
+            assertEquals(12, stats.learned(), stats.failures().toString());
+            assertEquals(1, stats.failed());
+            assertEquals(24, stats.rules());
+            assertEquals(0, stats.inFlightLlm());
+            assertEquals(3, maxInFlight.get(), "concurrency bounds the calls in flight");
+            for (int i = 0; i < 12; i++) assertTrue(store.isProcessed(root, root.resolve("sub/p" + i + ".dlx")));
+            assertFalse(store.isProcessed(root, root.resolve("sub/bad.dlx")));
+        }
+    }
+}
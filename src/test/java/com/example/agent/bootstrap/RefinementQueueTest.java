@@ -0,0 +1,94 @@
+package com.example.agent.bootstrap;
+
+import com.example.agent.knowledge.RuleStore;
+import com.example.agent.providers.ChatClient;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RefinementQueueTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void mergesSamplesIntoOneBatchAndDedupes() throws Exception {
+        List<String> prompts = new CopyOnWriteArrayList<>();
+        ChatClient llm = (messages, temperature) -> {
+            prompts.add(messages.get(1).get("content"));
+            return "{\"id\":\"assign\",\"irType\":\"Assign\",\"regex\":\"^(\\\\w+) := (.*);$\",\"fields\":[\"name\",\"expr\"]}\n"
+                    + "{\"id\":\"call\",\"irType\":\"Call\",\"regex\":\"^(\\\\w+)\\\\((.*)\\\\);$\",\"fields\":[\"callee\",\"args\"]}";
+        };
+        try (var store = new RuleStore(dir);
+             var queue = new RefinementQueue(new Improver(llm, store), store, 16, 8, Duration.ofMinutes(1), RefinementQueue.DropPolicy.DROP_OLDEST)) {
+            long v0 = store.rulesVersion();
+            assertTrue(queue.submit("x := 1;", "var x = 1;", "OK"));
+            assertFalse(queue.submit("x  :=  2;", "var x = 2;", "OK"), "same code with other literals is a duplicate");
+            assertTrue(queue.submit("print(x);", "print(x);", "cannot find symbol"));
+            assertTrue(queue.submit("y := 'a';", "var y = \"a\";", "OK"));
+
+            assertTrue(queue.flush(Duration.ofSeconds(10)));
+            assertEquals(1, prompts.size());
+            assertTrue(prompts.get(0).contains("Пара 3"), prompts.get(0));
+            assertEquals(2, store.allRules().size());
+            assertEquals(v0 + 1, store.rulesVersion(), "a batch is one snapshot update");
+
+            assertFalse(queue.submit("x := 3;", "var x = 3;", "OK"), "already refined");
+        }
+    }
+
+    @Test
+    void fullQueueDropsOldestSample() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> prompts = new CopyOnWriteArrayList<>();
+        ChatClient llm = (messages, temperature) -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new java.io.IOException(e);
+            }
+            prompts.add(messages.get(1).get("content"));
+            return "";
+        };
+        try (var store = new RuleStore(dir);
+             var queue = new RefinementQueue(new Improver(llm, store), store, 2, 1, Duration.ZERO, RefinementQueue.DropPolicy.DROP_OLDEST)) {
+            queue.submit("first;", "", "OK");
+            while (queue.pending() > 0) Thread.sleep(5); // the worker is now blocked on "first"
+            queue.submit("a;", "", "OK");
+            queue.submit("b;", "", "OK");
+            queue.submit("c;", "", "OK");
+            release.countDown();
+            assertTrue(queue.flush(Duration.ofSeconds(10)));
+            assertEquals(3, prompts.size());
+            assertFalse(prompts.stream().anyMatch(p -> p.contains("\na;\n")), "oldest queued sample is dropped");
+            assertTrue(queue.toString().contains("dropped=1"), queue.toString());
+        }
+    }
+
+    @Test
+    void workerSurvivesAnErrorInABatch() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        ChatClient llm = (messages, temperature) -> {
+            if (calls.incrementAndGet() == 1) throw new StackOverflowError("pathological regex");
+            return "{\"id\":\"assign\",\"irType\":\"Assign\",\"regex\":\"^(\\\\w+) := (.*);$\",\"fields\":[\"name\",\"expr\"]}";
+        };
+        try (var store = new RuleStore(dir);
+             var queue = new RefinementQueue(new Improver(llm, store), store, 16, 1, Duration.ZERO, RefinementQueue.DropPolicy.DROP_OLDEST)) {
+            queue.submit("x := 1;", "var x = 1;", "OK");
+            assertTrue(queue.flush(Duration.ofSeconds(10)), "the failed batch is settled");
+            queue.submit("y := 'a';", "var y = \"a\";", "OK");
+            assertTrue(queue.flush(Duration.ofSeconds(10)), "the worker is still running");
+            assertEquals(2, calls.get());
+            assertEquals(1, store.allRules().size());
+            assertTrue(queue.toString().contains("failed=1"), queue.toString());
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.agent.knowledge;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RuleStoreTest {
+
+    @TempDir
+    Path dir;
+
+    private static Rule rule(String id, String regex) {
+        return new Rule(id, "Assign", regex, new String[]{"name", "expr"}, null, null);
+    }
+
+    @Test
+    void journalReplaysUpsertsInOriginalOrder() throws Exception {
+        try (var store = new RuleStore(dir)) {
+            store.addOrUpdateRule(rule("a", "^(a)=(.*)$"));
+            store.addOrUpdateRule(rule("b", "^(b)=(.*)$"));
+            store.save();
+            store.addOrUpdateRule(rule("a", "^(A)=(.*)$"));
+        }
+        assertFalse(Files.exists(dir.resolve("rules.jsonl")), "save must not rewrite the snapshot");
+
+        try (var store = new RuleStore(dir)) {
+            var rules = store.allRules();
+            assertEquals(2, rules.size());
+            assertEquals("a", rules.get(0).id);
+            assertEquals("^(A)=(.*)$", rules.get(0).regex);
+            assertEquals("b", rules.get(1).id);
+        }
+    }
+
+    @Test
+    void compactionWritesSnapshotsAndToleratesTornJournal() throws Exception {
+        Path src = Files.writeString(dir.resolve("f.dlx"), "x := 1;");
+        try (var store = new RuleStore(dir)) {
+            store.addOrUpdateRule(rule("a", "^(a)=(.*)$"));
+            store.markProcessed(dir, src);
+            store.compact();
+            store.addOrUpdateRule(rule("c", "^(c)=(.*)$"));
+        }
+        assertEquals(1, Files.readAllLines(dir.resolve("rules.jsonl")).size());
+        Files.writeString(dir.resolve("store.journal"), "{\"op\":\"rule\",\"rule\":{\"id\":\"d\"", StandardOpenOption.APPEND);
+
+        try (var store = new RuleStore(dir)) {
+            assertEquals(2, store.allRules().size());
+            assertTrue(store.isProcessed(dir, src));
+        }
+    }
+
+    @Test
+    void entrySavedAfterATornLineSurvivesReload() throws Exception {
+        try (var store = new RuleStore(dir)) {
+            store.addOrUpdateRule(rule("a", "^(a)=(.*)$"));
+        }
+        Files.writeString(dir.resolve("store.journal"), "{\"op\":\"rule\",\"rule\":{\"id\":\"torn\"", StandardOpenOption.APPEND);
+
+        try (var store = new RuleStore(dir)) {
+            assertEquals(1, store.allRules().size());
+            store.addOrUpdateRule(rule("b", "^(b)=(.*)$"));
+            store.save();
+        }
+        try (var store = new RuleStore(dir)) {
+            assertEquals(List.of("a", "b"), store.allRules().stream().map(r -> r.id).toList());
+        }
+        assertFalse(Files.readString(dir.resolve("store.journal")).contains("torn"));
+    }
+
+    @Test
+    void unchangedStatDataSkipsRehashing() throws Exception {
+        Path src = Files.writeString(dir.resolve("f.dlx"), "x := 1;");
+        var old = java.nio.file.attribute.FileTime.fromMillis(System.currentTimeMillis() - 60_000);
+        Files.setLastModifiedTime(src, old);
+        try (var store = new RuleStore(dir)) {
+            store.markProcessed(dir, src);
+        }
+        // same size and mtime: trusted without reading the content
+        Files.writeString(src, "y := 2;");
+        Files.setLastModifiedTime(src, old);
+        try (var store = new RuleStore(dir)) {
+            assertTrue(store.isProcessed(dir, src));
+            Files.setLastModifiedTime(src, java.nio.file.attribute.FileTime.fromMillis(old.toMillis() + 1000));
+            assertFalse(store.isProcessed(dir, src));
+        }
+    }
+
+    @Test
+    void usageSurvivesRestartAndPruneRetiresIdleRules() throws Exception {
+        try (var store = new RuleStore(dir)) {
+            store.addOrUpdateRules(java.util.List.of(rule("hot", "^(a)=(.*)$"), rule("cold", "^(b)=(.*)$"), rule("new", "^(c)=(.*)$")));
+            for (int i = 0; i < 100; i++) store.usage("hot").hit(store.countLine(), 10);
+            store.usage("cold").miss(10);
+        }
+        try (var store = new RuleStore(dir)) {
+            assertEquals(100, store.usage("hot").hits(), "stats reloaded");
+            assertEquals(100, store.linesParsed());
+            store.addOrUpdateRule(rule("new", "^(C)=(.*)$")); // changed regex restarts its window
+            for (int i = 0; i < 50; i++) store.countLine();
+            store.usage("hot").hit(store.countLine(), 10);
+
+            var retired = store.prune(100);
+            assertEquals(1, retired.size(), retired.toString());
+            assertTrue(retired.get(0).startsWith("cold: no hits"), retired.get(0));
+            assertEquals(java.util.List.of("hot", "new"), store.allRules().stream().map(r -> r.id).toList());
+        }
+        assertTrue(Files.readString(dir.resolve("retired_rules.jsonl")).contains("\"cold\""));
+        try (var store = new RuleStore(dir)) {
+            assertEquals(2, store.allRules().size(), "removal is journaled");
+        }
+    }
+}
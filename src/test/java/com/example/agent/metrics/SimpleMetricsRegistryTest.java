@@ -0,0 +1,54 @@
+package com.example.agent.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SimpleMetricsRegistryTest {
+
+    @Test
+    void percentilesAreWithinBucketResolution() {
+        var registry = new SimpleMetricsRegistry();
+        for (int i = 1; i <= 1000; i++) registry.record("parse", TimeUnit.MICROSECONDS.toNanos(i));
+
+        var t = registry.snapshot().timings.get("parse");
+        assertEquals(1000, t.count, "count");
+        assertEquals(TimeUnit.MICROSECONDS.toNanos(1000), t.maxNanos, "max is exact");
+        assertNear(500_000, t.p50Nanos, "p50");
+        assertNear(900_000, t.p90Nanos, "p90");
+        assertNear(990_000, t.p99Nanos, "p99");
+        assertNear(500_500, (long) t.meanNanos(), "mean");
+    }
+
+    @Test
+    void countersAndUnknownRatio() {
+        var registry = new SimpleMetricsRegistry();
+        registry.increment("parse.lines", 40);
+        registry.increment("parse.unknown", 10);
+        registry.increment("verify.failures");
+        registry.increment("verify.failures");
+
+        var s = registry.snapshot();
+        assertEquals(2, s.counter("verify.failures"), "failures");
+        assertEquals(0, s.counter("missing"), "absent counter");
+        assertEquals(0.25, s.unknownRatio(), 1e-9);
+        assertTrue(s.format().contains("unknown ratio"), s.format());
+    }
+
+    @Test
+    void timerRecordsOnClose() throws Exception {
+        var registry = new SimpleMetricsRegistry();
+        try (var t = registry.time("llm.repair")) {
+            Thread.sleep(5);
+        }
+        var timing = registry.snapshot().timings.get("llm.repair");
+        assertEquals(1, timing.count, "count");
+        assertTrue(timing.totalNanos >= TimeUnit.MILLISECONDS.toNanos(5), "duration " + timing.totalNanos);
+    }
+
+    private static void assertNear(long expected, long actual, String what) {
+        assertTrue(Math.abs(actual - expected) <= expected / 8, what + ": expected ~" + expected + " got " + actual);
+    }
+}
@@ -0,0 +1,147 @@
+package com.example.agent.providers;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CachingChatClientTest {
+
+    @TempDir
+    Path dir;
+
+    private final AtomicInteger calls = new AtomicInteger();
+    private final ChatClient llm = (messages, temperature) -> {
+        calls.incrementAndGet();
+        return "reply to " + messages.get(0).get("content");
+    };
+
+    private CachingChatClient cache(CachingChatClient.Mode mode, long maxBytes, Duration maxAge) throws IOException {
+        return new CachingChatClient(llm, "m", dir, mode, maxBytes, maxAge);
+    }
+
+    private static List<Map<String, String>> ask(String content) {
+        return List.of(Map.of("role", "user", "content", content));
+    }
+
+    private Path entry(CachingChatClient c, String content) throws IOException {
+        String key = c.key(ask(content), 0.2);
+        return dir.resolve(key.substring(0, 2)).resolve(key + ".json");
+    }
+
+    @Test
+    void keyIgnoresMapOrderButNotModelOrTemperature() throws Exception {
+        var c = cache(CachingChatClient.Mode.READ_WRITE, 1 << 20, Duration.ofDays(1));
+        Map<String, String> a = new LinkedHashMap<>(), b = new LinkedHashMap<>();
+        a.put("role", "user");
+        a.put("content", "hi");
+        b.put("content", "hi");
+        b.put("role", "user");
+        assertEquals(c.key(List.of(a), 0.2), c.key(List.of(b), 0.2));
+        assertNotEquals(c.key(List.of(a), 0.2), c.key(List.of(a), 0.3));
+        var other = new CachingChatClient(llm, "other-model", dir, CachingChatClient.Mode.READ_WRITE, 1 << 20, Duration.ofDays(1));
+        assertNotEquals(c.key(List.of(a), 0.2), other.key(List.of(a), 0.2));
+
+        assertEquals("reply to hi", c.chat(List.of(a), 0.2));
+        assertEquals("reply to hi", c.chat(List.of(b), 0.2));
+        assertEquals(1, calls.get());
+        assertEquals(1, c.hits());
+        assertEquals(1, c.misses());
+    }
+
+    @Test
+    void replayServesHitsAndFailsOnMiss() throws Exception {
+        cache(CachingChatClient.Mode.READ_WRITE, 1 << 20, Duration.ofDays(1)).chat(ask("known"), 0.2);
+        var replay = cache(CachingChatClient.Mode.REPLAY, 1 << 20, Duration.ofDays(1));
+        assertEquals("reply to known", replay.chat(ask("known"), 0.2));
+        var e = assertThrows(IOException.class, () -> replay.chat(ask("unknown"), 0.2));
+        assertTrue(e.getMessage().contains("replay"), e.getMessage());
+        assertEquals(1, calls.get(), "replay never calls through");
+        assertFalse(Files.exists(entry(replay, "unknown")));
+    }
+
+    @Test
+    void expiredEntriesAreDroppedOnOpenAndOnRead() throws Exception {
+        var c = cache(CachingChatClient.Mode.READ_WRITE, 1 << 20, Duration.ofHours(1));
+        c.chat(ask("a"), 0.2);
+        c.chat(ask("b"), 0.2);
+        FileTime old = FileTime.fromMillis(System.currentTimeMillis() - Duration.ofHours(2).toMillis());
+        Files.setLastModifiedTime(entry(c, "a"), old);
+
+        var reopened = cache(CachingChatClient.Mode.READ_WRITE, 1 << 20, Duration.ofHours(1));
+        assertFalse(Files.exists(entry(c, "a")), "evicted on open");
+        Files.setLastModifiedTime(entry(c, "b"), old);
+        reopened.chat(ask("b"), 0.2);
+        assertEquals(3, calls.get(), "an expired entry is a miss");
+    }
+
+    @Test
+    void sizeLimitEvictsLeastRecentlyUsedFirst() throws Exception {
+        var c = cache(CachingChatClient.Mode.READ_WRITE, 1 << 20, Duration.ofDays(1));
+        long now = System.currentTimeMillis();
+        String[] names = {"a", "b", "c"};
+        for (int i = 0; i < names.length; i++) {
+            c.chat(ask(names[i]), 0.2);
+            Files.setLastModifiedTime(entry(c, names[i]), FileTime.fromMillis(now - 10_000 + i * 1000L));
+        }
+        long size = Files.size(entry(c, "a"));
+
+        // a fresh instance reads "a" from disk, which makes it the most recently used
+        cache(CachingChatClient.Mode.READ_WRITE, 1 << 20, Duration.ofDays(1)).chat(ask("a"), 0.2);
+        assertEquals(3, calls.get());
+
+        var small = cache(CachingChatClient.Mode.READ_WRITE, size * 5 / 2, Duration.ofDays(1));
+        assertTrue(Files.exists(entry(small, "a")));
+        assertFalse(Files.exists(entry(small, "b")), "least recently used goes first");
+        assertTrue(Files.exists(entry(small, "c")));
+    }
+
+    @Test
+    void memoryHitsExpireAndCountAsUseForEviction() throws Exception {
+        var shortLived = cache(CachingChatClient.Mode.READ_WRITE, 1 << 20, Duration.ofMillis(200));
+        shortLived.chat(ask("stale"), 0.2);
+        Thread.sleep(300);
+        shortLived.chat(ask("stale"), 0.2);
+        assertEquals(2, calls.get(), "an expired entry is not served from memory");
+        assertEquals(0, shortLived.hits());
+
+        var probe = cache(CachingChatClient.Mode.READ_WRITE, 1 << 20, Duration.ofDays(1));
+        probe.chat(ask("a"), 0.2);
+        long size = Files.size(entry(probe, "a"));
+        var c = cache(CachingChatClient.Mode.READ_WRITE, size * 7 / 2, Duration.ofDays(1));
+        long now = System.currentTimeMillis();
+        String[] names = {"a", "b", "c"};
+        for (int i = 0; i < names.length; i++) {
+            c.chat(ask(names[i]), 0.2);
+            Files.setLastModifiedTime(entry(c, names[i]), FileTime.fromMillis(now - 30_000 + i * 10_000L));
+        }
+        for (int i = 0; i < 3; i++) c.chat(ask("a"), 0.2);
+        int before = calls.get();
+
+        c.chat(ask("d"), 0.2); // over the limit: evicts the least recently used, which is "b"
+        assertTrue(Files.exists(entry(c, "a")), "a hot entry survives eviction");
+        assertFalse(Files.exists(entry(c, "b")));
+        c.chat(ask("b"), 0.2);
+        assertEquals(before + 2, calls.get(), "an evicted entry is not served from memory either");
+    }
+
+    @Test
+    void modeParsingRejectsTypos() {
+        assertEquals(CachingChatClient.Mode.READ_WRITE, CachingChatClient.Mode.parse(null));
+        assertEquals(CachingChatClient.Mode.READ_WRITE, CachingChatClient.Mode.parse(" RW "));
+        assertEquals(CachingChatClient.Mode.BYPASS, CachingChatClient.Mode.parse("off"));
+        assertEquals(CachingChatClient.Mode.BYPASS, CachingChatClient.Mode.parse("Bypass"));
+        assertEquals(CachingChatClient.Mode.REPLAY, CachingChatClient.Mode.parse("replay"));
+        assertThrows(IllegalArgumentException.class, () -> CachingChatClient.Mode.parse("repaly"));
+    }
+}
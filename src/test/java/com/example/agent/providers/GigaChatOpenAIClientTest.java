@@ -0,0 +1,98 @@
+package com.example.agent.providers;
+
+import com.example.agent.metrics.SimpleMetricsRegistry;
+import com.fasterxml.jackson.core.JsonFactory;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GigaChatOpenAIClientTest {
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private static GigaChatOpenAIClient.Completion parse(String body, String container) throws Exception {
+        try (var p = JSON.createParser(body)) {
+            return GigaChatOpenAIClient.parseCompletion(p, container);
+        }
+    }
+
+    /** Hands out at most {@code step} bytes per read, as a slow network would. */
+    private static InputStream trickle(String body, int step) {
+        return new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, step));
+            }
+        };
+    }
+
+    @Test
+    void parsesContentAndUsageSkippingEverythingElse() throws Exception {
+        var c = parse("{\"id\":\"x\",\"choices\":[{\"index\":0,\"message\":{\"role\":\"assistant\",\"content\":\"hi \\\"there\\\"\",\"extra\":{\"a\":[1,2]}}},"
+                + "{\"message\":{\"content\":\"second\"}}],\"usage\":{\"prompt_tokens\":12,\"completion_tokens\":3,\"total_tokens\":15},\"tail\":[{}]}", "message");
+        assertEquals("hi \"there\"", c.content);
+        assertEquals(12, c.promptTokens);
+        assertEquals(3, c.completionTokens);
+    }
+
+    @Test
+    void missingPartsStayUnset() throws Exception {
+        var noUsage = parse("{\"choices\":[{\"message\":{\"content\":\"ok\"}}]}", "message");
+        assertEquals("ok", noUsage.content);
+        assertEquals(-1, noUsage.promptTokens);
+        assertEquals(-1, noUsage.completionTokens);
+
+        assertNull(parse("{\"choices\":[{\"message\":{\"content\":null}}]}", "message").content);
+        assertNull(parse("{\"choices\":[]}", "message").content);
+        assertNull(parse("{\"choices\":[{\"delta\":{\"content\":\"x\"}}]}", "message").content, "other container");
+        assertNull(parse("[]", "message").content);
+    }
+
+    @Test
+    void streamsDeltasUntilDone() throws Exception {
+        var metrics = new SimpleMetricsRegistry();
+        var client = new GigaChatOpenAIClient("http://localhost:1/", "key", "model");
+        client.setMetrics(metrics);
+        String sse = ": keep-alive\r\n\r\n"
+                + "data: {\"choices\":[{\"delta\":{\"role\":\"assistant\"}}]}\r\n\r\n"
+                + "data: {\"choices\":[{\"delta\":{\"content\":\"{\\\"id\\\":\\\"a\\\"}\\nприв\"}}]}\n\n"
+                + "event: ping\n"
+                + "data:\n\n"
+                + "data: {\"choices\":[{\"delta\":{\"content\":\"ет\\n\"}}]}\n\n"
+                + "data: {\"choices\":[],\"usage\":{\"prompt_tokens\":7,\"completion_tokens\":2}}\n\n"
+                + "data: [DONE]\n\n"
+                + "data: {\"choices\":[{\"delta\":{\"content\":\"after done\"}}]}\n\n";
+        List<String> deltas = new ArrayList<>();
+        List<String> lines = new ArrayList<>();
+        LineSplitter splitter = new LineSplitter(lines::add);
+
+        String full = client.readStream(trickle(sse, 3), d -> {
+            deltas.add(d);
+            splitter.accept(d);
+        });
+        splitter.finish();
+
+        assertEquals("{\"id\":\"a\"}\nпривет\n", full);
+        assertEquals(List.of("{\"id\":\"a\"}\nприв", "ет\n"), deltas);
+        assertEquals(List.of("{\"id\":\"a\"}", "привет"), lines, "a line split across chunks is joined");
+        var snap = metrics.snapshot();
+        assertEquals(7, snap.counter("llm.tokens.prompt"));
+        assertEquals(2, snap.counter("llm.tokens.completion"));
+    }
+
+    @Test
+    void streamWithoutDoneOrUsageEndsWithTheBody() throws Exception {
+        var metrics = new SimpleMetricsRegistry();
+        var client = new GigaChatOpenAIClient("http://localhost:1", "key", "model");
+        client.setMetrics(metrics);
+        String full = client.readStream(trickle("data: {\"choices\":[{\"delta\":{\"content\":\"partial\"}}]}", 1), d -> {});
+        assertEquals("partial", full);
+        assertEquals(0, metrics.snapshot().counter("llm.tokens.prompt"));
+    }
+}
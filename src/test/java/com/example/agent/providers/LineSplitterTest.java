@@ -0,0 +1,23 @@
+package com.example.agent.providers;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LineSplitterTest {
+
+    @Test
+    void rechunksDeltasIntoLines() {
+        List<String> lines = new ArrayList<>();
+        var splitter = new LineSplitter(lines::add);
+        for (String delta : new String[]{"fir", "st\r", "\nsec", "ond\n\nthi", "", "rd"}) splitter.accept(delta);
+        assertEquals(List.of("first", "second", ""), lines);
+        splitter.finish();
+        assertEquals(List.of("first", "second", "", "third"), lines);
+        splitter.finish();
+        assertEquals(4, lines.size(), "nothing left to flush");
+    }
+}
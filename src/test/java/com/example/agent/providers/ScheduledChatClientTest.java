@@ -0,0 +1,122 @@
+package com.example.agent.providers;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ScheduledChatClientTest {
+
+    private static final List<Map<String, String>> MSG = List.of(Map.of("role", "user", "content", "hi"));
+
+    private static ScheduledChatClient scheduled(ChatClient delegate, int retries, int breakerThreshold) {
+        return new ScheduledChatClient(delegate, 0, 8, retries, Duration.ofMillis(1), Duration.ofMillis(5),
+                breakerThreshold, Duration.ofMillis(200));
+    }
+
+    @Test
+    void retriesRateLimitedCallsHonouringRetryAfter() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        ChatClient flaky = (m, t) -> {
+            if (calls.incrementAndGet() < 3) throw new LlmHttpException(429, Duration.ofMillis(30), "slow down");
+            return "ok";
+        };
+        var client = scheduled(flaky, 5, 10);
+        long t0 = System.nanoTime();
+        assertEquals("ok", client.chat(MSG, 0.2));
+        assertEquals(3, calls.get());
+        assertEquals(2, client.retries());
+        assertTrue(System.nanoTime() - t0 >= Duration.ofMillis(60).toNanos(), "Retry-After must be respected");
+    }
+
+    @Test
+    void clientErrorsAreNotRetried() {
+        AtomicInteger calls = new AtomicInteger();
+        var client = scheduled((m, t) -> {
+            calls.incrementAndGet();
+            throw new LlmHttpException(400, null, "bad request");
+        }, 5, 10);
+        var e = assertThrows(LlmHttpException.class, () -> client.chat(MSG, 0.2));
+        assertEquals(400, e.status);
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    void breakerOpensAfterConsecutiveFailuresAndRecovers() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        List<Boolean> healthy = new ArrayList<>(List.of(false));
+        var client = scheduled((m, t) -> {
+            calls.incrementAndGet();
+            if (!healthy.get(0)) throw new LlmHttpException(503, null, "down");
+            return "up";
+        }, 0, 3);
+        for (int i = 0; i < 3; i++) assertThrows(LlmHttpException.class, () -> client.chat(MSG, 0.2));
+        var open = assertThrows(IOException.class, () -> client.chat(MSG, 0.2));
+        assertTrue(open.getMessage().contains("circuit open"), open.getMessage());
+        assertEquals(3, calls.get());
+
+        healthy.set(0, true);
+        Thread.sleep(250);
+        assertEquals("up", client.chat(MSG, 0.2));
+    }
+
+    @Test
+    void concurrentIdenticalRequestsShareOneCall() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        var client = scheduled((m, t) -> {
+            calls.incrementAndGet();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            return "shared";
+        }, 0, 10);
+        List<CompletableFuture<String>> results = new ArrayList<>();
+        for (int i = 0; i < 5; i++) results.add(client.chatAsync(MSG, 0.2));
+        while (client.coalesced() < 4) Thread.sleep(5);
+        release.countDown();
+        for (var f : results) assertEquals("shared", ChatClient.await(f));
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    void followersFailWhenTheLeaderDiesOfAnError() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        var client = scheduled((m, t) -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            throw new StackOverflowError();
+        }, 0, 10);
+        List<CompletableFuture<String>> results = new ArrayList<>();
+        for (int i = 0; i < 3; i++) results.add(client.chatAsync(MSG, 0.2));
+        while (client.coalesced() < 2) Thread.sleep(5);
+        release.countDown();
+        for (var f : results) {
+            var e = assertThrows(Exception.class, () -> f.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(StackOverflowError.class, e.getCause() instanceof IOException io ? io.getCause() : e.getCause());
+        }
+    }
+
+    @Test
+    void retryAfterAcceptsSecondsAndHttpDates() {
+        Instant now = Instant.parse("2026-01-01T00:00:00Z");
+        assertEquals(Duration.ofSeconds(7), LlmHttpException.parseRetryAfter("7", now));
+        assertEquals(Duration.ofSeconds(90), LlmHttpException.parseRetryAfter("Thu, 01 Jan 2026 00:01:30 GMT", now));
+        assertNull(LlmHttpException.parseRetryAfter("soon", now));
+    }
+}
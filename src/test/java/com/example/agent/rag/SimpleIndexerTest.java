@@ -0,0 +1,137 @@
+package com.example.agent.rag;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SimpleIndexerTest {
+
+    @Test
+    void ranksByTfIdfAndPadsWithUnscoredDocuments() {
+        var idx = new SimpleIndexer();
+        idx.addDocument("DECLARE x: INT;");
+        idx.addDocument("x := x + 1; x := x + 2;");
+        idx.addDocument("print(y);");
+        idx.addDocument("IF x > 1 THEN");
+
+        assertEquals(List.of("x := x + 1; x := x + 2;", "DECLARE x: INT;", "IF x > 1 THEN"),
+                idx.topKSimilar("x", 3));
+        assertEquals(List.of("print(y);", "DECLARE x: INT;"), idx.topKSimilar("print", 2));
+        assertEquals(4, idx.topKSimilar("nothing_matches_this", 10).size());
+        assertEquals(List.of(), idx.topKSimilar("x", 0));
+    }
+
+    @Test
+    void persistentIndexSurvivesReopenAndMixesSegmentsWithBuffer(@TempDir Path dir) throws Exception {
+        try (var idx = SimpleIndexer.open(dir)) {
+            idx.addDocument("DECLARE x: INT;");
+            idx.addDocument("x := x + 1; x := x + 2;");
+            idx.flush();
+            idx.addDocument("print(y);");
+        }
+        try (var idx = SimpleIndexer.open(dir)) {
+            assertEquals(3, idx.size());
+            idx.addDocument("IF x > 1 THEN");
+            assertEquals(List.of("x := x + 1; x := x + 2;", "DECLARE x: INT;", "IF x > 1 THEN"),
+                    idx.topKSimilar("x", 3));
+            assertEquals(List.of("print(y);"), idx.topKSimilar("print", 1));
+        }
+    }
+
+    @Test
+    void onlyTheLockHolderRepairsOrWrites(@TempDir Path dir) throws Exception {
+        try (var writer = SimpleIndexer.open(dir)) {
+            assertTrue(writer.writable());
+            writer.addDocument("x := 1;");
+            writer.flush();
+            // what a flush in progress looks like from outside: bytes past the manifest, an unlisted segment
+            Files.write(dir.resolve("docs.dat"), new byte[]{'z', 'z'}, StandardOpenOption.APPEND);
+            Files.writeString(dir.resolve("seg-99.idx"), "partial");
+
+            try (var reader = SimpleIndexer.open(dir)) {
+                assertFalse(reader.writable());
+                assertEquals(List.of("x := 1;"), reader.topKSimilar("x", 1));
+                reader.addDocument("y := 2;");
+                reader.flush();
+                assertEquals(2, reader.size(), "kept in memory");
+            }
+            assertTrue(Files.exists(dir.resolve("seg-99.idx")));
+            assertEquals(9, Files.size(dir.resolve("docs.dat")));
+
+            writer.addDocument("x := 3;");
+            writer.flush();
+        }
+        try (var idx = SimpleIndexer.open(dir)) {
+            assertTrue(idx.writable(), "the lock is released on close");
+            assertEquals(List.of("x := 1;", "x := 3;"), idx.topKSimilar("x", 2));
+            assertFalse(Files.exists(dir.resolve("seg-99.idx")));
+        }
+    }
+
+    @Test
+    void segmentsAreMergedAsFlushesAccumulate(@TempDir Path dir) throws Exception {
+        try (var idx = SimpleIndexer.open(dir)) {
+            for (int i = 0; i < 16; i++) {
+                idx.addDocument("v" + i + " := shared + " + i + ";");
+                idx.flush();
+            }
+            assertEquals(List.of("v3 := shared + 3;"), idx.topKSimilar("v3", 1));
+        }
+        try (var files = Files.list(dir)) {
+            long segs = files.filter(p -> p.getFileName().toString().startsWith("seg-")).count();
+            assertTrue(segs <= 5, segs + " segments after 16 flushes");
+        }
+        try (var idx = SimpleIndexer.open(dir)) {
+            assertEquals(16, idx.size());
+            List<String> all = idx.topKSimilar("shared", 16);
+            assertEquals(16, all.size());
+            assertEquals("v0 := shared + 0;", all.get(0), "ties keep doc order across merged segments");
+            assertEquals(List.of("v15 := shared + 15;"), idx.topKSimilar("v15", 1));
+        }
+    }
+
+    @Test
+    void pruningReturnsTheSameTopKAsAFullRanking(@TempDir Path dir) throws Exception {
+        Random rnd = new Random(3);
+        var memory = new SimpleIndexer();
+        try (var persistent = SimpleIndexer.open(dir)) {
+            for (int i = 0; i < 600; i++) {
+                StringBuilder doc = new StringBuilder();
+                for (int s = 0, n = 3 + rnd.nextInt(12); s < n; s++) {
+                    doc.append("v").append(rnd.nextInt(60)).append(" := f").append(rnd.nextInt(20)).append("(x").append(rnd.nextInt(5)).append(");\n");
+                }
+                memory.addDocument(doc.toString());
+                persistent.addDocument(doc.toString());
+                if (i % 150 == 149) persistent.flush(); // segments plus a write buffer
+            }
+            for (int q = 0; q < 50; q++) {
+                String query = "v" + rnd.nextInt(60) + " := f" + rnd.nextInt(20) + "(x" + rnd.nextInt(5) + "); v" + rnd.nextInt(60);
+                List<String> all = memory.topKSimilar(query, 600);
+                for (var idx : List.of(memory, persistent)) {
+                    assertEquals(all.subList(0, 5), idx.topKSimilar(query, 5), query);
+                    assertEquals(all.subList(0, 40), idx.topKSimilar(query, 40), query);
+                }
+            }
+        }
+    }
+
+    @Test
+    void punctuationIsNotIndexed() {
+        var idx = new SimpleIndexer();
+        idx.addDocument("a := (b);");
+        idx.addDocument("привет := 42;");
+        idx.addDocument("c;");
+        assertEquals(List.of("привет := 42;"), idx.topKSimilar("привет", 1));
+        assertEquals(List.of("привет := 42;"), idx.topKSimilar("42", 1));
+        // only punctuation: nothing scores, so documents come back unscored in insertion order
+        assertEquals(List.of("a := (b);", "привет := 42;"), idx.topKSimilar(":= ; (", 2));
+        assertEquals(List.of("c;"), idx.topKSimilar("c", 1));
+    }
+}
@@ -0,0 +1,200 @@
+package com.example.agent.translate;
+
+import com.example.agent.knowledge.Rule;
+import com.example.agent.knowledge.RuleStore;
+import com.example.agent.model.ir.IR;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.StringReader;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BlockAssemblerTest {
+
+    @TempDir
+    Path tmp;
+
+    private static Rule rule(String id, String irType, String regex, String block, String... fields) {
+        Rule r = new Rule(id, irType, regex, fields, null, null);
+        r.block = block;
+        return r;
+    }
+
+    private RuleStore store() throws Exception {
+        var store = new RuleStore(tmp);
+        store.addOrUpdateRules(List.of(
+                rule("assign", "Assign", "^\\s*(\\w+)\\s*:=\\s*(.+);\\s*$", null, "name", "expr"),
+                rule("if", "If", "^\\s*IF\\s+(.+)\\s+THEN\\s*$", null, "cond"),
+                rule("elsif", "If", "^\\s*ELSIF\\s+(.+)\\s+THEN\\s*$", "middle", "cond"),
+                rule("else", "If", "^\\s*ELSE\\s*$", "middle"),
+                rule("endif", "If", "^\\s*END\\s+IF\\s*;?\\s*$", "close"),
+                rule("for", "Loop", "^\\s*FOR\\s+(.+)\\s+LOOP\\s*$", null, "header"),
+                rule("endloop", "Loop", "^\\s*END\\s+LOOP\\s*;?\\s*$", "close"),
+                rule("cont", null, "^(.*)\\s+_\\s*$", "continue")));
+        return store;
+    }
+
+    @Test
+    void nestsIfElseAndLoopBodies() throws Exception {
+        try (var store = store()) {
+            IR ir = new DynamicDialectParser(store).parse(String.join("\n",
+                    "x := 0;",
+                    "FOR i := 1 TO 3 LOOP",
+                    "  IF i > 1 THEN",
+                    "    x := x + i;",
+                    "  ELSE",
+                    "    x := 1;",
+                    "  END IF;",
+                    "END LOOP;",
+                    "y := x;"));
+            assertEquals(3, ir.nodes.size());
+            var loop = assertInstanceOf(IR.Loop.class, ir.nodes.get(1));
+            assertEquals(1, loop.body.size());
+            var iff = assertInstanceOf(IR.If.class, loop.body.get(0));
+            assertEquals("i > 1", iff.cond);
+            assertEquals("x + i", ((IR.Assign) iff.thenBody.get(0)).expr);
+            assertEquals("1", ((IR.Assign) iff.elseBody.get(0)).expr);
+            assertInstanceOf(IR.Assign.class, ir.nodes.get(2));
+
+            String java = new IRToJava().generate(ir, "P");
+            assertTrue(java.contains("for (int i = 1; i <= 3; i++) {"), java);
+            assertTrue(java.contains("} else {"), java);
+            assertFalse(java.contains("UNKNOWN"), java);
+        }
+    }
+
+    @Test
+    void elsifChainClosesWithOneEnd() throws Exception {
+        try (var store = store()) {
+            IR ir = new DynamicDialectParser(store).parse("IF a THEN\nx := 1;\nELSIF b THEN\nx := 2;\nELSE\nx := 3;\nEND IF\nz := 0;");
+            assertEquals(2, ir.nodes.size());
+            var outer = assertInstanceOf(IR.If.class, ir.nodes.get(0));
+            var inner = assertInstanceOf(IR.If.class, outer.elseBody.get(0));
+            assertEquals("b", inner.cond);
+            assertEquals(1, inner.elseBody.size());
+            assertTrue(new IRToJava().generate(ir, "P").contains("} else if (b) {"));
+        }
+    }
+
+    @Test
+    void unmatchedMarkersStayUnknownAndOpenBlocksCloseAtEnd() throws Exception {
+        try (var store = store()) {
+            IR ir = new DynamicDialectParser(store).parse("END IF;\nFOR i := 1 TO 2 LOOP\nELSE\nEND IF;\nx := 1;");
+            assertInstanceOf(IR.UnknownNode.class, ir.nodes.get(0));
+            assertEquals(2, ir.nodes.size());
+            var loop = assertInstanceOf(IR.Loop.class, ir.nodes.get(1));
+            assertEquals(3, loop.body.size());
+            assertInstanceOf(IR.UnknownNode.class, loop.body.get(0));
+            assertInstanceOf(IR.UnknownNode.class, loop.body.get(1));
+        }
+    }
+
+    @Test
+    void closesOfOpenersPastTheDepthLimitAreSwallowed() throws Exception {
+        int depth = BlockAssembler.MAX_DEPTH + 2;
+        List<String> lines = new ArrayList<>();
+        for (int k = 1; k <= depth; k++) {
+            lines.add("IF c" + k + " THEN");
+            lines.add("x" + k + " := " + k + ";");
+        }
+        lines.add("ELSE");
+        for (int k = depth; k >= 1; k--) {
+            lines.add("y" + k + " := " + k + ";");
+            lines.add("END IF;");
+        }
+        lines.add("after := 1;");
+        try (var store = store()) {
+            IR ir = new DynamicDialectParser(store).parse(String.join("\n", lines));
+            assertEquals(2, ir.nodes.size());
+            assertEquals("after", assertInstanceOf(IR.Assign.class, ir.nodes.get(1)).name);
+            IR.If level = (IR.If) ir.nodes.get(0);
+            for (int k = 1; k < BlockAssembler.MAX_DEPTH; k++) {
+                assertEquals(3, level.thenBody.size(), "level " + k);
+                assertEquals("y" + k, ((IR.Assign) level.thenBody.get(2)).name);
+                level = (IR.If) level.thenBody.get(1);
+            }
+            // the deepest block holds the rest flat: the openers as one-line statements, no closes, no ELSE
+            List<String> flat = new ArrayList<>();
+            for (IR.Node n : level.thenBody) flat.add(n instanceof IR.Assign a ? a.name : n instanceof IR.If i ? "if " + i.cond : n.toString());
+            int d = BlockAssembler.MAX_DEPTH;
+            assertEquals(List.of("x" + d, "if c" + (d + 1), "x" + (d + 1), "if c" + (d + 2), "x" + (d + 2),
+                    "y" + (d + 2), "y" + (d + 1), "y" + d), flat);
+            assertTrue(level.elseBody.isEmpty());
+        }
+    }
+
+    @Test
+    void continuationLinesAreJoined() throws Exception {
+        try (var store = store()) {
+            IR ir = new DynamicDialectParser(store).parse("x := 1 + _\n     2 + _\n     3;\ny := 4;");
+            assertEquals(2, ir.nodes.size());
+            assertEquals("1 + 2 + 3", ((IR.Assign) ir.nodes.get(0)).expr);
+        }
+    }
+
+    @Test
+    void streamingParseYieldsSameTopLevelNodes() throws Exception {
+        try (var store = store()) {
+            var parser = new DynamicDialectParser(store);
+            String src = "IF a THEN\nx := 1;\nEND IF\nq := 2 _\n;\nFOR k := 1 TO 2 LOOP\nx := k;";
+            var eager = parser.parse(src).nodes;
+            try (var nodes = parser.parse(new StringReader(src))) {
+                var lazy = nodes.toList();
+                assertEquals(eager.size(), lazy.size());
+                var gen = new IRToJava();
+                for (int i = 0; i < eager.size(); i++) assertEquals(gen.statement(eager.get(i)), gen.statement(lazy.get(i)));
+            }
+        }
+    }
+
+    @Test
+    void blockRolesAreValidated() throws Exception {
+        try (var store = new RuleStore(tmp)) {
+            store.addOrUpdateRule(rule("bad", "Assign", "^(\\w+)=(.*)$", "open", "name", "expr"));
+            store.addOrUpdateRule(rule("typo", "If", "^IF (.+)$", "opne", "cond"));
+            assertEquals(2, new DynamicDialectParser(store).rejectedRules().size());
+        }
+    }
+
+    @Test
+    void openersStayStatementsWithoutAnyCloseRule() throws Exception {
+        try (var store = new RuleStore(tmp)) {
+            store.addOrUpdateRules(List.of(
+                    rule("assign", "Assign", "^\\s*(\\w+)\\s*:=\\s*(.+);\\s*$", null, "name", "expr"),
+                    rule("if", "If", "^\\s*IF\\s+(.+)\\s+THEN\\s*$", null, "cond")));
+            IR ir = new DynamicDialectParser(store).parse("IF a THEN\nx := 1;\nIF b THEN\ny := 2;");
+            assertEquals(4, ir.nodes.size());
+            assertTrue(assertInstanceOf(IR.If.class, ir.nodes.get(2)).thenBody.isEmpty());
+        }
+    }
+
+    @Test
+    void loopStepSignPicksTheBound() throws Exception {
+        try (var store = store()) {
+            IR ir = new DynamicDialectParser(store).parse(String.join("\n",
+                    "s := -2;",
+                    "FOR i := 10 TO 1 STEP -1 LOOP",
+                    "  a := i;",
+                    "END LOOP;",
+                    "FOR j := 9 TO 1 STEP s LOOP",
+                    "  b := j;",
+                    "END LOOP;",
+                    "FOR k := 1 TO 3 STEP 2 LOOP",
+                    "END LOOP;",
+                    "FOR EACH row IN t LOOP",
+                    "END LOOP;"));
+            String java = new IRToJava().generate(ir, "P");
+            assertTrue(java.contains("for (int i = 10; i >= 1; i += -1) {"), java);
+            assertTrue(java.contains("for (int j = 9; (s) > 0 ? j <= 1 : j >= 1; j += s) {"), java);
+            assertTrue(java.contains("for (int k = 1; k <= 3; k += 2) {"), java);
+            assertTrue(java.contains("{ /* UNKNOWN: loop EACH row IN t */"), java);
+            assertFalse(java.contains("TODO"), java);
+            var result = new JavaVerifier(JavaVerifier.Mode.IN_PROCESS).compile("P", java);
+            assertTrue(result.ok, result.diagnostics + "\n" + java);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.agent.translate;
+
+import com.example.agent.knowledge.Rule;
+import com.example.agent.knowledge.RuleStore;
+import com.example.agent.providers.ChatClient;
+import com.example.agent.rag.SimpleIndexer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BulkTranslatorTest {
+
+    @TempDir
+    Path tmp;
+
+    @Test
+    void translatesTreeRepairsFailuresAndResumes() throws Exception {
+        Path src = tmp.resolve("src");
+        Files.createDirectories(src.resolve("pkg/sub"));
+        for (int i = 0; i < 20; i++) Files.writeString(src.resolve("pkg/sub/prog-" + i + ".dlx"), "x := " + i + ";\n");
+        Files.writeString(src.resolve("pkg/broken.dlx"), "x := 1;\nprint(x);\n");
+        Files.writeString(src.resolve("pkg/notes.md"), "ignored");
+
+        try (var store = new RuleStore(tmp.resolve("runtime"))) {
+            store.addOrUpdateRule(new Rule("assign", "Assign", "^\\s*(\\w+)\\s*:=\\s*(.+);\\s*$", new String[]{"name", "expr"}, null, null));
+            store.addOrUpdateRule(new Rule("call", "Call", "^\\s*(\\w+)\\((.*)\\);\\s*$", new String[]{"callee", "args"}, new String[]{"args"}, null));
+            AtomicInteger llmCalls = new AtomicInteger();
+            ChatClient llm = (messages, temperature) -> {
+                llmCalls.incrementAndGet();
+                Matcher m = Pattern.compile("public class (\\w+)").matcher(messages.get(1).get("content"));
+                assertTrue(m.find());
+                return "public class " + m.group(1) + " { public static void main(String[] a) { System.out.println(1); } }";
+            };
+            var agent = new TranslatorAgent(llm, new SimpleIndexer(), store);
+            Path out = tmp.resolve("out");
+
+            BulkStats first = new BulkTranslator(agent, 2, 2).run(src, out, List.of(".dlx"));
+            assertEquals(21, first.discovered());
+            assertEquals(20, first.verified());
+            assertEquals(1, first.repaired());
+            assertEquals(0, first.failed(), first.failures().toString());
+            assertEquals(1, llmCalls.get());
+            assertTrue(Files.readString(out.resolve("pkg/sub/Prog7.java")).contains("var x = 7;"));
+            assertTrue(Files.readString(out.resolve("pkg/Broken.java")).contains("System.out.println(1)"));
+
+            Files.writeString(src.resolve("pkg/sub/prog-3.dlx"), "y := 3;\n");
+            BulkStats second = new BulkTranslator(agent, 2, 2).run(src, out, List.of(".dlx"));
+            assertEquals(20, second.skipped());
+            assertEquals(1, second.verified());
+            assertEquals(1, llmCalls.get());
+            assertTrue(Files.readString(out.resolve("pkg/sub/Prog3.java")).contains("var y = 3;"));
+        }
+    }
+
+    @Test
+    void sourcesMappingToOneClassAreNotOverwritten() throws Exception {
+        Path src = tmp.resolve("src");
+        Files.createDirectories(src.resolve("sub"));
+        Files.writeString(src.resolve("x.dlx"), "x := 1;\n");
+        Files.writeString(src.resolve("x.dsl"), "x := 2;\n");
+        Files.writeString(src.resolve("sub/x.dsl"), "x := 3;\n");
+        try (var store = new RuleStore(tmp.resolve("runtime"))) {
+            store.addOrUpdateRule(new Rule("assign", "Assign", "^\\s*(\\w+)\\s*:=\\s*(.+);\\s*$", new String[]{"name", "expr"}, null, null));
+            ChatClient llm = (messages, temperature) -> {
+                throw new AssertionError("no repair with llmWorkers = 0");
+            };
+            Path out = tmp.resolve("out");
+
+            BulkStats stats = new BulkTranslator(new TranslatorAgent(llm, new SimpleIndexer(), store), 2, 0)
+                    .run(src, out, List.of(".dlx", ".dsl"));
+            assertEquals(3, stats.discovered());
+            assertEquals(2, stats.verified());
+            assertEquals(1, stats.failed());
+            assertTrue(stats.failures().get(0).contains("X.java"), stats.failures().toString());
+            String first = stats.failures().get(0).startsWith(src.resolve("x.dsl") + ":") ? "var x = 1;" : "var x = 2;";
+            assertTrue(Files.readString(out.resolve("X.java")).contains(first), "the first source keeps its output");
+            assertTrue(Files.readString(out.resolve("sub/X.java")).contains("var x = 3;"), "other directories do not collide");
+        }
+    }
+
+    @Test
+    void onlyCompiledOutputUnderTheSameRulesIsSkipped() throws Exception {
+        Path src = tmp.resolve("src");
+        Files.createDirectories(src);
+        Files.writeString(src.resolve("good.dlx"), "x := 1;\n");
+        Files.writeString(src.resolve("bad.dlx"), "frobnicate(1);\n");
+        Files.writeString(src.resolve("worse.dlx"), "frobnicate(2);\n");
+        try (var store = new RuleStore(tmp.resolve("runtime"))) {
+            store.addOrUpdateRule(new Rule("assign", "Assign", "^\\s*(\\w+)\\s*:=\\s*(.+);\\s*$", new String[]{"name", "expr"}, null, null));
+            store.addOrUpdateRule(new Rule("call", "Call", "^\\s*(\\w+)\\((.*)\\);\\s*$", new String[]{"callee", "args"}, new String[]{"args"}, null));
+            AtomicInteger llmCalls = new AtomicInteger();
+            ChatClient llm = (messages, temperature) -> {
+                llmCalls.incrementAndGet();
+                throw new StackOverflowError("from the repair call");
+            };
+            var agent = new TranslatorAgent(llm, new SimpleIndexer(), store);
+            Path out = tmp.resolve("out");
+
+            BulkStats first = new BulkTranslator(agent, 1, 1).run(src, out, List.of(".dlx"));
+            assertEquals(1, first.verified());
+            assertEquals(2, first.failed(), "an Error fails the file but not the worker");
+            assertTrue(first.failures().get(0).contains("StackOverflowError"), first.failures().toString());
+
+            BulkStats unverified = new BulkTranslator(agent, 1, 0).run(src, out, List.of(".dlx"));
+            assertEquals(1, unverified.skipped());
+            assertEquals(2, unverified.unverified());
+            // a crash mid-record leaves a torn line; it is cut off rather than glued to the next record
+            Files.writeString(out.resolve(BulkManifest.FILE), "{\"path\":\"good.dlx\",\"fp", StandardOpenOption.APPEND);
+
+            BulkStats retried = new BulkTranslator(agent, 1, 0).run(src, out, List.of(".dlx"));
+            assertEquals(1, retried.skipped());
+            assertEquals(2, retried.unverified(), "unverified output is tried again");
+            assertEquals(2, llmCalls.get());
+
+            store.addOrUpdateRule(new Rule("assign", "Assign", "^\\s*(\\w+)\\s*:=\\s*(.+?);\\s*$", new String[]{"name", "expr"}, null, null));
+            BulkStats relearned = new BulkTranslator(agent, 1, 0).run(src, out, List.of(".dlx"));
+            assertEquals(0, relearned.skipped(), "a rule change redoes everything");
+            assertEquals(1, relearned.verified());
+            for (String line : Files.readAllLines(out.resolve(BulkManifest.FILE))) assertTrue(line.endsWith("}"), line);
+        }
+    }
+
+    @Test
+    void classNamesAreJavaIdentifiers() {
+        assertEquals("MyProg", BulkTranslator.className(Path.of("my-prog.dlx")));
+        assertEquals("P2fast", BulkTranslator.className(Path.of("2fast.dsl")));
+    }
+}
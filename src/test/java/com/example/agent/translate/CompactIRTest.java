@@ -0,0 +1,108 @@
+package com.example.agent.translate;
+
+import com.example.agent.knowledge.Rule;
+import com.example.agent.knowledge.RuleStore;
+import com.example.agent.model.ir.CompactIR;
+import com.example.agent.model.ir.IR;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.CharBuffer;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompactIRTest {
+
+    @TempDir
+    Path tmp;
+
+    private static Rule rule(String id, String irType, String regex, String block, String... fields) {
+        Rule r = new Rule(id, irType, regex, fields, null, null);
+        r.block = block;
+        return r;
+    }
+
+    private DynamicDialectParser parser() throws Exception {
+        var store = new RuleStore(tmp);
+        Rule call = rule("call", "Call", "^\\s*([A-Za-z_]\\w*)\\s*\\((.*)\\)\\s*;\\s*$", null, "callee", "args");
+        call.listFields = new String[]{"args"};
+        store.addOrUpdateRules(List.of(
+                rule("assign", "Assign", "^\\s*(\\w+)\\s*:=\\s*(.+);\\s*$", null, "name", "expr"),
+                rule("decl", "Decl", "^\\s*DECLARE\\s+(\\w+)\\s*:\\s*(\\w+)\\s*;\\s*$", null, "name", "type"),
+                call,
+                rule("if", "If", "^\\s*IF\\s+(.+)\\s+THEN\\s*$", null, "cond"),
+                rule("elsif", "If", "^\\s*ELSIF\\s+(.+)\\s+THEN\\s*$", "middle", "cond"),
+                rule("else", "If", "^\\s*ELSE\\s*$", "middle"),
+                rule("endif", "If", "^\\s*END\\s+IF\\s*;?\\s*$", "close"),
+                rule("while", "Loop", "^\\s*WHILE\\s+(.+)\\s+LOOP\\s*$", null, "header"),
+                rule("endloop", "Loop", "^\\s*END\\s+LOOP\\s*;?\\s*$", "close"),
+                rule("cont", null, "^(.*)\\s+_\\s*$", "continue")));
+        return new DynamicDialectParser(store);
+    }
+
+    private static final String PROGRAM = String.join("\r\n",
+            "DECLARE x: INT;",
+            "x := 1 + _",
+            "     2;",
+            "WHILE x < 10 LOOP",
+            "  IF x = 3 THEN",
+            "    print(x, ,y,);",
+            "  ELSIF x <> 4 and x > 0 THEN",
+            "    print();",
+            "  ELSE",
+            "    GOTO done",
+            "  END IF;",
+            "  x := x + 1;",
+            "END LOOP;",
+            "",
+            "END IF;",
+            "log( a ,b );");
+
+    @Test
+    void generatesTheSameJavaAsTheObjectIR() throws Exception {
+        var parser = parser();
+        var gen = new IRToJava();
+        CompactIR compact = parser.parseCompact(PROGRAM);
+        String expected = gen.generate(parser.parse(PROGRAM), "Prog");
+        assertEquals(expected, gen.generate(compact, "Prog"));
+        assertEquals(expected, gen.generate(compact.toIR(), "Prog"));
+    }
+
+    @Test
+    void fieldsAreSpansOfTheSource() throws Exception {
+        CompactIR ir = parser().parseCompact(PROGRAM);
+        int decl = ir.first();
+        assertEquals(CompactIR.DECL, ir.op(decl));
+        assertInstanceOf(CharBuffer.class, ir.field(decl, 0));
+        assertEquals("x", ir.field(decl, 0).toString());
+        assertEquals("INT", ir.string(decl, 1));
+
+        // the continued assignment is stored joined
+        int assign = ir.next(decl);
+        assertEquals("1 + 2", ir.string(assign, 1));
+        StringBuilder sb = new StringBuilder();
+        ir.appendField(assign, 1, 2, 5, sb);
+        assertEquals("+ 2", sb.toString());
+
+        int loop = ir.next(assign);
+        assertEquals(CompactIR.LOOP, ir.op(loop));
+        int iff = ir.child(loop);
+        assertEquals(CompactIR.IF, ir.op(iff));
+        assertEquals(List.of("x", "", "y"), ir.args(ir.child(iff)));
+        int elsif = ir.alt(iff);
+        assertEquals(List.of(), ir.args(ir.child(elsif)));
+        assertEquals(CompactIR.UNKNOWN, ir.op(ir.alt(elsif)));
+
+        int stray = ir.next(loop);
+        assertEquals("END IF;", ir.string(stray, 0));
+        int log = ir.next(stray);
+        assertEquals(List.of("a", "b"), ((IR.Call) ir.node(log)).args);
+        int[] spans = ir.argSpans(log);
+        sb.setLength(0);
+        ir.appendField(log, 1, spans[2], spans[3], sb);
+        assertEquals("b", sb.toString());
+        assertEquals(11, ir.size());
+    }
+}
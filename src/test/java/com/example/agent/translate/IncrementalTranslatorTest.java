@@ -0,0 +1,221 @@
+package com.example.agent.translate;
+
+import com.example.agent.knowledge.Rule;
+import com.example.agent.knowledge.RuleStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IncrementalTranslatorTest {
+
+    @TempDir
+    Path dir;
+
+    private static Rule assign(String regex) {
+        return new Rule("assign", "Assign", regex, new String[]{"name", "expr"}, null, null);
+    }
+
+    private static Rule call() {
+        return new Rule("call", "Call", "^\\s*([A-Za-z_]\\w*)\\s*\\((.*)\\)\\s*;\\s*$", new String[]{"callee", "args"}, new String[]{"args"}, null);
+    }
+
+    private static List<String> program(int n) {
+        List<String> lines = new ArrayList<>();
+        // no calls: a cold run compiles the class in full, and there is no print() to call
+        for (int i = 0; i < n; i++) lines.add(i % 2 == 0 ? "x" + i + " := " + i + ";" : "y" + i + " := x" + (i - 1) + " + 1;");
+        return lines;
+    }
+
+    private String full(DynamicDialectParser parser, List<String> lines) throws Exception {
+        var out = new StringWriter();
+        try (var nodes = parser.parse(new StringReader(String.join("\n", lines)))) {
+            new IRToJava().generate(nodes.iterator(), "Prog", out);
+        }
+        return out.toString();
+    }
+
+    @Test
+    void rerunTranslatesOnlyChangedLinesAndMatchesFullOutput() throws Exception {
+        try (var store = new RuleStore(dir.resolve("rt"))) {
+            store.addOrUpdateRule(assign("^\\s*([A-Za-z_]\\w*)\\s*:=\\s*(.+);\\s*$"));
+            store.addOrUpdateRule(call());
+            var parser = new DynamicDialectParser(store);
+            var inc = new IncrementalTranslator(parser, new IRToJava(), new JavaVerifier(), dir.resolve("state"));
+            Path src = dir.resolve("prog.dlx");
+            Path java = dir.resolve("Prog.java");
+
+            List<String> lines = program(200);
+            Files.write(src, lines, StandardCharsets.UTF_8);
+            var cold = inc.translate(src, java);
+            assertFalse(cold.warm);
+            assertEquals(200, cold.translated);
+            assertTrue(cold.problems.isEmpty(), cold.problems.toString());
+
+            lines.set(57, "print(x56, 1);");
+            lines.add("y := 1;");
+            lines.remove(10);
+            Files.write(src, lines, StandardCharsets.UTF_8);
+            var warm = inc.translate(src, java);
+            assertTrue(warm.warm);
+            assertEquals(2, warm.translated);
+            assertEquals(198, warm.reused);
+            assertEquals(2, warm.removed);
+            assertEquals(full(parser, lines), Files.readString(java));
+        }
+    }
+
+    @Test
+    void editInsideBlockRechecksOnlyThatBlock() throws Exception {
+        try (var store = new RuleStore(dir.resolve("rt"))) {
+            store.addOrUpdateRule(assign("^\\s*([A-Za-z_]\\w*)\\s*:=\\s*(.+);\\s*$"));
+            store.addOrUpdateRule(new Rule("if", "If", "^\\s*IF\\s+(.+)\\s+THEN\\s*$", new String[]{"cond"}, null, null));
+            Rule end = new Rule("endif", "If", "^\\s*END\\s+IF\\s*;?\\s*$", new String[0], null, null);
+            end.block = "close";
+            store.addOrUpdateRule(end);
+            var parser = new DynamicDialectParser(store);
+            var inc = new IncrementalTranslator(parser, new IRToJava(), new JavaVerifier(), dir.resolve("state"));
+            Path src = dir.resolve("prog.dlx");
+            Path java = dir.resolve("Prog.java");
+
+            List<String> lines = new ArrayList<>(List.of("a := 1;", "IF a > 0 THEN", "b := 2;", "IF b > 1 THEN", "c := 3;", "END IF;", "END IF;", "d := 4;"));
+            Files.write(src, lines, StandardCharsets.UTF_8);
+            assertEquals(3, inc.translate(src, java).statements);
+
+            lines.set(4, "c := 5;");
+            Files.write(src, lines, StandardCharsets.UTF_8);
+            var warm = inc.translate(src, java);
+            assertEquals(1, warm.translated);
+            assertEquals(1, warm.parsedLines);
+            assertEquals(full(parser, lines), Files.readString(java));
+        }
+    }
+
+    @Test
+    void onlyAFullCompileMarksTheOutputCompiled() throws Exception {
+        try (var store = new RuleStore(dir.resolve("rt"))) {
+            store.addOrUpdateRule(assign("^\\s*([A-Za-z_]\\w*)\\s*:=\\s*(.+);\\s*$"));
+            store.addOrUpdateRule(call());
+            var parser = new DynamicDialectParser(store);
+            var inc = new IncrementalTranslator(parser, new IRToJava(), new JavaVerifier(), dir.resolve("state"));
+            Path src = dir.resolve("prog.dlx");
+            Path java = dir.resolve("Prog.java");
+            List<String> lines = program(20);
+            Files.write(src, lines, StandardCharsets.UTF_8);
+            var cold = inc.translate(src, java);
+            assertTrue(cold.compiled, cold.problems.toString());
+            assertTrue(cold.toString().contains("check=compiled"), cold.toString());
+
+            String original = lines.set(3, "print(x2, 7);");
+            Files.write(src, lines, StandardCharsets.UTF_8);
+            var warm = inc.translate(src, java);
+            assertFalse(warm.compiled, "an edit is only parsed");
+            assertTrue(warm.toString().contains("check=syntax-only"), warm.toString());
+
+            lines.set(3, original);
+            Files.write(src, lines, StandardCharsets.UTF_8);
+            assertTrue(inc.translate(src, java).compiled, "identical to the class that compiled");
+        }
+    }
+
+    @Test
+    void coldRunReportsWhatOnlyTheCompilerSees() throws Exception {
+        try (var store = new RuleStore(dir.resolve("rt"))) {
+            store.addOrUpdateRule(assign("^\\s*([A-Za-z_]\\w*)\\s*:=\\s*(.+);\\s*$"));
+            var parser = new DynamicDialectParser(store);
+            var inc = new IncrementalTranslator(parser, new IRToJava(), new JavaVerifier(), dir.resolve("state"));
+            Path src = dir.resolve("prog.dlx");
+            Files.write(src, List.of("a := 1;", "b := nowhere + 1;"), StandardCharsets.UTF_8);
+            var cold = inc.translate(src, dir.resolve("Prog.java"));
+            assertFalse(cold.compiled);
+            assertEquals(1, cold.problems.size(), cold.problems.toString());
+            assertEquals(-1, cold.problems.get(0).line);
+            assertTrue(cold.problems.get(0).message.contains("nowhere"), cold.problems.get(0).message);
+        }
+    }
+
+    @Test
+    void ruleChangeStartsCold() throws Exception {
+        try (var store = new RuleStore(dir.resolve("rt"))) {
+            store.addOrUpdateRule(assign("^\\s*([A-Za-z_]\\w*)\\s*:=\\s*(.+);\\s*$"));
+            var parser = new DynamicDialectParser(store);
+            var inc = new IncrementalTranslator(parser, new IRToJava(), new JavaVerifier(), dir.resolve("state"));
+            Path src = dir.resolve("prog.dlx");
+            Files.write(src, List.of("a := 1;", "b := 2;"), StandardCharsets.UTF_8);
+            inc.translate(src, dir.resolve("Prog.java"));
+            assertTrue(inc.translate(src, dir.resolve("Prog.java")).warm);
+
+            store.addOrUpdateRule(assign("^\\s*([A-Za-z_]\\w*)\\s*:=\\s*(.+?);\\s*$"));
+            var after = inc.translate(src, dir.resolve("Prog.java"));
+            assertFalse(after.warm);
+            assertEquals(2, after.translated);
+        }
+    }
+
+    @Test
+    void syntaxProblemsPointAtSourceStatementAndAreRetried() throws Exception {
+        try (var store = new RuleStore(dir.resolve("rt"))) {
+            store.addOrUpdateRule(assign("^\\s*([A-Za-z_]\\w*)\\s*:=\\s*(.+);\\s*$"));
+            var parser = new DynamicDialectParser(store);
+            var inc = new IncrementalTranslator(parser, new IRToJava(), new JavaVerifier(), dir.resolve("state"));
+            Path src = dir.resolve("prog.dlx");
+            Files.write(src, List.of("a := 1;", "b := (2;", "c := 3;"), StandardCharsets.UTF_8);
+            var first = inc.translate(src, dir.resolve("Prog.java"));
+            assertFalse(first.problems.isEmpty());
+            assertEquals(2, first.problems.get(0).line);
+
+            // the broken statement is not trusted from the cache
+            var second = inc.translate(src, dir.resolve("Prog.java"));
+            assertEquals(1, second.translated);
+            assertEquals(2, second.problems.get(0).line);
+        }
+    }
+
+    @Test
+    void corruptStateMeansAColdRun() throws Exception {
+        try (var store = new RuleStore(dir.resolve("rt"))) {
+            store.addOrUpdateRule(assign("^\\s*([A-Za-z_]\\w*)\\s*:=\\s*(.+);\\s*$"));
+            var parser = new DynamicDialectParser(store);
+            var inc = new IncrementalTranslator(parser, new IRToJava(), new JavaVerifier(), dir.resolve("state"));
+            Path src = dir.resolve("prog.dlx");
+            Files.write(src, List.of("a := 1;", "b := 2;"), StandardCharsets.UTF_8);
+            inc.translate(src, dir.resolve("Prog.java"));
+            Path state;
+            try (var files = Files.list(dir.resolve("state"))) {
+                state = files.filter(p -> p.toString().endsWith(".bin")).findFirst().orElseThrow();
+            }
+            byte[] good = Files.readAllBytes(state);
+            int header;
+            try (var in = new DataInputStream(new ByteArrayInputStream(good))) {
+                in.readInt();
+                in.readInt();
+                header = 8 + 2 + in.readUTF().getBytes(StandardCharsets.UTF_8).length;
+            }
+            // the first entry's rule id length: past the entry count, the key and the presence flag
+            int ruleIdLength = header + 4 + 16 + 1;
+            for (int bad : new int[]{-5, Integer.MAX_VALUE - 8}) {
+                byte[] b = good.clone();
+                ByteBuffer.wrap(b).putInt(ruleIdLength, bad);
+                Files.write(state, b);
+                var run = inc.translate(src, dir.resolve("Prog.java"));
+                assertFalse(run.warm, "length " + bad);
+                assertEquals(2, run.translated);
+                assertTrue(inc.translate(src, dir.resolve("Prog.java")).warm, "the cold run rewrote the state");
+            }
+            Files.write(state, Arrays.copyOf(good, good.length - 3));
+            assertFalse(inc.translate(src, dir.resolve("Prog.java")).warm, "torn file");
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.agent.translate;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JavaVerifierTest {
+
+    @Test
+    void inProcessCompileReportsStructuredDiagnostics() {
+        var verifier = new JavaVerifier(JavaVerifier.Mode.IN_PROCESS);
+
+        var ok = verifier.compile("Good", "public class Good { public static void main(String[] a) { int x = 1; } }");
+        assertTrue(ok.ok, ok.diagnostics);
+
+        var bad = verifier.compile("Bad", "public class Bad {\n  void f() {\n    int x = \"s\";\n  }\n}\n");
+        assertFalse(bad.ok);
+        assertEquals(1, bad.problems.size());
+        var d = bad.problems.get(0);
+        assertEquals("ERROR", d.kind);
+        assertEquals(3, d.line);
+        assertTrue(bad.diagnostics.startsWith("Bad.java:3: error:"), bad.diagnostics);
+    }
+
+    @Test
+    void fileManagersArePooledRatherThanKeptPerThread() throws Exception {
+        var verifier = new JavaVerifier(JavaVerifier.Mode.IN_PROCESS);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 32; i++) {
+            int n = i;
+            threads.add(Thread.ofVirtual().start(() -> assertTrue(verifier.compile("C" + n, "class C" + n + " {}").ok)));
+        }
+        for (Thread t : threads) t.join();
+        int idle = verifier.idleFileManagers();
+        assertTrue(idle >= 1 && idle <= Runtime.getRuntime().availableProcessors(), "idle " + idle);
+
+        verifier.close();
+        assertEquals(0, verifier.idleFileManagers());
+        assertTrue(verifier.compile("After", "class After {}").ok, "still usable after close");
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.agent.translate;
+
+import com.example.agent.knowledge.Rule;
+import com.example.agent.knowledge.RuleStore;
+import com.example.agent.model.ir.IR;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RegexGuardTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void flagsNestedQuantifiers() {
+        for (String bad : List.of("^(a+)+$", "^(\\w+\\s?)*$", "^(.*,)+;$", "^((ab)*c*)*$", "^(?:\\S+\\s*)+=(.*)$", "^(x|\\w+){2,}$")) {
+            assertNotNull(RegexGuard.screen(bad), bad);
+        }
+    }
+
+    @Test
+    void flagsRepeatedAlternationsWithOverlappingBranches() {
+        for (String bad : List.of("^(a|aa)+$", "^(a|a)*b$", "^(\\w|\\d)+x$", "^(?:a|ab)*c$", "^(?:x|[a-z]y)*;$")) {
+            String reason = RegexGuard.screen(bad);
+            assertNotNull(reason, bad);
+            assertTrue(reason.contains("overlapping branches"), reason);
+        }
+        for (String ok : List.of("^(a|b)+$", "^(?:\\s|,)*x$", "^(?:foo|bar)*;$", "^(a|aa)$", "^(?>a|aa)+$", "^(a|aa)++$")) {
+            assertNull(RegexGuard.screen(ok), ok);
+        }
+    }
+
+    @Test
+    void passesRuleShapedRegexes() {
+        for (String ok : List.of(
+                "^\\s*([A-Za-z_][A-Za-z0-9_]*)\\s*:=\\s*(.+);\\s*$",
+                "^\\s*([A-Za-z_]\\w*)\\s*\\(((?:\\w+\\s*,\\s*)*\\w+)?\\)\\s*;\\s*$",
+                "^\\s*DECLARE\\s+([A-Za-z_][A-Za-z0-9_]*)\\s*:\\s*([A-Za-z0-9_<>\\[\\]]+)\\s*;\\s*$",
+                "^\\s*(?i:if)\\s+(.+)\\s+THEN\\s*$",
+                "^(a+)?b$",
+                "^(?>\\w+\\s*)+$",
+                "^(\\w+)++$",
+                "^\\Q(a+)+\\E(.*)$")) {
+            assertNull(RegexGuard.screen(ok), ok);
+        }
+    }
+
+    @Test
+    void rejectsScreenedRulesAtLoad() throws Exception {
+        try (var store = new RuleStore(dir)) {
+            store.addOrUpdateRule(new Rule("evil", "Assign", "^(\\w+\\s?)*=(.*)$", new String[]{"name", "expr"}, null, null));
+            var parser = new DynamicDialectParser(store);
+            assertEquals(1, parser.rejectedRules().size());
+            assertTrue(parser.rejectedRules().get(0).startsWith("evil: nested quantifier"), parser.rejectedRules().get(0));
+        }
+    }
+
+    @Test
+    void aStackOverflowCountsAsATrip() throws Exception {
+        // passes the screen and stays within the budget, but java.util.regex recurses once per repetition
+        Rule deep = new Rule("deep", "Assign", "^(\\w+)\\s*=\\s*((?:a|b)*)x$", new String[]{"name", "expr"}, null, null);
+        Rule assign = new Rule("assign", "Assign", "^(\\w+)\\s*=\\s*(.*);$", new String[]{"name", "expr"}, null, null);
+        try (var store = new RuleStore(dir)) {
+            store.addOrUpdateRules(List.of(deep, assign));
+            var parser = new DynamicDialectParser(store, Long.MAX_VALUE / 4, 0);
+            List<Object> parsed = new java.util.ArrayList<>();
+            Thread t = new Thread(null, () -> {
+                for (int i = 0; i < DynamicDialectParser.QUARANTINE_TRIPS; i++) {
+                    parsed.add(parser.parseLine("a = " + "ab".repeat(50_000 + i) + "x;"));
+                }
+            }, "small-stack", 256 * 1024);
+            t.start();
+            t.join();
+            assertEquals(DynamicDialectParser.QUARANTINE_TRIPS, parsed.size());
+            parsed.forEach(ir -> assertInstanceOf(IR.Assign.class, ir));
+            var q = store.quarantined();
+            assertEquals(1, q.size());
+            assertEquals("deep", q.get(0).id);
+            assertTrue(q.get(0).reason.startsWith("regex overflowed the stack"), q.get(0).reason);
+        }
+    }
+
+    @Test
+    void quarantinesRulesThatExceedTheBudget() throws Exception {
+        // polynomial rather than nested, so it passes the screen; O(n^4) on a line without the final 'x'
+        Rule slow = new Rule("slow", "Assign", "^(\\w+)\\s*=\\s*(.*)(.*)(.*)(.*)x$", new String[]{"name", "expr"}, null, null);
+        Rule assign = new Rule("assign", "Assign", "^(\\w+)\\s*=\\s*(.*);$", new String[]{"name", "expr"}, null, null);
+        String line = "a = x" + "b".repeat(300) + ";"; // contains the 'x' the dispatch index requires
+        try (var store = new RuleStore(dir)) {
+            store.addOrUpdateRules(List.of(slow, assign));
+            var parser = new DynamicDialectParser(store, 10_000, 100);
+
+            assertInstanceOf(IR.Assign.class, parser.parseLine(line));
+            assertTrue(store.quarantined().isEmpty(), "one line over budget only skips the rule for that line");
+            assertEquals(2, parser.snapshot().rules.size());
+            for (int i = 1; i < DynamicDialectParser.QUARANTINE_TRIPS; i++) {
+                assertInstanceOf(IR.Assign.class, parser.parseLine("a = x" + "b".repeat(300 + i) + ";"));
+            }
+            var q = store.quarantined();
+            assertEquals(1, q.size());
+            assertEquals("slow", q.get(0).id);
+            assertTrue(q.get(0).line.startsWith("a = xbbb"), q.get(0).line);
+            assertTrue(q.get(0).reason.endsWith("(3 lines)"), q.get(0).reason);
+            assertEquals(1, store.ruleSet().rules.size());
+            assertInstanceOf(IR.Assign.class, parser.parseLine("c = 1;"));
+            store.compact();
+        }
+        try (var store = new RuleStore(dir)) {
+            assertEquals("slow", store.quarantined().get(0).id, "quarantine survives restart");
+            store.addOrUpdateRule(new Rule("slow", "Assign", "^(\\w+)\\s*=\\s*(.*)x$", new String[]{"name", "expr"}, null, null));
+            assertTrue(store.quarantined().isEmpty(), "a changed regex lifts the quarantine");
+            assertEquals(2, store.ruleSet().rules.size());
+        }
+        assertTrue(Files.readString(dir.resolve("store.journal")).contains("\"op\":\"release\""));
+        try (var store = new RuleStore(dir)) {
+            assertTrue(store.quarantined().isEmpty(), "the release is replayed");
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.agent.translate;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RuleDispatchIndexTest {
+
+    private static final List<String> REGEXES = List.of(
+            "^\\s*([A-Za-z_][A-Za-z0-9_]*)\\s*:=\\s*(.+);\\s*$",
+            "^\\s*([A-Za-z_][A-Za-z0-9_]*)\\s*\\((.*)\\)\\s*;\\s*$",
+            "^\\s*DECLARE\\s+([A-Za-z_][A-Za-z0-9_]*)\\s*:\\s*([A-Za-z0-9_<>\\[\\]]+)\\s*;\\s*$",
+            "^\\s*IF\\s+(.+)\\s+THEN\\s*$",
+            "^\\s*FOR\\s+(.+)\\s+LOOP\\s*$",
+            "^\\s*DECL(ARE)?\\s+(\\w+)\\s*;$",
+            "^\\s*(IF|WHILE)\\s+(.+)\\s+DO\\s*$",
+            "^\\s*ELSE\\s*$",
+            "^\\s*END\\s+IF\\s*;?\\s*$",
+            "^PRINT\\x20(.*)$",
+            "(?i)^\\s*return\\s+(.*);$",
+            "^\\s*x+y?z\\s*=\\s*(\\d+)$",
+            "^.*$"
+    );
+
+    private static final List<String> LINES = List.of(
+            "x := 10;", "  print(x);", "DECLARE x: INT;", "declare y : STRING;", "IF x > 1 THEN",
+            "if a = b then", "FOR i := 1 TO 10 LOOP", "DECL z;", "decl z;", "WHILE x DO", "ELSE",
+            "END IF;", "end if", "PRINT hello", "RETURN x + 1;", "xxz = 5", "xz=1", "xyz = 2",
+            "\tIF(x) THEN", "", "   ", "декларация", "IFX := 1;"
+    );
+
+    @Test
+    void candidatesAreSupersetOfMatchingRulesInOrder() {
+        var index = new RuleDispatchIndex(REGEXES);
+        for (String line : LINES) {
+            int[] cands = index.candidates(line);
+            for (int i = 1; i < cands.length; i++) assertTrue(cands[i - 1] < cands[i], "ascending for " + line);
+            for (int r = 0; r < REGEXES.size(); r++) {
+                boolean matches = Pattern.compile(REGEXES.get(r), Pattern.CASE_INSENSITIVE).matcher(line).matches();
+                if (!matches) continue;
+                boolean found = false;
+                for (int c : cands) found |= c == r;
+                assertTrue(found, "rule " + r + " missing for line '" + line + "'");
+            }
+        }
+    }
+
+    @Test
+    void keywordRulesAreNotOfferedForOtherKeywords() {
+        var index = new RuleDispatchIndex(REGEXES.subList(0, 5));
+        assertArrayEquals(new int[]{3}, index.candidates("IF x THEN"));
+        assertArrayEquals(new int[]{2}, index.candidates("declare x: INT;"));
+        assertArrayEquals(new int[]{0}, index.candidates("x := 1;"));
+        assertEquals(0, index.candidates("ELSE").length);
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.agent.translate;
+
+import com.example.agent.knowledge.Rule;
+import com.example.agent.knowledge.RuleStore;
+import com.example.agent.model.ir.IR;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RuleOverlapTest {
+
+    @TempDir
+    Path dir;
+
+    private static final String ASSIGN = "^\\s*([A-Za-z_][A-Za-z0-9_]*)\\s*:=\\s*(.+);\\s*$";
+    private static final String CALL = "^\\s*([A-Za-z_][A-Za-z0-9_]*)\\s*\\((.*)\\)\\s*;\\s*$";
+    private static final String PRINT = "^\\s*print\\s*\\((.*)\\)\\s*;\\s*$";
+    private static final String DECLARE = "^\\s*DECLARE\\s+([A-Za-z_][A-Za-z0-9_]*)\\s*:\\s*([A-Za-z0-9_<>\\[\\]]+)\\s*;\\s*$";
+    private static final String ELSE = "^\\s*ELSE\\s*$";
+    private static final String ELSIF = "^\\s*ELSEIF\\s+(.+)\\s+THEN\\s*$";
+    private static final String ANY = "^(.*)$";
+
+    private static boolean disjoint(String a, String b) {
+        return RuleOverlap.disjoint(RuleOverlap.head(a), RuleOverlap.head(b));
+    }
+
+    @Test
+    void provesObviousDisjointness() {
+        assertTrue(disjoint(ASSIGN, CALL), "':=' vs '(' after an identifier");
+        assertTrue(disjoint(ELSE, ELSIF), "a full head pins the end of the line");
+        assertTrue(disjoint("^\\d+$", "^[a-z]+$"));
+        assertTrue(disjoint("^(?:x)\\s*=\\s*1$", "^y\\s*=\\s*1$"));
+    }
+
+    @Test
+    void neverClaimsDisjointnessForOverlappingRules() {
+        assertFalse(disjoint(CALL, PRINT), "print(...) is also a call");
+        assertFalse(disjoint(ANY, ASSIGN));
+        assertFalse(disjoint(ASSIGN, "^\\s*(\\w+)\\s*:=\\s*(\\d+);$"));
+        assertFalse(disjoint(DECLARE, "^\\s*declare\\s+(\\w+)\\s*:\\s*(\\w+)\\s*;$"), "case-insensitive");
+        assertFalse(disjoint("^(a|b)c$", "^ac$"), "alternation is not summarised");
+        assertFalse(disjoint("^\\p{L}+$", "^x$"), "unknown escapes end the head");
+    }
+
+    @Test
+    void flagsOtherThanCaseInsensitivityMakeTheHeadUnknown() {
+        // regex, regex, a line both match
+        String[][] probes = {
+                {"(?x) a b", "ab", "ab"},
+                {"(?U)\\w+", "é.*", "é"},
+                {"(?x)print \\s* x", "printx", "printx"},
+                {"(?i:x)y", "xy", "xy"},
+                {"^(?-i)a$", "^a$", "a"},
+                {"^a(?x) b$", "^ab$", "ab"},
+        };
+        for (String[] p : probes) {
+            for (int k = 0; k < 2; k++) assertTrue(Pattern.compile(p[k], Pattern.CASE_INSENSITIVE).matcher(p[2]).matches(), p[k]);
+            assertFalse(disjoint(p[0], p[1]), p[0] + " / " + p[1]);
+        }
+        assertTrue(disjoint("(?i)^x\\s*=\\s*1$", "^y\\s*=\\s*1$"), "a leading (?i) is the parser's own mode");
+        assertFalse(disjoint("^\\w+$", "^é$"), "\\w may be a Unicode class");
+        assertTrue(disjoint("^\\d+$", "^[a-z]+$"));
+    }
+
+    @Test
+    void disjointMeansNoCommonLineOnRandomInput() {
+        List<String> regexes = List.of(ASSIGN, CALL, PRINT, DECLARE, ELSE, ELSIF, ANY, "^\\s*x\\s*:=\\s*\\d+;$",
+                "^\\s*IF\\s+(.+)\\s+THEN\\s*$", "^\\s*(\\w+)\\s*=\\s*(.*)$", "^[^=]*=[^=]*$", "^\\s*end\\s*;?$");
+        String alphabet = " \t:=();,xyzPRINTELSEIFTHENDECLAREend0123456789";
+        Random rnd = new Random(42);
+        List<String> lines = new ArrayList<>(List.of("x := 1;", "print(x);", "ELSE", "ELSEIF a THEN", "DECLARE x : INT;",
+                "end;", "IF a THEN", "x = 1", "f(a := 1);"));
+        for (int n = 0; n < 20_000; n++) {
+            StringBuilder sb = new StringBuilder();
+            int len = 1 + rnd.nextInt(14);
+            for (int k = 0; k < len; k++) sb.append(alphabet.charAt(rnd.nextInt(alphabet.length())));
+            lines.add(sb.toString());
+        }
+        for (String a : regexes) {
+            for (String b : regexes) {
+                if (!disjoint(a, b)) continue;
+                Pattern pa = Pattern.compile(a, Pattern.CASE_INSENSITIVE), pb = Pattern.compile(b, Pattern.CASE_INSENSITIVE);
+                for (String line : lines) {
+                    assertFalse(pa.matcher(line).matches() && pb.matcher(line).matches(), a + " / " + b + " both match '" + line + "'");
+                }
+            }
+        }
+    }
+
+    @Test
+    void rankingMovesHotRulesOnlyPastDisjointOnes() throws Exception {
+        try (var store = new RuleStore(dir)) {
+            store.addOrUpdateRules(List.of(
+                    new Rule("call", "Call", CALL, new String[]{"callee", "args"}, new String[]{"args"}, null),
+                    new Rule("print", "Call", PRINT, new String[]{"args"}, new String[]{"args"}, null),
+                    new Rule("assign", "Assign", ASSIGN, new String[]{"name", "expr"}, null, null)));
+            var parser = new DynamicDialectParser(store);
+            for (int i = 0; i < 10; i++) parser.parseLine("x := " + i + ";");
+            parser.parseLine("print(x);");
+
+            var ranked = CompiledRules.compile(store.rulesVersion(), store.ruleSet().rules, null, store).rules;
+            assertEquals(List.of("assign", "call", "print"), ranked.stream().map(cr -> cr.r.id).toList());
+
+            // print is hot now, but call shadows it: the two must keep their order
+            for (int i = 0; i < 100; i++) parser.parseLine("print(" + i + ");");
+            assertEquals(0, store.usage("print").hits());
+            assertEquals("call", store.usage("print").shadowedBy(), "probes found the shadowing rule");
+            ranked = CompiledRules.compile(store.rulesVersion(), store.ruleSet().rules, null, store).rules;
+            assertEquals(List.of("call", "assign", "print"), ranked.stream().map(cr -> cr.r.id).toList());
+            assertInstanceOf(IR.Call.class, parser.parseLine("print(x);"));
+        }
+    }
+}